@@ -0,0 +1,12 @@
+#!/bin/bash
+root=$(realpath $(dirname "$0"))
+root=$(dirname $root)
+dbname=$(logname)_db
+
+cd $root/java
+
+# Runs one operation per input line (JSON or CSV) and prints one JSON result per line.
+# Example: ./batch.sh --file bookings.jsonl --parallel 8 > results.jsonl
+# Example: echo 'ListBookingInfoForUser,a@b.com' | ./batch.sh
+# Example: ./batch.sh --file bookings.jsonl --parallel 8 --stats > results.jsonl
+java $JAVA_OPTS -cp lib/*:bin/ BatchRunner $dbname $PGPORT $(logname) "$@"
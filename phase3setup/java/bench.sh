@@ -0,0 +1,12 @@
+#!/bin/bash
+root=$(realpath $(dirname "$0"))
+root=$(dirname $root)
+dbname=$(logname)_db
+
+cd $root/java
+
+# Benchmarks the 14 menu operations with JMH; every invocation is rolled back.
+# Build first with: mvn -B package
+# Example: ./bench.sh 'op(02|09|14)' -prof gc -rf json -rff bench.json
+java $JAVA_OPTS -Dticketmaster.benchUrl=jdbc:postgresql://localhost:$PGPORT/$dbname -Dticketmaster.benchUser=$(logname) \
+	-jar jmh/target/benchmarks.jar "$@"
@@ -0,0 +1,9 @@
+#!/bin/bash
+root=$(realpath $(dirname "$0"))
+root=$(dirname $root)
+
+cd $root/java
+
+# Writes a synthetic dataset for create.sql; load it with postgresql/createdb.sh <outdir>.
+# Example: ./datagen.sh /tmp/$(logname)/data1000 --scale 1000 --seed 42 --hot-movie-share 0.6
+java $JAVA_OPTS -cp lib/*:bin/ DataGenerator "$@"
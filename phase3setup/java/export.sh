@@ -0,0 +1,11 @@
+#!/bin/bash
+root=$(realpath $(dirname "$0"))
+root=$(dirname $root)
+dbname=$(logname)_db
+
+cd $root/java
+
+# Streams a listing to a file as CSV or JSON Lines, or to the console as a table.
+# Example: ./export.sh pending-users --out /tmp/pending.csv
+# Example: ./export.sh cinema-schedule "AMC Riverside" 01/01/2019 01/31/2019 --out /tmp/schedule.jsonl
+java $JAVA_OPTS -cp lib/*:bin/ Export $dbname $PGPORT $(logname) "$@"
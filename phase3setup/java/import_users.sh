@@ -0,0 +1,10 @@
+#!/bin/bash
+root=$(realpath $(dirname "$0"))
+root=$(dirname $root)
+dbname=$(logname)_db
+
+cd $root/java
+
+# Imports users from a CSV of email,lname,fname,phone,password; rejected lines go to --rejects (default stderr).
+# Example: ./import_users.sh --file partner_users.csv --rejects rejected.tsv --parallel 8
+java $JAVA_OPTS -cp lib/*:bin/ UserImport $dbname $PGPORT $(logname) "$@"
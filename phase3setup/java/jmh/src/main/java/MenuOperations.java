@@ -0,0 +1,221 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * This class is the fixture of the JMH benchmarks in ticketmaster.jmh: the
+ * 14 menu operations as calls into TicketmasterService, the same code the
+ * console and batch mode run, with their arguments taken from sample rows
+ * of the loaded database.
+ *
+ * Every invocation runs inside one database transaction that is opened by
+ * begin and rolled back by end, so write operations can be measured over
+ * and over against the same data and two runs on the same database are
+ * comparable. The commit itself is therefore not part of the measured time.
+ * Transactions the operation opens itself become savepoints of that
+ * transaction.
+ *
+ * It lives in the default package with the classes it calls; a JMH
+ * benchmark cannot, so the benchmarks create it reflectively and call it
+ * through the JDK types of its methods.
+ */
+public class MenuOperations implements AutoCloseable {
+	/**
+	 * One call of an operation; n makes the arguments of each call unique where needed.
+	 */
+	interface Invocation {
+		Object run(long n) throws Exception;
+	}
+
+	/**
+	 * A pool whose connections, between begin and end, all map to one
+	 * connection in a transaction that is rolled back at the end. Work the
+	 * service runs with withConnection or inTransaction becomes a
+	 * savepoint, so a failing statement or a rolled back transaction inside
+	 * the operation behaves as it would on its own connection.
+	 */
+	static final class RollbackPool extends ConnectionPool {
+		//the connection of the invocation in progress; one benchmark thread per pool
+		private volatile PooledConnection _current;
+
+		RollbackPool(String url, String user, String passwd) {
+			super(url, user, passwd, 2, 256, 30000L);
+		}
+
+		/**
+		 * Method to borrow the connection of the next invocation and open its transaction.
+		 */
+		void begin() throws SQLException {
+			PooledConnection conn = borrow();
+			try {
+				conn.getConnection().setAutoCommit(false);
+			} catch (SQLException e) {
+				conn.failed(e);
+				release(conn);
+				throw e;
+			}
+			this._current = conn;
+		}
+
+		/**
+		 * Method to roll back the invocation's transaction. The connection
+		 * goes back to the pool in autocommit mode, as borrowed connections are.
+		 */
+		void end() {
+			PooledConnection conn = this._current;
+			if (conn == null) return;
+			this._current = null;
+			Connection c = conn.getConnection();
+			try {
+				c.rollback();
+			} catch (SQLException e) {
+				conn.failed(e);
+			} finally {
+				try {
+					c.setAutoCommit(true);
+				} catch (SQLException e) {
+					conn.failed(e);
+				}
+			}
+			release(conn);
+		}
+
+		@Override
+		public <T> T withConnection(Work<T> work) throws SQLException {
+			PooledConnection conn = this._current;
+			return conn == null ? super.withConnection(work) : inSavepoint(conn, work);
+		}
+
+		@Override
+		public <T> T inTransaction(Work<T> work) throws SQLException {
+			PooledConnection conn = this._current;
+			return conn == null ? super.inTransaction(work) : inSavepoint(conn, work);
+		}
+
+		private static <T> T inSavepoint(PooledConnection conn, Work<T> work) throws SQLException {
+			Connection c = conn.getConnection();
+			Savepoint sp = c.setSavepoint();
+			try {
+				T result = work.run(conn);
+				c.releaseSavepoint(sp);
+				return result;
+			} catch (SQLException | RuntimeException e) {
+				c.rollback(sp);
+				throw e;
+			}
+		}
+	}
+
+	private final RollbackPool _pool;
+	private final TicketmasterService _service;
+	//makes every AddUser email unique across runs
+	private final String _runId = Long.toString(System.nanoTime(), 36);
+	private long _n = 0;
+
+	/**
+	 * @param url the JDBC url of a loaded database
+	 */
+	public MenuOperations(String url, String user, String passwd) {
+		this._pool = new RollbackPool(url, user, passwd);
+		this._service = TicketmasterService.create(this._pool, null);
+	}
+
+	/**
+	 * Method to build the 14 operations from sample rows of the current
+	 * database, keyed by menu number. Each call runs one invocation and
+	 * returns its outcome, or throws when the operation failed.
+	 */
+	public Map<Integer, Callable<Object>> operations() throws SQLException {
+		final ColumnarResult show = this._pool.withConnection(conn -> conn.executeQueryAndReturnColumns(
+			"SELECT S.sid, M.title, CAST(S.sdate AS TEXT), CAST(S.sttime AS TEXT), C.cname, P.tid, " +
+			"to_char(S.sdate, 'MM/DD/YYYY'), to_char(S.sttime, 'HH24:MI') " +
+			"FROM Shows S, Movies M, Plays P, Theaters T, Cinemas C WHERE S.mvid = M.mvid AND S.sid = P.sid AND P.tid = T.tid AND T.cid = C.cid " +
+			"AND (SELECT COUNT(*) FROM ShowSeats SS WHERE SS.sid = S.sid AND SS.bid IS NULL) >= 2 LIMIT 1;"));
+		final ColumnarResult user = this._pool.withConnection(conn -> conn.executeQueryAndReturnColumns("SELECT email FROM Bookings LIMIT 1;"));
+		final ColumnarResult payment = this._pool.withConnection(conn -> conn.executeQueryAndReturnColumns("SELECT pid FROM Payments LIMIT 1;"));
+		final ColumnarResult swap = this._pool.withConnection(conn -> conn.executeQueryAndReturnColumns(
+			"SELECT B.bid, B.ssid, F.ssid FROM ShowSeats B, ShowSeats F WHERE B.bid IS NOT NULL AND F.bid IS NULL AND B.sid = F.sid AND B.price = F.price LIMIT 1;"));
+		if (show.size() == 0 || user.size() == 0 || payment.size() == 0) {
+			throw new SQLException("The benchmarks need a loaded dataset");
+		}
+		final long sid = show.getLong(0, 0);
+		final String title = show.getString(0, 1);
+		final String bdatetime = show.getString(0, 2) + " 00:00:00-08";
+		final String cname = show.getString(0, 4);
+		final long tid = show.getLong(0, 5);
+		final String sdate = show.getString(0, 6);
+		final String sttime = show.getString(0, 7);
+		final String email = user.getString(0, 0);
+		final long pid = payment.getLong(0, 0);
+		final TicketmasterService s = this._service;
+
+		Map<Integer, Callable<Object>> ops = new LinkedHashMap<Integer, Callable<Object>>();
+		ops.put(1, op(n -> {
+			s.addUser("bench-" + this._runId + "-" + n + "@example.com", "Bench", "Mark", 5550000000L, "secret");
+			return n;
+		}));
+		ops.put(2, op(n -> check(s.bookBest("Pending", bdatetime, sid, email, 2))));
+		ops.put(3, op(n -> {
+			long mvid = s.addMovie("Benchmark " + n, "01/01/2020", "USA", "", 7200, "en", "Drama");
+			return s.addShowings(mvid, Collections.singletonList(new Showing(tid, sdate, "10:00", "12:00")), PricingRule.randomBetween(6, 12), 1000);
+		}));
+		ops.put(4, op(n -> s.cancelPendingBookings()));
+		if (swap.size() > 0) {
+			final long bid = swap.getLong(0, 0), from = swap.getLong(0, 1), to = swap.getLong(0, 2);
+			ops.put(5, op(n -> check(s.changeSeat(bid, from, to))));
+		} else {
+			ops.put(5, op(n -> {
+				throw new SQLException("ChangeSeatsForBooking needs a booked seat with a free seat of the same price");
+			}));
+		}
+		ops.put(6, op(n -> s.removePayment(pid)));
+		ops.put(7, op(n -> job(s.clearCancelledBookings())));
+		ops.put(8, op(n -> job(s.removeShowsOnDate(cname, sdate))));
+		ops.put(9, op(n -> s.theatersPlayingShow(sid)));
+		ops.put(10, op(n -> s.showsStartingAt(sdate, sttime)));
+		ops.put(11, op(n -> s.searchMovies("love", "01/01/2011", null, null, null, 0, 20)));
+		ops.put(12, op(n -> s.usersWithPendingBooking()));
+		ops.put(13, op(n -> s.showsOfMovieAtCinema(title, cname, sdate, sdate)));
+		ops.put(14, op(n -> s.bookingHistory(email, null, null, null, null, 50)));
+		return ops;
+	}
+
+	private Callable<Object> op(Invocation invocation) {
+		return () -> invocation.run(this._n++);
+	}
+
+	private static ReservationResult check(ReservationResult r) throws SQLException {
+		if (!r.isReserved()) throw new SQLException(r.message);
+		return r;
+	}
+
+	private static MaintenanceJob job(MaintenanceJob job) throws SQLException {
+		job.run();
+		if (job.getState() != MaintenanceJob.State.DONE) throw new SQLException(job.getError());
+		return job;
+	}
+
+	/**
+	 * Method to open the transaction of the next invocation.
+	 */
+	public void begin() throws SQLException {
+		this._pool.begin();
+	}
+
+	/**
+	 * Method to roll back the transaction of the last invocation.
+	 */
+	public void end() {
+		this._pool.end();
+	}
+
+	@Override
+	public void close() {
+		this._pool.end();
+		this._pool.close();
+	}
+}
@@ -0,0 +1,158 @@
+package ticketmaster.jmh;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This class benchmarks the 14 menu operations, one benchmark per menu
+ * entry, against the database at ticketmaster.benchUrl. Sample time mode
+ * reports throughput and the latency percentiles of every operation; run
+ * with -prof gc for the bytes allocated per operation.
+ *
+ * Each invocation runs in a transaction that is opened before and rolled
+ * back after it, outside the measured time, so write operations leave the
+ * database unchanged and runs are repeatable. An operation that fails
+ * fails its benchmark instead of being counted in its latencies.
+ *
+ * Usage: java -Dticketmaster.benchUrl=jdbc:postgresql://localhost:PORT/DB -Dticketmaster.benchUser=USER -jar benchmarks.jar [JMH options]
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class MenuBenchmark {
+	private AutoCloseable _fixture;
+	private Callable<Void> _begin;
+	private Runnable _end;
+	private Map<Integer, Callable<Object>> _ops;
+
+	/**
+	 * Method to connect and build the operations from the loaded data.
+	 */
+	@Setup(Level.Trial)
+	@SuppressWarnings("unchecked")
+	public void open() throws Exception {
+		String url = System.getProperty("ticketmaster.benchUrl");
+		if (url == null) throw new IllegalStateException("Set -Dticketmaster.benchUrl to the JDBC url of a loaded database");
+		// MenuOperations is in the default package, which named packages cannot refer to
+		Class<?> c = Class.forName("MenuOperations");
+		final Object fixture = c.getConstructor(String.class, String.class, String.class)
+			.newInstance(url, System.getProperty("ticketmaster.benchUser", System.getProperty("user.name")), System.getProperty("ticketmaster.benchPassword", ""));
+		final java.lang.reflect.Method begin = c.getMethod("begin");
+		final java.lang.reflect.Method end = c.getMethod("end");
+		this._fixture = (AutoCloseable) fixture;
+		this._begin = () -> {
+			begin.invoke(fixture);
+			return null;
+		};
+		this._end = () -> {
+			try {
+				end.invoke(fixture);
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalStateException(e);
+			}
+		};
+		this._ops = (Map<Integer, Callable<Object>>) c.getMethod("operations").invoke(fixture);
+	}
+
+	@TearDown(Level.Trial)
+	public void close() throws Exception {
+		if (this._fixture != null) this._fixture.close();
+	}
+
+	@Setup(Level.Invocation)
+	public void begin() throws Exception {
+		this._begin.call();
+	}
+
+	@TearDown(Level.Invocation)
+	public void end() {
+		this._end.run();
+	}
+
+	@Benchmark
+	public Object op01AddUser() throws Exception {
+		return this._ops.get(1).call();
+	}
+
+	@Benchmark
+	public Object op02AddBooking() throws Exception {
+		return this._ops.get(2).call();
+	}
+
+	@Benchmark
+	public Object op03AddMovieShowingToTheater() throws Exception {
+		return this._ops.get(3).call();
+	}
+
+	@Benchmark
+	public Object op04CancelPendingBookings() throws Exception {
+		return this._ops.get(4).call();
+	}
+
+	@Benchmark
+	public Object op05ChangeSeatsForBooking() throws Exception {
+		return this._ops.get(5).call();
+	}
+
+	@Benchmark
+	public Object op06RemovePayment() throws Exception {
+		return this._ops.get(6).call();
+	}
+
+	@Benchmark
+	public Object op07ClearCancelledBookings() throws Exception {
+		return this._ops.get(7).call();
+	}
+
+	@Benchmark
+	public Object op08RemoveShowsOnDate() throws Exception {
+		return this._ops.get(8).call();
+	}
+
+	@Benchmark
+	public Object op09ListTheatersPlayingShow() throws Exception {
+		return this._ops.get(9).call();
+	}
+
+	@Benchmark
+	public Object op10ListShowsStartingOnTimeAndDate() throws Exception {
+		return this._ops.get(10).call();
+	}
+
+	@Benchmark
+	public Object op11SearchMovies() throws Exception {
+		return this._ops.get(11).call();
+	}
+
+	@Benchmark
+	public Object op12ListUsersWithPendingBooking() throws Exception {
+		return this._ops.get(12).call();
+	}
+
+	@Benchmark
+	public Object op13ListMovieAndShowInfoAtCinema() throws Exception {
+		return this._ops.get(13).call();
+	}
+
+	@Benchmark
+	public Object op14ListBookingInfoForUser() throws Exception {
+		return this._ops.get(14).call();
+	}
+}
@@ -0,0 +1,10 @@
+#!/bin/bash
+root=$(realpath $(dirname "$0"))
+root=$(dirname $root)
+dbname=$(logname)_db
+
+cd $root/java
+
+# Reloads every table from a folder of CSVs, streamed from this machine.
+# Example: ./load.sh /tmp/$(logname)/data1000 --parallel 8
+java $JAVA_OPTS -cp lib/*:bin/ BulkLoader $dbname $PGPORT $(logname) "$@"
@@ -0,0 +1,15 @@
+#!/bin/bash
+root=$(realpath $(dirname "$0"))
+root=$(dirname $root)
+dbname=$(logname)_db
+
+cd $root/java
+
+# Runs one chunked maintenance job; rerun with the same arguments to resume.
+# Example: ./maintenance.sh clear-cancelled --chunk 5000
+# Example: ./maintenance.sh remove-shows "AMC Riverside" 01/08/2019
+# Example: ./maintenance.sh rebuild-schedule
+# With partitioned shows (postgresql/partition.sh), monthly from cron:
+# Example: ./maintenance.sh partitions --months 3
+# Example: ./maintenance.sh retire 01/01/2019 --archive
+java $JAVA_OPTS -cp lib/*:bin/ Maintenance $dbname $PGPORT $(logname) "$@"
@@ -0,0 +1,10 @@
+#!/bin/bash
+root=$(realpath $(dirname "$0"))
+root=$(dirname $root)
+dbname=$(logname)_db
+
+cd $root/java
+
+# Explains the 14 menu operations and fails on seq scans or slow plans.
+# Example: ./plancheck.sh --budget-ms 50 --min-rows 10000
+java $JAVA_OPTS -cp lib/*:bin/ PlanCheck $dbname $PGPORT $(logname) "$@"
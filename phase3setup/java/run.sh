@@ -6,4 +6,9 @@ dbname=$(logname)_db
 cd $root/java
 
 # Example: ./run.sh
-java -cp lib/*:bin/ Ticketmaster $dbname $PGPORT $(logname)
+# Pool settings: JAVA_OPTS="-Dticketmaster.poolSize=8 -Dticketmaster.statementCacheSize=64" ./run.sh
+# Reference cache: JAVA_OPTS="-Dticketmaster.referenceCacheSize=1024 -Dticketmaster.referenceTtlMs=300000 -Dticketmaster.printCacheStats=true" ./run.sh
+# Seat holds: JAVA_OPTS="-Dticketmaster.holdTtlMs=600000 -Dticketmaster.holdTickMs=1000 -Dticketmaster.holdRescanMs=60000" ./run.sh (0 keeps Pending bookings until cancelled)
+# Read replica (postgresql/startreplica.sh): JAVA_OPTS="-Dticketmaster.readUrl=jdbc:postgresql://localhost:$((PGPORT + 1))/$dbname -Dticketmaster.readMaxLagMs=1000" ./run.sh
+# Metrics: JAVA_OPTS="-Dticketmaster.statsIntervalMs=60000" ./run.sh 2>stats.log (also menu 16, and JMX under ticketmaster:*)
+java $JAVA_OPTS -cp lib/*:bin/ Ticketmaster $dbname $PGPORT $(logname)
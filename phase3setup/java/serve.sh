@@ -0,0 +1,11 @@
+#!/bin/bash
+root=$(realpath $(dirname "$0"))
+root=$(dirname $root)
+dbname=$(logname)_db
+
+cd $root/java
+
+# Serves the booking operations as JSON over HTTP.
+# Example: JAVA_OPTS="-Dticketmaster.poolSize=16" ./serve.sh --http-port 8080
+# Listings from a read replica: JAVA_OPTS="-Dticketmaster.readUrl=jdbc:postgresql://localhost:$((PGPORT + 1))/$dbname" ./serve.sh
+java $JAVA_OPTS -cp lib/*:bin/ HttpService $dbname $PGPORT $(logname) "$@"
@@ -0,0 +1,430 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class runs Ticketmaster operations without the console. It reads one
+ * operation per line from a file or stdin, runs them through
+ * TicketmasterService on a configurable number of threads, writes one JSON
+ * result per input line to stdout in input order, and prints a throughput
+ * summary to stderr; with --stats the summary is followed by the latency,
+ * round trips and rows of every operation and statement, see Metrics.
+ *
+ * A line is either a JSON object naming the operation and its arguments,
+ *
+ *   {"op":"AddBooking","status":"Paid","bdatetime":"2019-01-08 04:05:00-08","sid":201,"email":"a@b.com","seats":[1201,1202]}
+ *
+ * or a CSV record with the operation first and its arguments in the order
+ * listed in OPERATIONS, array arguments separated by ';':
+ *
+ *   AddBooking,Paid,2019-01-08 04:05:00-08,201,a@b.com,1201;1202
+ *
+ * Blank lines and lines starting with # are skipped. With more than one
+ * thread operations may run out of order; use --parallel 1 to replay a log
+ * in order.
+ *
+ * Usage: java BatchRunner &lt;dbname&gt; &lt;port&gt; &lt;user&gt; [--file path] [--parallel N] [--stats]
+ */
+public class BatchRunner {
+	/**
+	 * One operation, run with the arguments of one input line.
+	 */
+	interface Operation {
+		Object run(TicketmasterService service, Args args) throws Exception;
+	}
+
+	/**
+	 * The arguments of one input line by name.
+	 */
+	static final class Args {
+		private final Map<String, Object> _values;
+
+		Args(Map<String, Object> values) {
+			this._values = values;
+		}
+
+		boolean has(String name) {
+			return this._values.get(name) != null;
+		}
+
+		Object get(String name) {
+			Object value = this._values.get(name);
+			if (value == null) throw new IllegalArgumentException("Missing argument " + name);
+			return value;
+		}
+
+		String str(String name) {
+			return get(name).toString();
+		}
+
+		long lng(String name) {
+			Object value = get(name);
+			return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString().trim());
+		}
+
+		int integer(String name) {
+			return (int) lng(name);
+		}
+
+		long[] longs(String name) {
+			Object value = get(name);
+			if (value instanceof List) {
+				List<?> list = (List<?>) value;
+				long[] ids = new long[list.size()];
+				for (int i = 0; i < ids.length; ++i) ids[i] = ((Number) list.get(i)).longValue();
+				return ids;
+			}
+			if (value instanceof Number) return new long[]{ ((Number) value).longValue() };
+			return Arrays.stream(value.toString().split(";")).map(String::trim).filter(s -> !s.isEmpty()).mapToLong(Long::parseLong).toArray();
+		}
+	}
+
+	//argument names of each operation, in CSV column order
+	static final Map<String, String[]> PARAMS = new LinkedHashMap<String, String[]>();
+	static final Map<String, Operation> OPERATIONS = new LinkedHashMap<String, Operation>();
+
+	static {
+		define("AddUser", new String[]{ "email", "lname", "fname", "phone", "pwd" }, (s, a) -> {
+			s.addUser(a.str("email"), a.str("lname"), a.str("fname"), a.lng("phone"), a.str("pwd"));
+			return null;
+		});
+		// seats lists the ssids to book; best books that many adjacent seats instead; holdMs overrides how long a Pending booking holds them
+		define("AddBooking", new String[]{ "status", "bdatetime", "sid", "email", "seats", "best", "holdMs" }, (s, a) -> {
+			long holdMs = a.has("holdMs") ? a.lng("holdMs") : s.getHolds().getTtlMs();
+			ReservationResult r = a.has("best")
+				? s.bookBest(a.str("status"), a.str("bdatetime"), a.lng("sid"), a.str("email"), a.integer("best"), holdMs)
+				: s.book(a.str("status"), a.str("bdatetime"), a.lng("sid"), a.str("email"), a.longs("seats"), holdMs);
+			return reservation(r);
+		});
+		define("AddMovieShowingToTheater", new String[]{ "title", "rdate", "country", "description", "duration", "lang", "genre", "tids", "sdate", "sttime", "edtime" }, (s, a) -> {
+			long mvid = s.addMovie(a.str("title"), a.str("rdate"), a.str("country"), a.str("description"), a.integer("duration"), a.str("lang"), a.str("genre"));
+			List<Showing> showings = new ArrayList<Showing>();
+			for (long tid : a.longs("tids")) showings.add(new Showing(tid, a.str("sdate"), a.str("sttime"), a.str("edtime")));
+			long[] sids = s.addShowings(mvid, showings, PricingRule.randomBetween(6, 12), 1000);
+			Map<String, Object> result = new LinkedHashMap<String, Object>();
+			result.put("mvid", mvid);
+			result.put("sids", sids);
+			return result;
+		});
+		define("CancelPendingBookings", new String[0], (s, a) -> count("cancelled", s.cancelPendingBookings()));
+		define("ChangeSeatsForBooking", new String[]{ "bid", "ssid", "newSsid" }, (s, a) ->
+			reservation(s.changeSeat(a.lng("bid"), a.lng("ssid"), a.lng("newSsid"))));
+		define("RemovePayment", new String[]{ "pid" }, (s, a) -> count("released", s.removePayment(a.lng("pid"))));
+		define("ClearCancelledBookings", new String[0], (s, a) -> job(s.clearCancelledBookings()));
+		define("RemoveShowsOnDate", new String[]{ "cinema", "sdate" }, (s, a) -> job(s.removeShowsOnDate(a.str("cinema"), a.str("sdate"))));
+		define("ListTheatersPlayingShow", new String[]{ "sid" }, (s, a) -> s.theatersPlayingShow(a.lng("sid")));
+		define("ListShowsStartingOnTimeAndDate", new String[]{ "sdate", "sttime" }, (s, a) -> s.showsStartingAt(a.str("sdate"), a.str("sttime")));
+		define("SearchMovies", new String[]{ "keywords", "from", "to", "genre", "lang", "offset", "limit" }, (s, a) ->
+			s.searchMovies(a.str("keywords"), a.has("from") ? a.str("from") : null, a.has("to") ? a.str("to") : null,
+				a.has("genre") ? a.str("genre") : null, a.has("lang") ? a.str("lang") : null,
+				a.has("offset") ? a.integer("offset") : 0, a.has("limit") ? a.integer("limit") : 20));
+		// the fixed search that SearchMovies replaced, kept for existing scripts
+		define("ListMovieTitlesContainingLoveReleasedAfter2010", new String[0], (s, a) ->
+			s.searchMovies("love", "01/01/2011", null, null, null, 0, TicketmasterService.MAX_SEARCH_LIMIT));
+		define("CinemaSchedule", new String[]{ "cinema", "startDate", "endDate" }, (s, a) -> s.scheduleOfCinema(a.str("cinema"), a.str("startDate"), a.str("endDate")));
+		define("ListUsersWithPendingBooking", new String[0], (s, a) -> s.usersWithPendingBooking());
+		define("ListMovieAndShowInfoAtCinemaInDateRange", new String[]{ "title", "cinema", "startDate", "endDate" }, (s, a) ->
+			s.showsOfMovieAtCinema(a.str("title"), a.str("cinema"), a.str("startDate"), a.str("endDate")));
+		define("ListBookingInfoForUser", new String[]{ "email", "from", "to", "status", "after", "limit" }, (s, a) ->
+			s.bookingHistory(a.str("email"), a.has("from") ? a.str("from") : null, a.has("to") ? a.str("to") : null,
+				a.has("status") ? a.str("status") : null, a.has("after") ? a.str("after") : null, a.has("limit") ? a.integer("limit") : 50).toMap());
+	}
+
+	private static void define(String name, String[] params, Operation op) {
+		PARAMS.put(name, params);
+		OPERATIONS.put(name, op);
+	}
+
+	/**
+	 * A reservation that did not succeed is reported as a failed line.
+	 */
+	private static Object reservation(ReservationResult r) throws SQLException {
+		if (!r.isReserved()) throw new SQLException(r.status + ": " + r.message);
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("bid", r.bid);
+		result.put("seats", r.reserved);
+		result.put("attempts", r.attempts);
+		return result;
+	}
+
+	private static Object count(String name, long n) {
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put(name, n);
+		return result;
+	}
+
+	private static Object job(MaintenanceJob job) throws SQLException {
+		job.run();
+		if (job.getState() != MaintenanceJob.State.DONE) throw new SQLException(job.getState() + ": " + job.getError());
+		return count("processed", job.getProcessed());
+	}
+
+	/**
+	 * The outcome of one input line.
+	 */
+	static final class Result {
+		final long line;
+		final String op;
+		final boolean ok;
+		final Object value;
+		final String error;
+		final long nanos;
+
+		Result(long line, String op, boolean ok, Object value, String error, long nanos) {
+			this.line = line;
+			this.op = op;
+			this.ok = ok;
+			this.value = value;
+			this.error = error;
+			this.nanos = nanos;
+		}
+
+		String toJson() {
+			Map<String, Object> out = new LinkedHashMap<String, Object>();
+			out.put("line", this.line);
+			out.put("op", this.op);
+			out.put("ok", this.ok);
+			out.put("ms", Math.round(this.nanos / 1e4) / 100.0);
+			if (this.ok) out.put("result", this.value); else out.put("error", this.error);
+			return Json.write(out);
+		}
+	}
+
+	private final TicketmasterService _service;
+	private final int _parallel;
+
+	public BatchRunner(TicketmasterService service, int parallel) {
+		this._service = service;
+		this._parallel = Math.max(1, parallel);
+	}
+
+	/**
+	 * Method to parse and run one input line.
+	 */
+	Result execute(long lineNo, String line) {
+		long start = System.nanoTime();
+		String op = null;
+		try {
+			Map<String, Object> values = parseLine(line);
+			op = String.valueOf(values.get("op"));
+			Operation operation = OPERATIONS.get(op);
+			if (operation == null) throw new IllegalArgumentException("Unknown operation " + op);
+			Object value = operation.run(this._service, new Args(values));
+			return new Result(lineNo, op, true, value, null, System.nanoTime() - start);
+		} catch (Exception e) {
+			String message = e.getMessage() == null ? e.toString() : e.getMessage();
+			return new Result(lineNo, op, false, null, message, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Method to turn a JSON or CSV line into named arguments.
+	 */
+	@SuppressWarnings("unchecked")
+	static Map<String, Object> parseLine(String line) {
+		String trimmed = line.trim();
+		if (trimmed.startsWith("{")) {
+			Object value = Json.parse(trimmed);
+			if (!(value instanceof Map)) throw new IllegalArgumentException("Expected a JSON object");
+			return (Map<String, Object>) value;
+		}
+		List<String> fields = splitCsv(trimmed);
+		String op = fields.get(0).trim();
+		String[] names = PARAMS.get(op);
+		if (names == null) throw new IllegalArgumentException("Unknown operation " + op);
+		Map<String, Object> values = new LinkedHashMap<String, Object>();
+		values.put("op", op);
+		for (int i = 1; i < fields.size() && i - 1 < names.length; ++i) {
+			if (!fields.get(i).isEmpty()) values.put(names[i - 1], fields.get(i));
+		}
+		return values;
+	}
+
+	/**
+	 * Splits a CSV record; fields may be quoted with "" to contain commas and
+	 * doubled quotes.
+	 */
+	static List<String> splitCsv(String line) {
+		List<String> fields = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); ++i) {
+			char ch = line.charAt(i);
+			if (quoted) {
+				if (ch == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					field.append('"');
+					++i;
+				} else if (ch == '"') {
+					quoted = false;
+				} else {
+					field.append(ch);
+				}
+			} else if (ch == '"') {
+				quoted = true;
+			} else if (ch == ',') {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else {
+				field.append(ch);
+			}
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+
+	/**
+	 * Method to run every line of the input and write the results in input
+	 * order. At most a bounded number of lines is in flight, so any input
+	 * size runs in constant memory.
+	 *
+	 * @return the number of failed lines
+	 */
+	public long run(BufferedReader input, final PrintWriter output, PrintWriter summary) throws IOException, InterruptedException {
+		ExecutorService workers = Executors.newFixedThreadPool(this._parallel);
+		final BlockingQueue<Future<Result>> pending = new ArrayBlockingQueue<Future<Result>>(this._parallel * 64);
+		final Future<Result> end = CompletableFuture.completedFuture(null);
+		final Map<String, long[]> perOp = new TreeMap<String, long[]>();
+		final long[] totals = new long[2];
+		//set when the writer stops early, so the reader stops queueing lines
+		final AtomicBoolean stopped = new AtomicBoolean(false);
+
+		// results are written by their own thread in the order the lines were read
+		Thread writer = new Thread(() -> {
+			try {
+				while (true) {
+					Future<Result> next = pending.take();
+					if (next == end) break;
+					Result r;
+					try {
+						r = next.get();
+					} catch (ExecutionException e) {
+						// execute reports failures itself, so this is an Error thrown by one line
+						r = new Result(0, null, false, null, String.valueOf(e.getCause()), 0);
+					}
+					output.println(r.toJson());
+					long[] stats = perOp.computeIfAbsent(r.op == null ? "(invalid)" : r.op, k -> new long[3]);
+					stats[r.ok ? 0 : 1]++;
+					stats[2] += r.nanos;
+					totals[r.ok ? 0 : 1]++;
+				}
+			} catch (InterruptedException e) {
+				stopped.set(true);
+				for (Future<Result> f; (f = pending.poll()) != null; ) f.cancel(true);
+				Thread.currentThread().interrupt();
+			}
+			output.flush();
+		}, "batch-writer");
+		writer.start();
+
+		long start = System.nanoTime();
+		long lineNo = 0;
+		String line;
+		try {
+			while ((line = input.readLine()) != null) {
+				++lineNo;
+				if (line.trim().isEmpty() || line.trim().startsWith("#")) continue;
+				final long n = lineNo;
+				final String l = line;
+				enqueue(pending, workers.submit(() -> execute(n, l)), stopped);
+			}
+		} finally {
+			try {
+				enqueue(pending, end, stopped);
+			} finally {
+				writer.join();
+				if (stopped.get()) workers.shutdownNow(); else workers.shutdown();
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		long ok = totals[0], failed = totals[1];
+		summary.printf("%d operations in %.2fs (%.0f ops/s) on %d thread(s): %d ok, %d failed%n",
+			ok + failed, seconds, seconds > 0 ? (ok + failed) / seconds : 0.0, this._parallel, ok, failed);
+		for (Map.Entry<String, long[]> e : perOp.entrySet()) {
+			long[] s = e.getValue();
+			summary.printf("  %-48s %8d ok %8d failed %10.2f ms avg%n", e.getKey(), s[0], s[1], s[2] / 1e6 / Math.max(1, s[0] + s[1]));
+		}
+		summary.flush();
+		return failed;
+	}
+
+	/**
+	 * Method to queue a result for the writer, waiting while the queue is
+	 * full unless the writer has stopped.
+	 *
+	 * @throws InterruptedException when the writer stopped before taking it
+	 */
+	private static void enqueue(BlockingQueue<Future<Result>> pending, Future<Result> result, AtomicBoolean stopped) throws InterruptedException {
+		do {
+			if (stopped.get()) {
+				result.cancel(true);
+				throw new InterruptedException("The batch writer stopped");
+			}
+		} while (!pending.offer(result, 100, TimeUnit.MILLISECONDS));
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 3) {
+			System.err.println("Usage: java [-classpath <classpath>] " + BatchRunner.class.getName() + " <dbname> <port> <user> [--file path] [--parallel N] [--stats]");
+			System.exit(2);
+		}
+		String file = "-";
+		int parallel = 1;
+		boolean stats = false;
+		List<String> rest = Arrays.asList(args).subList(3, args.length);
+		for (int i = 0; i < rest.size(); ++i) {
+			if (rest.get(i).equals("--stats")) stats = true;
+			else if (rest.get(i).equals("--file") && i + 1 < rest.size()) file = rest.get(++i);
+			else if (rest.get(i).equals("--parallel") && i + 1 < rest.size()) parallel = Integer.parseInt(rest.get(++i));
+		}
+		String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+		// one connection per worker, so no worker waits for another's connection
+		ConnectionPool pool = new ConnectionPool(url, args[2], "", Math.max(parallel, Integer.getInteger("ticketmaster.poolSize", 1)),
+			Integer.getInteger("ticketmaster.statementCacheSize", 64),
+			Long.getLong("ticketmaster.borrowTimeoutMs", 30000L));
+		TicketmasterService service = TicketmasterService.create(pool, null);
+		long failed;
+		try (InputStream in = file.equals("-") ? System.in : new FileInputStream(file)) {
+			service.getReads().start();
+			BufferedReader input = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+			PrintWriter output = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16));
+			PrintWriter summary = new PrintWriter(new OutputStreamWriter(System.err, StandardCharsets.UTF_8));
+			pool.getMetrics().registerMBeans().dumpEvery(System.err, Long.getLong("ticketmaster.statsIntervalMs", 0L));
+			failed = new BatchRunner(service, parallel).run(input, output, summary);
+			if (stats) {
+				summary.print(pool.getMetrics().report());
+				summary.println(service.getReads());
+				summary.flush();
+			}
+		} catch (Exception e) {
+			System.err.println(e.getMessage());
+			failed = 1;
+		} finally {
+			service.getReads().close();
+			pool.close();
+		}
+		System.exit(failed == 0 ? 0 : 1);
+	}
+}
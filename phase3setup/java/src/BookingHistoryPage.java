@@ -0,0 +1,68 @@
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class is one page of a user's booking history, newest booking
+ * first, with one row per booked seat. A page holds whole bookings; the
+ * cursor names the last booking of the page, so the next page starts right
+ * after it however many bookings were added or removed in between.
+ *
+ * A cursor is written as bdatetime,bid with bdatetime as an ISO-8601
+ * instant, such as 2019-01-08T17:30:00Z,1234.
+ */
+public class BookingHistoryPage {
+	//bid, bdatetime, status, title, sdate, sttime, tname, sno, price of every booked seat
+	public final ColumnarResult rows;
+	//the number of bookings on the page
+	public final int bookings;
+	//the booking time and id of the last booking, or null and -1 on the last page
+	public final Instant lastBdatetime;
+	public final long lastBid;
+
+	BookingHistoryPage(ColumnarResult rows, int bookings, Instant lastBdatetime, long lastBid) {
+		this.rows = rows;
+		this.bookings = bookings;
+		this.lastBdatetime = lastBdatetime;
+		this.lastBid = lastBid;
+	}
+
+	public boolean hasMore() {
+		return this.lastBdatetime != null;
+	}
+
+	/**
+	 * @return the cursor of the next page, or null when this is the last page
+	 */
+	public String nextCursor() {
+		return hasMore() ? this.lastBdatetime + "," + this.lastBid : null;
+	}
+
+	/**
+	 * Method to split a cursor into the booking time and id it names.
+	 *
+	 * @return the bdatetime as an Instant and the bid as a Long
+	 * @throws IllegalArgumentException when the cursor is malformed
+	 */
+	static Object[] parseCursor(String cursor) {
+		int comma = cursor.lastIndexOf(',');
+		try {
+			if (comma < 0) throw new IllegalArgumentException("Malformed cursor " + cursor);
+			return new Object[]{ Instant.parse(cursor.substring(0, comma).trim()), Long.valueOf(cursor.substring(comma + 1).trim()) };
+		} catch (DateTimeParseException e) {
+			throw new IllegalArgumentException("Malformed cursor " + cursor);
+		}
+	}
+
+	/**
+	 * @return the rows and next cursor, for Json
+	 */
+	public Map<String, Object> toMap() {
+		Map<String, Object> m = new LinkedHashMap<String, Object>();
+		m.put("bookings", this.bookings);
+		m.put("rows", this.rows);
+		m.put("next", nextCursor());
+		return m;
+	}
+}
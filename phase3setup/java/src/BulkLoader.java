@@ -0,0 +1,307 @@
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.postgresql.PGConnection;
+
+/**
+ * This class reloads the 11 tables of create.sql from a folder of CSVs,
+ * such as phase3setup/data or the output of DataGenerator, into a database
+ * created by postgresql/createdb.sh. The files are streamed from the client
+ * with COPY FROM STDIN, so they can live anywhere.
+ *
+ * The keys, foreign keys and indexes of the tables are read from the
+ * catalog and dropped before loading, then rebuilt from the same
+ * definitions once the data is in. Without foreign keys every table loads
+ * in parallel; each table is truncated and loaded with COPY FREEZE in one
+ * transaction. The rebuild follows the foreign key graph: a table's keys
+ * and indexes are built as soon as it is loaded, and a foreign key as soon
+ * as the keys of both its tables exist. The id sequences are then moved
+ * past the loaded ids, the ShowSchedule read model is rebuilt from the new
+ * shows and the tables analyzed.
+ *
+ * The CSVs of Bookings and ShowSeats have no show date (migration 007):
+ * they are copied into a temporary table once Shows is loaded and inserted
+ * with the date of their show. Tables partitioned by sql/partition.sql are
+ * not loaded; load into an unpartitioned database and partition it after.
+ *
+ * If the load fails, the definitions not rebuilt yet are printed so they
+ * can be applied by hand. Running consoles should be restarted after a
+ * reload, since their seat availability and caches describe the old data.
+ *
+ * Usage: java BulkLoader &lt;dbname&gt; &lt;port&gt; &lt;user&gt; &lt;datadir&gt; [--parallel N]
+ */
+public class BulkLoader {
+	/**
+	 * A table of create.sql and the columns of its CSV file.
+	 */
+	static final class Table {
+		final String name;
+		final String columns;
+		final boolean emptyIsNull;
+		//whether sdate is taken from Shows by sid
+		final boolean showDate;
+
+		Table(String name, String columns, boolean emptyIsNull, boolean showDate) {
+			this.name = name;
+			this.columns = columns;
+			this.emptyIsNull = emptyIsNull;
+			this.showDate = showDate;
+		}
+
+		String copySql() {
+			return "COPY " + (this.showDate ? stagingName() : this.name) + " (" + this.columns + ") FROM STDIN WITH (FORMAT text, DELIMITER ','" +
+				(this.emptyIsNull ? ", NULL ''" : "") + ", FREEZE)";
+		}
+
+		String stagingName() {
+			return "Load" + this.name;
+		}
+
+		String createStagingSql() {
+			// only the CSV's columns, without the NOT NULL of sdate (migration 008)
+			return "CREATE TEMPORARY TABLE " + stagingName() + " ON COMMIT DROP AS SELECT " + this.columns + " FROM " + this.name + " WITH NO DATA";
+		}
+
+		String insertFromStagingSql() {
+			return "INSERT INTO " + this.name + " (" + this.columns + ", sdate) SELECT L." + this.columns.replace(", ", ", L.") +
+				", S.sdate FROM " + stagingName() + " L LEFT JOIN Shows S ON S.sid = L.sid";
+		}
+	}
+
+	static final Table[] TABLES = {
+		new Table("Cities", "city_id, city_name, city_state, zip_code", false, false),
+		new Table("Cinemas", "cid, city_id, cname, tnum", false, false),
+		new Table("Theaters", "tid, cid, tname, tseats", false, false),
+		new Table("CinemaSeats", "csid, tid, sno, stype", false, false),
+		new Table("Movies", "mvid, title, rdate, country, description, duration, lang, genre", false, false),
+		new Table("Users", "email, lname, fname, phone, pwd", false, false),
+		new Table("Shows", "sid, mvid, sdate, sttime, edtime", false, false),
+		new Table("Bookings", "bid, status, bdatetime, seats, sid, email", false, true),
+		new Table("Payments", "pid, bid, pmethod, pdatetime, amount, trid", false, false),
+		new Table("ShowSeats", "ssid, sid, csid, bid, price", true, true),
+		new Table("Plays", "sid, tid", false, false)
+	};
+
+	private final ConnectionPool _pool;
+	private final File _dir;
+	private final int _parallel;
+	private final String _maintenanceWorkMem;
+	//definitions dropped and not rebuilt yet
+	private final Set<String> _pending = ConcurrentHashMap.newKeySet();
+
+	public BulkLoader(ConnectionPool pool, File dir, int parallel, String maintenanceWorkMem) {
+		this._pool = pool;
+		this._dir = dir;
+		this._parallel = parallel;
+		this._maintenanceWorkMem = maintenanceWorkMem;
+	}
+
+	private static String tableList() {
+		StringBuilder sb = new StringBuilder();
+		for (Table t : TABLES) sb.append(sb.length() == 0 ? "" : ",").append(t.name.toLowerCase());
+		return sb.toString();
+	}
+
+	private static void execute(PooledConnection conn, String sql) throws SQLException {
+		try (Statement stmt = conn.getConnection().createStatement()) {
+			stmt.execute(sql);
+		}
+	}
+
+	private void run(String ddl) throws SQLException {
+		this._pool.withConnection(conn -> {
+			conn.executeQueryAndReturnColumns(Queries.LOAD_SESSION, this._maintenanceWorkMem);
+			execute(conn, ddl);
+			return null;
+		});
+		this._pending.remove(ddl);
+	}
+
+	/**
+	 * Method to stream one CSV into its table.
+	 *
+	 * @return the number of rows loaded
+	 */
+	private long copy(Table t) throws SQLException {
+		final File file = new File(this._dir, t.name + ".csv");
+		return this._pool.inTransaction(conn -> {
+			conn.executeQueryAndReturnColumns(Queries.LOAD_SESSION, this._maintenanceWorkMem);
+			execute(conn, "TRUNCATE " + t.name);
+			if (t.showDate) execute(conn, t.createStagingSql());
+			long rows;
+			try (InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 20)) {
+				rows = conn.getConnection().unwrap(PGConnection.class).getCopyAPI().copyIn(t.copySql(), in, 1 << 16);
+			} catch (IOException e) {
+				throw new SQLException("Cannot read " + file + ": " + e.getMessage());
+			}
+			if (t.showDate) execute(conn, t.insertFromStagingSql());
+			return rows;
+		});
+	}
+
+	/**
+	 * Method to load every table and rebuild its constraints and indexes.
+	 */
+	public void load() throws SQLException {
+		for (Table t : TABLES) {
+			File file = new File(this._dir, t.name + ".csv");
+			if (!file.canRead()) throw new SQLException("Cannot read " + file);
+		}
+		final String tables = tableList();
+		ColumnarResult partitioned = this._pool.withConnection(conn -> conn.executeQueryAndReturnColumns(Queries.PARTITIONED_TABLES, tables));
+		if (partitioned.size() > 0) {
+			throw new SQLException("Cannot load partitioned table " + partitioned.getString(0, 0) + "; load into an unpartitioned database and run postgresql/partition.sh after");
+		}
+		ColumnarResult constraints = this._pool.withConnection(conn -> conn.executeQueryAndReturnColumns(Queries.CONSTRAINTS_OF_TABLES, tables));
+		ColumnarResult indexes = this._pool.withConnection(conn -> conn.executeQueryAndReturnColumns(Queries.INDEXES_OF_TABLES, tables));
+
+		//table -> statements rebuilding its keys, then its indexes; foreign keys with both of their tables
+		Map<String, List<String>> keys = new HashMap<String, List<String>>();
+		Map<String, List<String>> tableIndexes = new HashMap<String, List<String>>();
+		List<String[]> foreignKeys = new ArrayList<String[]>();
+		List<String> drops = new ArrayList<String>();
+		for (Table t : TABLES) {
+			keys.put(t.name.toLowerCase(), new ArrayList<String>());
+			tableIndexes.put(t.name.toLowerCase(), new ArrayList<String>());
+		}
+		for (int i = 0; i < constraints.size(); ++i) {
+			String table = constraints.getString(i, 0).toLowerCase();
+			String add = "ALTER TABLE " + table + " ADD CONSTRAINT " + constraints.getString(i, 1) + " " + constraints.getString(i, 3);
+			String drop = "ALTER TABLE " + table + " DROP CONSTRAINT " + constraints.getString(i, 1);
+			if (constraints.getString(i, 2).equals("f")) {
+				foreignKeys.add(new String[]{ table, constraints.getString(i, 4).toLowerCase(), add });
+				drops.add(0, drop);
+			} else {
+				keys.get(table).add(add);
+				drops.add(drop);
+			}
+			this._pending.add(add);
+		}
+		for (int i = 0; i < indexes.size(); ++i) {
+			tableIndexes.get(indexes.getString(i, 0).toLowerCase()).add(indexes.getString(i, 2));
+			drops.add("DROP INDEX " + indexes.getString(i, 1));
+			this._pending.add(indexes.getString(i, 2));
+		}
+
+		System.out.println("Dropping " + drops.size() + " constraints and indexes");
+		this._pool.inTransaction(conn -> {
+			for (String drop : drops) execute(conn, drop);
+			return null;
+		});
+
+		ExecutorService executor = Executors.newFixedThreadPool(this._parallel);
+		try {
+			Map<String, CompletableFuture<Void>> keyed = new HashMap<String, CompletableFuture<Void>>();
+			List<CompletableFuture<Void>> all = new ArrayList<CompletableFuture<Void>>();
+			CompletableFuture<Void> showsLoaded = null;
+			for (Table t : TABLES) {
+				final String table = t.name.toLowerCase();
+				Runnable load = () -> {
+					long start = System.nanoTime();
+					long rows = unchecked(() -> copy(t));
+					System.out.println(String.format("  %-12s %,14d rows in %.1f s", t.name, rows, (System.nanoTime() - start) / 1e9));
+				};
+				// Shows comes before the tables that take their show date from it
+				CompletableFuture<Void> loaded = t.showDate ? showsLoaded.thenRunAsync(load, executor) : CompletableFuture.runAsync(load, executor);
+				if (table.equals("shows")) showsLoaded = loaded;
+				CompletableFuture<Void> withKeys = loaded.thenRunAsync(() -> {
+					for (String ddl : keys.get(table)) unchecked(() -> { run(ddl); return null; });
+				}, executor);
+				keyed.put(table, withKeys);
+				all.add(withKeys.thenRunAsync(() -> {
+					for (String ddl : tableIndexes.get(table)) unchecked(() -> { run(ddl); return null; });
+				}, executor));
+			}
+			for (String[] fk : foreignKeys) {
+				CompletableFuture<Void> parent = keyed.containsKey(fk[1]) ? keyed.get(fk[1]) : CompletableFuture.completedFuture(null);
+				all.add(CompletableFuture.allOf(keyed.get(fk[0]), parent).thenRunAsync(() -> unchecked(() -> { run(fk[2]); return null; }), executor));
+			}
+			CompletableFuture.allOf(all.toArray(new CompletableFuture<?>[0])).join();
+
+			this._pool.withConnection(conn -> conn.executeQueryAndReturnColumns(Queries.RESET_SEQUENCES));
+			this._pool.inTransaction(conn -> {
+				conn.executeUpdate(Queries.DELETE_SCHEDULE);
+				return conn.executeUpdate(Queries.REBUILD_SCHEDULE);
+			});
+			List<CompletableFuture<Void>> analyzed = new ArrayList<CompletableFuture<Void>>();
+			for (Table t : TABLES) {
+				analyzed.add(CompletableFuture.runAsync(() -> unchecked(() -> { run("ANALYZE " + t.name); return null; }), executor));
+			}
+			analyzed.add(CompletableFuture.runAsync(() -> unchecked(() -> { run("ANALYZE ShowSchedule"); return null; }), executor));
+			CompletableFuture.allOf(analyzed.toArray(new CompletableFuture<?>[0])).join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+			if (cause instanceof SQLException) throw (SQLException) cause;
+			throw e;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return the constraints and indexes dropped and not rebuilt yet
+	 */
+	public Set<String> getPending() {
+		return this._pending;
+	}
+
+	private interface SqlCall<T> {
+		T call() throws SQLException;
+	}
+
+	private static <T> T unchecked(SqlCall<T> call) {
+		try {
+			return call.call();
+		} catch (SQLException e) {
+			throw new CompletionException(e);
+		}
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 4) {
+			System.err.println("Usage: java [-classpath <classpath>] " + BulkLoader.class.getName() + " <dbname> <port> <user> <datadir> [--parallel N]");
+			System.exit(2);
+		}
+		int parallel = Math.min(TABLES.length, Runtime.getRuntime().availableProcessors());
+		List<String> rest = Arrays.asList(args).subList(4, args.length);
+		for (int i = 0; i + 1 < rest.size(); i += 2) {
+			if (rest.get(i).equals("--parallel")) parallel = Integer.parseInt(rest.get(i + 1));
+		}
+		String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+		ConnectionPool pool = new ConnectionPool(url, args[2], "", parallel, 64, 600000L);
+		BulkLoader loader = new BulkLoader(pool, new File(args[3]), parallel,
+			System.getProperty("ticketmaster.loadMaintenanceWorkMem", "512MB"));
+		long start = System.nanoTime();
+		int status = 0;
+		try {
+			loader.load();
+			System.out.println(String.format("Loaded in %.1f s", (System.nanoTime() - start) / 1e9));
+		} catch (SQLException e) {
+			System.err.println(e.getMessage());
+			if (!loader.getPending().isEmpty()) {
+				System.err.println("Not rebuilt:");
+				for (String ddl : loader.getPending()) System.err.println("  " + ddl + ";");
+			}
+			status = 1;
+		} finally {
+			pool.close();
+		}
+		System.exit(status);
+	}
+}
@@ -0,0 +1,337 @@
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * This class buffers query results column by column with each column stored
+ * in an array of its natural type: BIGINT ids in long[], INTEGER in int[],
+ * REAL prices in float[], DATE/TIME/TIMESTAMPTZ as java.time values, and
+ * anything else as String. Reading a BIGINT column therefore allocates no
+ * String per cell, and numeric callers never have to re-parse text.
+ *
+ * Rows and columns are numbered from 0, like the List&lt;List&lt;String&gt;&gt;
+ * results of executeQueryAndReturnResult. A buffer can be cleared and
+ * refilled to process a large result in bounded batches.
+ */
+public class ColumnarResult {
+	private static final int LONG = 0, INT = 1, FLOAT = 2, DOUBLE = 3, DATE = 4, TIME = 5, TIMESTAMP = 6, STRING = 7;
+
+	private final String[] _names;
+	private final int[] _kinds;
+	private final Object[] _columns;
+	private final BitSet[] _nulls;
+	private int _size = 0;
+	private int _capacity;
+
+	/**
+	 * Creates an empty buffer shaped after the given result set metadata.
+	 */
+	public ColumnarResult(ResultSetMetaData rsmd) throws SQLException {
+		int numCol = rsmd.getColumnCount();
+		this._names = new String[numCol];
+		this._kinds = new int[numCol];
+		this._columns = new Object[numCol];
+		this._nulls = new BitSet[numCol];
+		this._capacity = 16;
+		for (int c = 0; c < numCol; ++c) {
+			this._names[c] = rsmd.getColumnName(c + 1);
+			this._kinds[c] = kindOf(rsmd.getColumnType(c + 1));
+			this._columns[c] = allocate(this._kinds[c], this._capacity);
+			this._nulls[c] = new BitSet();
+		}
+	}
+
+	/**
+	 * Method to read all remaining rows of a result set into a new buffer.
+	 */
+	public static ColumnarResult read(ResultSet rs) throws SQLException {
+		ColumnarResult result = new ColumnarResult(rs.getMetaData());
+		while (rs.next()) {
+			result.append(rs);
+		}
+		return result;
+	}
+
+	/**
+	 * Method to read at most maxRows further rows of a result set into this
+	 * buffer.
+	 *
+	 * @return the number of rows read; fewer than maxRows means the result set is exhausted
+	 */
+	public int fill(ResultSet rs, int maxRows) throws SQLException {
+		int read = 0;
+		while (read < maxRows && rs.next()) {
+			append(rs);
+			++read;
+		}
+		return read;
+	}
+
+	/**
+	 * Method to append the current row of a result set.
+	 */
+	public void append(ResultSet rs) throws SQLException {
+		if (this._size == this._capacity) grow();
+		int r = this._size;
+		for (int c = 0; c < this._kinds.length; ++c) {
+			int i = c + 1;
+			boolean isNull;
+			switch (this._kinds[c]) {
+				case LONG:
+					((long[]) this._columns[c])[r] = rs.getLong(i);
+					isNull = rs.wasNull();
+					break;
+				case INT:
+					((int[]) this._columns[c])[r] = rs.getInt(i);
+					isNull = rs.wasNull();
+					break;
+				case FLOAT:
+					((float[]) this._columns[c])[r] = rs.getFloat(i);
+					isNull = rs.wasNull();
+					break;
+				case DOUBLE:
+					((double[]) this._columns[c])[r] = rs.getDouble(i);
+					isNull = rs.wasNull();
+					break;
+				case DATE: {
+					Date d = rs.getDate(i);
+					((LocalDate[]) this._columns[c])[r] = d == null ? null : d.toLocalDate();
+					isNull = d == null;
+					break;
+				}
+				case TIME: {
+					Time t = rs.getTime(i);
+					((LocalTime[]) this._columns[c])[r] = t == null ? null : t.toLocalTime();
+					isNull = t == null;
+					break;
+				}
+				case TIMESTAMP: {
+					Timestamp ts = rs.getTimestamp(i);
+					((Instant[]) this._columns[c])[r] = ts == null ? null : ts.toInstant();
+					isNull = ts == null;
+					break;
+				}
+				default: {
+					String s = rs.getString(i);
+					((String[]) this._columns[c])[r] = s;
+					isNull = s == null;
+					break;
+				}
+			}
+			if (isNull) this._nulls[c].set(r); else this._nulls[c].clear(r);
+		}
+		this._size = r + 1;
+	}
+
+	/**
+	 * Method to empty the buffer while keeping its arrays for reuse.
+	 */
+	public void clear() {
+		for (int c = 0; c < this._kinds.length; ++c) {
+			if (this._columns[c] instanceof Object[]) {
+				Arrays.fill((Object[]) this._columns[c], 0, this._size, null);
+			}
+			this._nulls[c].clear();
+		}
+		this._size = 0;
+	}
+
+	public int size() {
+		return this._size;
+	}
+
+	public int columnCount() {
+		return this._names.length;
+	}
+
+	public String getColumnName(int col) {
+		return this._names[col];
+	}
+
+	/**
+	 * @return whether a column holds numbers rather than text or times
+	 */
+	public boolean isNumeric(int col) {
+		return this._kinds[col] <= DOUBLE;
+	}
+
+	public boolean isNull(int row, int col) {
+		check(row);
+		return this._nulls[col].get(row);
+	}
+
+	/**
+	 * @return the value of a BIGINT or INTEGER column, 0 for NULL
+	 */
+	public long getLong(int row, int col) {
+		check(row);
+		switch (this._kinds[col]) {
+			case LONG: return ((long[]) this._columns[col])[row];
+			case INT: return ((int[]) this._columns[col])[row];
+			default: throw typeError(col, "long");
+		}
+	}
+
+	/**
+	 * @return the value of an INTEGER column, 0 for NULL
+	 */
+	public int getInt(int row, int col) {
+		check(row);
+		if (this._kinds[col] != INT) throw typeError(col, "int");
+		return ((int[]) this._columns[col])[row];
+	}
+
+	/**
+	 * @return the value of a REAL column, 0 for NULL
+	 */
+	public float getFloat(int row, int col) {
+		check(row);
+		switch (this._kinds[col]) {
+			case FLOAT: return ((float[]) this._columns[col])[row];
+			case DOUBLE: return (float) ((double[]) this._columns[col])[row];
+			default: throw typeError(col, "float");
+		}
+	}
+
+	public LocalDate getDate(int row, int col) {
+		check(row);
+		if (this._kinds[col] != DATE) throw typeError(col, "LocalDate");
+		return ((LocalDate[]) this._columns[col])[row];
+	}
+
+	public LocalTime getTime(int row, int col) {
+		check(row);
+		if (this._kinds[col] != TIME) throw typeError(col, "LocalTime");
+		return ((LocalTime[]) this._columns[col])[row];
+	}
+
+	public Instant getInstant(int row, int col) {
+		check(row);
+		if (this._kinds[col] != TIMESTAMP) throw typeError(col, "Instant");
+		return ((Instant[]) this._columns[col])[row];
+	}
+
+	/**
+	 * @return the value of any column as text, or null for NULL
+	 */
+	public String getString(int row, int col) {
+		if (isNull(row, col)) return null;
+		switch (this._kinds[col]) {
+			case LONG: return Long.toString(((long[]) this._columns[col])[row]);
+			case INT: return Integer.toString(((int[]) this._columns[col])[row]);
+			case FLOAT: return Float.toString(((float[]) this._columns[col])[row]);
+			case DOUBLE: return Double.toString(((double[]) this._columns[col])[row]);
+			// always with seconds, like the server prints TIME
+			case TIME: return ((LocalTime[]) this._columns[col])[row].format(DateTimeFormatter.ISO_LOCAL_TIME);
+			default: return String.valueOf(((Object[]) this._columns[col])[row]);
+		}
+	}
+
+	/**
+	 * @return the value of any column as its natural Java type (Long,
+	 * Integer, Float, Double, LocalDate, LocalTime, Instant or String), or
+	 * null for NULL
+	 */
+	public Object getObject(int row, int col) {
+		if (isNull(row, col)) return null;
+		switch (this._kinds[col]) {
+			case LONG: return ((long[]) this._columns[col])[row];
+			case INT: return ((int[]) this._columns[col])[row];
+			case FLOAT: return ((float[]) this._columns[col])[row];
+			case DOUBLE: return ((double[]) this._columns[col])[row];
+			default: return ((Object[]) this._columns[col])[row];
+		}
+	}
+
+	/**
+	 * @return a copy of a BIGINT column
+	 */
+	public long[] getLongs(int col) {
+		if (this._kinds[col] != LONG) throw typeError(col, "long[]");
+		return Arrays.copyOf((long[]) this._columns[col], this._size);
+	}
+
+	/**
+	 * @return a copy of a REAL column
+	 */
+	public float[] getFloats(int col) {
+		if (this._kinds[col] != FLOAT) throw typeError(col, "float[]");
+		return Arrays.copyOf((float[]) this._columns[col], this._size);
+	}
+
+	/**
+	 * Method to print the buffer to standard out as an aligned table, in
+	 * the same layout as executeQueryAndPrintResult; nothing at all when the
+	 * buffer is empty.
+	 *
+	 * @return the number of rows printed
+	 */
+	public int print() {
+		return ResultWriter.print(this);
+	}
+
+	private void grow() {
+		int capacity = this._capacity * 2;
+		for (int c = 0; c < this._kinds.length; ++c) {
+			Object column = this._columns[c];
+			switch (this._kinds[c]) {
+				case LONG: column = Arrays.copyOf((long[]) column, capacity); break;
+				case INT: column = Arrays.copyOf((int[]) column, capacity); break;
+				case FLOAT: column = Arrays.copyOf((float[]) column, capacity); break;
+				case DOUBLE: column = Arrays.copyOf((double[]) column, capacity); break;
+				default: column = Arrays.copyOf((Object[]) column, capacity); break;
+			}
+			this._columns[c] = column;
+		}
+		this._capacity = capacity;
+	}
+
+	private void check(int row) {
+		if (row < 0 || row >= this._size) {
+			throw new IndexOutOfBoundsException("Row " + row + " of " + this._size);
+		}
+	}
+
+	private IllegalStateException typeError(int col, String wanted) {
+		return new IllegalStateException("Column " + this._names[col] + " cannot be read as " + wanted);
+	}
+
+	private static int kindOf(int sqlType) {
+		switch (sqlType) {
+			case Types.BIGINT: return LONG;
+			case Types.INTEGER:
+			case Types.SMALLINT: return INT;
+			case Types.REAL: return FLOAT;
+			case Types.FLOAT:
+			case Types.DOUBLE: return DOUBLE;
+			case Types.DATE: return DATE;
+			case Types.TIME: return TIME;
+			case Types.TIMESTAMP:
+			case Types.TIMESTAMP_WITH_TIMEZONE: return TIMESTAMP;
+			default: return STRING;
+		}
+	}
+
+	private static Object allocate(int kind, int capacity) {
+		switch (kind) {
+			case LONG: return new long[capacity];
+			case INT: return new int[capacity];
+			case FLOAT: return new float[capacity];
+			case DOUBLE: return new double[capacity];
+			case DATE: return new LocalDate[capacity];
+			case TIME: return new LocalTime[capacity];
+			case TIMESTAMP: return new Instant[capacity];
+			default: return new String[capacity];
+		}
+	}
+}
@@ -0,0 +1,238 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class defines a small bounded pool of physical PostgreSQL connections.
+ * Connections are opened lazily up to the configured maximum and handed out
+ * as PooledConnections, each of which caches its own prepared statements.
+ *
+ * Work is run through withConnection (autocommit) or inTransaction (one
+ * transaction, rolled back when the work throws).
+ */
+public class ConnectionPool {
+	/**
+	 * A unit of work that runs against one borrowed connection.
+	 */
+	public interface Work<T> {
+		T run(PooledConnection conn) throws SQLException;
+	}
+
+	//longest wait for an idle connection before trying to open a new one again
+	private static final long BORROW_RETRY_MS = 50L;
+
+	private final String _url;
+	private final Properties _props;
+	private final int _maxSize;
+	private final int _statementCacheSize;
+	private final long _borrowTimeoutMs;
+	private final BlockingQueue<PooledConnection> _idle;
+	private final Metrics _metrics;
+	private final AtomicInteger _open = new AtomicInteger();
+	private volatile boolean _closed = false;
+
+	/**
+	 * @param url the JDBC connection URL
+	 * @param user the database user
+	 * @param passwd the database password
+	 * @param maxSize maximum number of physical connections
+	 * @param statementCacheSize maximum number of cached statements per connection
+	 * @param borrowTimeoutMs how long to wait for a free connection
+	 */
+	public ConnectionPool(String url, String user, String passwd, int maxSize, int statementCacheSize, long borrowTimeoutMs) {
+		if (maxSize < 1) throw new IllegalArgumentException("maxSize must be at least 1");
+		this._url = url;
+		this._props = new Properties();
+		this._props.setProperty("user", user);
+		this._props.setProperty("password", passwd);
+		// use named server-side statements from the first execution, since
+		// every statement is cached and reused anyway
+		this._props.setProperty("prepareThreshold", "1");
+		// send batched single-row inserts as multi-row inserts
+		this._props.setProperty("reWriteBatchedInserts", "true");
+		this._maxSize = maxSize;
+		this._statementCacheSize = statementCacheSize;
+		this._borrowTimeoutMs = borrowTimeoutMs;
+		this._idle = new ArrayBlockingQueue<PooledConnection>(maxSize);
+		this._metrics = new Metrics(Boolean.parseBoolean(System.getProperty("ticketmaster.metrics", "true")));
+	}
+
+	/**
+	 * Sets an additional JDBC driver property for connections opened from now on.
+	 */
+	public void setProperty(String key, String value) {
+		this._props.setProperty(key, value);
+	}
+
+	/**
+	 * Method to create a pool of connections to another server, such as a
+	 * read replica, with the same user, password, driver properties and
+	 * statement cache.
+	 */
+	public ConnectionPool sibling(String url, int maxSize) {
+		ConnectionPool pool = new ConnectionPool(url, this._props.getProperty("user"), this._props.getProperty("password"),
+			maxSize, this._statementCacheSize, this._borrowTimeoutMs);
+		for (String key : this._props.stringPropertyNames()) pool.setProperty(key, this._props.getProperty(key));
+		return pool;
+	}
+
+	public int getMaxSize() {
+		return this._maxSize;
+	}
+
+	/**
+	 * @return the latencies of the statements run on this pool's connections
+	 */
+	public Metrics getMetrics() {
+		return this._metrics;
+	}
+
+	/**
+	 * Method to open a physical connection outside the pool, for long-lived
+	 * uses such as LISTEN. The caller owns and closes it.
+	 */
+	public Connection openDedicated() throws SQLException {
+		return DriverManager.getConnection(this._url, this._props);
+	}
+
+	/**
+	 * Method to borrow a connection from the pool, opening a new one when
+	 * none is idle and the pool is not yet full.
+	 *
+	 * @return a connection in autocommit mode
+	 * @throws java.sql.SQLException when no connection could be obtained
+	 */
+	public PooledConnection borrow() throws SQLException {
+		if (this._closed) throw new SQLException("Connection pool is closed", "08003");
+		PooledConnection conn = this._idle.poll();
+		if (conn == null) {
+			conn = tryOpen();
+		}
+		// a broken connection released meanwhile frees a slot without adding an idle connection,
+		// so the wait is sliced and a new connection is tried after every slice
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this._borrowTimeoutMs);
+		while (conn == null) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				throw new SQLException("Timed out waiting for a database connection", "08001");
+			}
+			try {
+				conn = this._idle.poll(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(BORROW_RETRY_MS)), TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SQLException("Interrupted while waiting for a database connection", "08001");
+			}
+			if (conn == null) {
+				if (this._closed) throw new SQLException("Connection pool is closed", "08003");
+				conn = tryOpen();
+			}
+		}
+		return conn;
+	}
+
+	/**
+	 * Method to hand a borrowed connection back. Broken connections are
+	 * closed and their slot is freed for a new one.
+	 */
+	public void release(PooledConnection conn) {
+		if (conn == null) return;
+		boolean reusable = !this._closed && !conn.isBroken();
+		if (reusable) {
+			try {
+				Connection c = conn.getConnection();
+				if (!c.getAutoCommit()) {
+					c.rollback();
+					c.setAutoCommit(true);
+				}
+			} catch (SQLException e) {
+				reusable = false;
+			}
+		}
+		if (reusable && this._idle.offer(conn)) return;
+		conn.close();
+		this._open.decrementAndGet();
+	}
+
+	/**
+	 * Method to run the given work on one connection in autocommit mode.
+	 */
+	public <T> T withConnection(Work<T> work) throws SQLException {
+		PooledConnection conn = borrow();
+		try {
+			return work.run(conn);
+		} catch (SQLException e) {
+			conn.failed(e);
+			throw e;
+		} finally {
+			release(conn);
+		}
+	}
+
+	/**
+	 * Method to run the given work in a single transaction. The transaction
+	 * commits when the work returns and rolls back when it throws.
+	 */
+	public <T> T inTransaction(Work<T> work) throws SQLException {
+		PooledConnection conn = borrow();
+		try {
+			Connection c = conn.getConnection();
+			c.setAutoCommit(false);
+			boolean committed = false;
+			try {
+				T result = work.run(conn);
+				c.commit();
+				this._metrics.roundTrip();
+				committed = true;
+				return result;
+			} finally {
+				if (!committed) {
+					try {
+						c.rollback();
+					} catch (SQLException e) {
+						// ignored, the original failure is reported.
+					}
+				}
+			}
+		} catch (SQLException e) {
+			conn.failed(e);
+			throw e;
+		} finally {
+			release(conn);
+		}
+	}
+
+	/**
+	 * Method to close all idle connections and refuse further borrows.
+	 * Connections still in use are closed when they are released.
+	 */
+	public void close() {
+		this._closed = true;
+		List<PooledConnection> idle = new ArrayList<PooledConnection>();
+		this._idle.drainTo(idle);
+		for (PooledConnection conn : idle) {
+			conn.close();
+			this._open.decrementAndGet();
+		}
+	}
+
+	private PooledConnection tryOpen() throws SQLException {
+		while (true) {
+			int open = this._open.get();
+			if (open >= this._maxSize) return null;
+			if (this._open.compareAndSet(open, open + 1)) break;
+		}
+		try {
+			return new PooledConnection(DriverManager.getConnection(this._url, this._props), this._statementCacheSize, this._metrics);
+		} catch (SQLException e) {
+			this._open.decrementAndGet();
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,461 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class writes a synthetic dataset for the 11 tables of create.sql as
+ * CSV files in the layout of phase3setup/data, at any scale factor.
+ *
+ * Every value is a function of the seed and of the id of the row it belongs
+ * to, never of the rows generated before it, so the same seed and options
+ * give byte-identical files whatever the number of threads. Ids that point
+ * to another table are derived from that table's id layout instead of being
+ * remembered: a theater id encodes its cinema, a show seat id its show and
+ * seat, a booking id its show. Ids may therefore have gaps. Tables are split
+ * into chunks generated in parallel and written in order through a bounded
+ * window, so memory use does not grow with the scale.
+ *
+ * Cities stay at 317 rows; cinemas, theaters, cinema seats and movies grow
+ * with the square root of the scale; users, shows, plays, bookings,
+ * payments and show seats grow linearly. Scale 1000 writes about 200,000
+ * shows and 24 million show seats.
+ *
+ * Usage: java DataGenerator &lt;outdir&gt; [--scale F] [--seed N] [--threads N] [--days N]
+ *        [--hot-movies F] [--hot-movie-share F] [--hot-showtime-share F]
+ *        [--occupancy F] [--pending F] [--cancelled F]
+ */
+public class DataGenerator {
+	/**
+	 * Writes the rows of one key of a table, such as all theaters of a cinema.
+	 */
+	interface Rows {
+		int write(long key, StringBuilder out);
+	}
+
+	/**
+	 * The generated text of a range of keys.
+	 */
+	static final class Chunk {
+		final byte[] bytes;
+		final long rows;
+
+		Chunk(byte[] bytes, long rows) {
+			this.bytes = bytes;
+			this.rows = rows;
+		}
+	}
+
+	/**
+	 * A show, derived from its sid.
+	 */
+	static final class Show {
+		long sid;
+		long mvid;
+		long tid;
+		int tseats;
+		long day;
+		int sttime;
+		int edtime;
+		boolean hot;
+		float basePrice;
+	}
+
+	/**
+	 * A booking of a show, derived from the show and its bid.
+	 */
+	static final class Booking {
+		long bid;
+		String status;
+		long user;
+		String bdatetime;
+		//seats of the booking are the seats firstSeat .. firstSeat + seats - 1 of the show, wrapping
+		int firstSeat;
+		int seats;
+	}
+
+	static final int CITIES = 317;
+	static final int MAX_THEATERS = 16;
+	static final int MAX_SEATS = 256;
+	static final long FIRST_DAY = LocalDate.of(2019, 1, 1).toEpochDay();
+
+	//independent random streams, so adding a column to one table does not change the others
+	static final int CITY = 1, CINEMA = 2, CINEMA_SIZE = 3, THEATER_SEATS = 4, MOVIE = 5, MOVIE_DURATION = 6,
+		USER = 7, SHOW = 8, SHOW_BOOKINGS = 9, BOOKING = 10, PAYMENT = 11;
+
+	static final String[] STATES = { "AL", "AZ", "CA", "CO", "FL", "GA", "IL", "MA", "MI", "MN", "NC", "NJ", "NY", "OH", "OR", "PA", "TN", "TX", "VA", "WA" };
+	static final String[] CHAINS = { "Regal Cinemas", "AMC Theatres", "Cinemark", "Studio Movie Grill", "General Cinemas", "Marcus Theatres", "Harkins Theatres", "Alamo Drafthouse" };
+	static final String[] WORDS = { "Silent", "River", "Night", "Summer", "Last", "City", "Dream", "Storm", "Secret", "Garden", "Winter", "Road", "Star", "Shadow", "Golden", "Heart" };
+	static final String[] COUNTRIES = { "United States", "United Kingdom", "France", "Germany", "Japan", "India", "Canada", "Spain" };
+	static final String[] LANGS = { "en", "en", "en", "fr", "de", "ja", "hi", "es" };
+	static final String[] GENRES = { "Action", "Drama", "Comedy", "Horror", "Romance", "Animation", "Thriller", "Documentary" };
+	static final String[] FIRST_NAMES = { "Armand", "Alberto", "Wyatt", "Maria", "Chen", "Priya", "Olivia", "Noah", "Fatima", "Lucas", "Emma", "Kenji" };
+	static final String[] LAST_NAMES = { "Enderle", "Scarlett", "Ruoff", "Garcia", "Wang", "Patel", "Smith", "Johnson", "Khan", "Silva", "Brown", "Sato" };
+	static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	});
+
+	private final File _dir;
+	private final long _seed;
+	private final int _threads;
+	private final int _days;
+	private final double _hotMovieShare;
+	private final double _hotShowtimeShare;
+	private final double _occupancy;
+	private final double _pending;
+	private final double _cancelled;
+	private final long _cinemas;
+	private final long _movies;
+	private final long _hotMovies;
+	private final long _users;
+	private final long _shows;
+	private ExecutorService _executor;
+
+	public DataGenerator(File dir, double scale, long seed, int threads, int days, double hotMovies, double hotMovieShare,
+			double hotShowtimeShare, double occupancy, double pending, double cancelled) {
+		this._dir = dir;
+		this._seed = seed;
+		this._threads = threads;
+		this._days = days;
+		this._hotMovieShare = hotMovieShare;
+		this._hotShowtimeShare = hotShowtimeShare;
+		this._occupancy = occupancy;
+		this._pending = pending;
+		this._cancelled = cancelled;
+		this._cinemas = Math.max(1, Math.round(100 * Math.sqrt(scale)));
+		this._movies = Math.max(1, Math.round(53 * Math.sqrt(scale)));
+		this._hotMovies = Math.max(1, Math.round(this._movies * hotMovies));
+		this._users = Math.max(1, Math.round(500 * scale));
+		this._shows = Math.max(1, Math.round(200 * scale));
+	}
+
+	/**
+	 * @return a random stream that depends only on the seed, the stream and the key
+	 */
+	private SplittableRandom rng(int stream, long key) {
+		long z = this._seed + stream * 0x9E3779B97F4A7C15L + key * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return new SplittableRandom(z ^ (z >>> 31));
+	}
+
+	private int theatersOf(long cid) {
+		return 4 + rng(CINEMA_SIZE, cid).nextInt(9);
+	}
+
+	private int seatsOf(long tid) {
+		return 40 + rng(THEATER_SEATS, tid).nextInt(161);
+	}
+
+	private int durationOf(long mvid) {
+		return 4000 + rng(MOVIE_DURATION, mvid).nextInt(5001);
+	}
+
+	private static long tid(long cid, int t) {
+		return (cid - 1) * MAX_THEATERS + t;
+	}
+
+	private static long cinemaSeat(long tid, int sno) {
+		return (tid - 1) * MAX_SEATS + sno;
+	}
+
+	private static String seatType(int sno) {
+		return sno % 20 == 1 ? "Handicap" : "Regular";
+	}
+
+	Show show(long sid) {
+		SplittableRandom r = rng(SHOW, sid);
+		Show s = new Show();
+		s.sid = sid;
+		boolean hotMovie = r.nextDouble() < this._hotMovieShare;
+		s.mvid = 1 + r.nextLong(hotMovie ? this._hotMovies : this._movies);
+		long cid = 1 + r.nextLong(this._cinemas);
+		s.tid = tid(cid, 1 + r.nextInt(theatersOf(cid)));
+		s.tseats = seatsOf(s.tid);
+		s.day = FIRST_DAY + r.nextInt(this._days);
+		//half hour slots from 10:00 to 22:30; 19:00 to 20:30 are the hot ones
+		boolean hotTime = r.nextDouble() < this._hotShowtimeShare;
+		int slot = hotTime ? 18 + r.nextInt(4) : r.nextInt(26);
+		s.sttime = 600 + slot * 30;
+		s.edtime = Math.min(23 * 60 + 55, s.sttime + (durationOf(s.mvid) / 60 + 4) / 5 * 5);
+		s.hot = s.mvid <= this._hotMovies || (slot >= 18 && slot < 22);
+		s.basePrice = 6 + r.nextInt(9);
+		return s;
+	}
+
+	static float price(Show s, int sno) {
+		return sno <= s.tseats / 4 ? s.basePrice + 3 : s.basePrice;
+	}
+
+	Booking[] bookings(Show s) {
+		SplittableRandom r = rng(SHOW_BOOKINGS, s.sid);
+		double fill = Math.min(1.0, this._occupancy * (s.hot ? 2 : 1) * (0.5 + r.nextDouble()));
+		int remaining = (int) (s.tseats * fill);
+		int seat = r.nextInt(s.tseats);
+		Booking[] out = new Booking[Math.min(remaining, MAX_SEATS)];
+		int n = 0;
+		while (remaining > 0) {
+			Booking b = new Booking();
+			b.bid = (s.sid - 1) * MAX_SEATS + n + 1;
+			b.seats = Math.min(remaining, 1 + r.nextInt(4));
+			b.firstSeat = seat;
+			seat = (seat + b.seats) % s.tseats;
+			remaining -= b.seats;
+			SplittableRandom br = rng(BOOKING, b.bid);
+			double status = br.nextDouble();
+			b.status = status < this._pending ? "Pending" : status < this._pending + this._cancelled ? "Cancelled" : "Paid";
+			b.user = 1 + br.nextLong(this._users);
+			StringBuilder when = new StringBuilder(19);
+			when.append(LocalDate.ofEpochDay(s.day - br.nextInt(30)).toString()).append(' ');
+			time(when, br.nextInt(24 * 60)).append(":00");
+			b.bdatetime = when.toString();
+			out[n++] = b;
+		}
+		return Arrays.copyOf(out, n);
+	}
+
+	private static StringBuilder time(StringBuilder sb, int minutes) {
+		int h = minutes / 60, m = minutes % 60;
+		if (h < 10) sb.append('0');
+		sb.append(h).append(':');
+		if (m < 10) sb.append('0');
+		return sb.append(m);
+	}
+
+	private static String email(long user) {
+		return "user" + user + "@example.com";
+	}
+
+	private int cities(long id, StringBuilder out) {
+		SplittableRandom r = rng(CITY, id);
+		out.append(id).append(",City ").append(id).append(',').append(STATES[r.nextInt(STATES.length)])
+			.append(',').append(10000 + r.nextInt(90000)).append('\n');
+		return 1;
+	}
+
+	private int cinemas(long cid, StringBuilder out) {
+		SplittableRandom r = rng(CINEMA, cid);
+		out.append(cid).append(',').append(1 + r.nextInt(CITIES)).append(',').append(CHAINS[(int) (cid % CHAINS.length)])
+			.append(' ').append(cid).append(',').append(theatersOf(cid)).append('\n');
+		return 1;
+	}
+
+	private int theaters(long cid, StringBuilder out) {
+		int n = theatersOf(cid);
+		for (int t = 1; t <= n; ++t) {
+			long tid = tid(cid, t);
+			out.append(tid).append(',').append(cid).append(',').append(CHAINS[(int) (cid % CHAINS.length)]).append(' ').append(cid)
+				.append(" Theaters ").append(t).append(',').append(seatsOf(tid)).append('\n');
+		}
+		return n;
+	}
+
+	private int cinemaSeats(long cid, StringBuilder out) {
+		int rows = 0;
+		int n = theatersOf(cid);
+		for (int t = 1; t <= n; ++t) {
+			long tid = tid(cid, t);
+			int seats = seatsOf(tid);
+			for (int sno = 1; sno <= seats; ++sno) {
+				out.append(cinemaSeat(tid, sno)).append(',').append(tid).append(',').append(sno).append(',').append(seatType(sno)).append('\n');
+			}
+			rows += seats;
+		}
+		return rows;
+	}
+
+	private int movies(long mvid, StringBuilder out) {
+		SplittableRandom r = rng(MOVIE, mvid);
+		out.append(mvid).append(',').append(WORDS[r.nextInt(WORDS.length)]).append(' ');
+		//every tenth title is a love story, for the title search queries
+		out.append(mvid % 10 == 0 ? "Love" : WORDS[r.nextInt(WORDS.length)]).append(' ').append(mvid).append(',');
+		out.append(LocalDate.of(1970 + r.nextInt(55), 1 + r.nextInt(12), 1 + r.nextInt(28)).toString()).append(',');
+		out.append(COUNTRIES[r.nextInt(COUNTRIES.length)]).append(",Good movie,").append(durationOf(mvid)).append(',');
+		out.append(LANGS[r.nextInt(LANGS.length)]).append(',').append(GENRES[r.nextInt(GENRES.length)]).append('\n');
+		return 1;
+	}
+
+	private int users(long user, StringBuilder out) {
+		SplittableRandom r = rng(USER, user);
+		out.append(email(user)).append(',').append(FIRST_NAMES[r.nextInt(FIRST_NAMES.length)]).append(',')
+			.append(LAST_NAMES[r.nextInt(LAST_NAMES.length)]).append(',').append(2000000000L + r.nextLong(8000000000L)).append(',');
+		byte[] hash = SHA256.get().digest(("password" + user).getBytes(StandardCharsets.UTF_8));
+		for (byte b : hash) out.append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+		out.append('\n');
+		return 1;
+	}
+
+	private int shows(long sid, StringBuilder out) {
+		Show s = show(sid);
+		out.append(sid).append(',').append(s.mvid).append(',').append(LocalDate.ofEpochDay(s.day).toString()).append(',');
+		time(out, s.sttime).append(',');
+		time(out, s.edtime).append('\n');
+		return 1;
+	}
+
+	private int plays(long sid, StringBuilder out) {
+		out.append(sid).append(',').append(show(sid).tid).append('\n');
+		return 1;
+	}
+
+	private int bookingRows(long sid, StringBuilder out) {
+		Booking[] bookings = bookings(show(sid));
+		for (Booking b : bookings) {
+			out.append(b.bid).append(',').append(b.status).append(',').append(b.bdatetime).append(',').append(b.seats)
+				.append(',').append(sid).append(',').append(email(b.user)).append('\n');
+		}
+		return bookings.length;
+	}
+
+	private int payments(long sid, StringBuilder out) {
+		Show s = show(sid);
+		int rows = 0;
+		for (Booking b : bookings(s)) {
+			if (!b.status.equals("Paid")) continue;
+			float amount = 0;
+			for (int i = 0; i < b.seats; ++i) amount += price(s, (b.firstSeat + i) % s.tseats + 1);
+			SplittableRandom r = rng(PAYMENT, b.bid);
+			out.append(b.bid).append(',').append(b.bid).append(',').append(r.nextInt(4) == 0 ? "Cash" : "Credit Card").append(',')
+				.append(b.bdatetime).append(',').append(amount).append(',').append(10000000 + r.nextInt(90000000)).append('\n');
+			++rows;
+		}
+		return rows;
+	}
+
+	private int showSeats(long sid, StringBuilder out) {
+		Show s = show(sid);
+		long[] bidOfSeat = new long[s.tseats + 1];
+		for (Booking b : bookings(s)) {
+			for (int i = 0; i < b.seats; ++i) bidOfSeat[(b.firstSeat + i) % s.tseats + 1] = b.bid;
+		}
+		for (int sno = 1; sno <= s.tseats; ++sno) {
+			out.append((sid - 1) * MAX_SEATS + sno).append(',').append(sid).append(',').append(cinemaSeat(s.tid, sno)).append(',');
+			if (bidOfSeat[sno] != 0) out.append(bidOfSeat[sno]);
+			out.append(',').append(price(s, sno)).append('\n');
+		}
+		return s.tseats;
+	}
+
+	/**
+	 * Method to write one table: keys 1..keys are cut into chunks of
+	 * keysPerChunk, generated on the executor and appended in key order.
+	 *
+	 * @return the number of rows written
+	 */
+	long writeTable(String table, long keys, int keysPerChunk, Rows rows) throws IOException, InterruptedException, ExecutionException {
+		long written = 0;
+		ArrayDeque<Future<Chunk>> window = new ArrayDeque<Future<Chunk>>();
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(this._dir, table + ".csv")), 1 << 16)) {
+			for (long from = 1; from <= keys; from += keysPerChunk) {
+				final long first = from, last = Math.min(keys, from + keysPerChunk - 1);
+				window.add(this._executor.submit(() -> {
+					StringBuilder sb = new StringBuilder();
+					long n = 0;
+					for (long key = first; key <= last; ++key) n += rows.write(key, sb);
+					return new Chunk(sb.toString().getBytes(StandardCharsets.UTF_8), n);
+				}));
+				if (window.size() >= 2 * this._threads) {
+					Chunk c = window.poll().get();
+					out.write(c.bytes);
+					written += c.rows;
+				}
+			}
+			while (!window.isEmpty()) {
+				Chunk c = window.poll().get();
+				out.write(c.bytes);
+				written += c.rows;
+			}
+		} finally {
+			for (Future<Chunk> f : window) f.cancel(true);
+		}
+		return written;
+	}
+
+	/**
+	 * Method to write all 11 tables, printing the rows of each.
+	 */
+	public void generate() throws IOException, InterruptedException, ExecutionException {
+		if (!this._dir.isDirectory() && !this._dir.mkdirs()) throw new IOException("Cannot create " + this._dir);
+		this._executor = Executors.newFixedThreadPool(this._threads);
+		try {
+			report("Cities", writeTable("Cities", CITIES, 4096, this::cities));
+			report("Cinemas", writeTable("Cinemas", this._cinemas, 4096, this::cinemas));
+			report("Theaters", writeTable("Theaters", this._cinemas, 1024, this::theaters));
+			report("CinemaSeats", writeTable("CinemaSeats", this._cinemas, 16, this::cinemaSeats));
+			report("Movies", writeTable("Movies", this._movies, 4096, this::movies));
+			report("Users", writeTable("Users", this._users, 4096, this::users));
+			report("Shows", writeTable("Shows", this._shows, 4096, this::shows));
+			report("Plays", writeTable("Plays", this._shows, 4096, this::plays));
+			report("Bookings", writeTable("Bookings", this._shows, 512, this::bookingRows));
+			report("Payments", writeTable("Payments", this._shows, 512, this::payments));
+			report("ShowSeats", writeTable("ShowSeats", this._shows, 128, this::showSeats));
+		} finally {
+			this._executor.shutdownNow();
+		}
+	}
+
+	private static void report(String table, long rows) {
+		System.out.println(String.format("%-12s %,14d rows", table, rows));
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.err.println("Usage: java [-classpath <classpath>] " + DataGenerator.class.getName() + " <outdir> [--scale F] [--seed N] [--threads N] [--days N]");
+			System.err.println("       [--hot-movies F] [--hot-movie-share F] [--hot-showtime-share F] [--occupancy F] [--pending F] [--cancelled F]");
+			System.exit(2);
+		}
+		double scale = 1;
+		long seed = 42;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int days = 365;
+		double hotMovies = 0.05, hotMovieShare = 0.5, hotShowtimeShare = 0.4;
+		double occupancy = 0.3, pending = 0.05, cancelled = 0.05;
+		List<String> rest = Arrays.asList(args).subList(1, args.length);
+		for (int i = 0; i + 1 < rest.size(); i += 2) {
+			String value = rest.get(i + 1);
+			switch (rest.get(i)) {
+				case "--scale": scale = Double.parseDouble(value); break;
+				case "--seed": seed = Long.parseLong(value); break;
+				case "--threads": threads = Integer.parseInt(value); break;
+				case "--days": days = Integer.parseInt(value); break;
+				case "--hot-movies": hotMovies = Double.parseDouble(value); break;
+				case "--hot-movie-share": hotMovieShare = Double.parseDouble(value); break;
+				case "--hot-showtime-share": hotShowtimeShare = Double.parseDouble(value); break;
+				case "--occupancy": occupancy = Double.parseDouble(value); break;
+				case "--pending": pending = Double.parseDouble(value); break;
+				case "--cancelled": cancelled = Double.parseDouble(value); break;
+				default:
+					System.err.println("Unknown option " + rest.get(i));
+					System.exit(2);
+			}
+		}
+		long start = System.nanoTime();
+		try {
+			new DataGenerator(new File(args[0]), scale, seed, threads, days, hotMovies, hotMovieShare,
+				hotShowtimeShare, occupancy, pending, cancelled).generate();
+		} catch (IOException | InterruptedException | ExecutionException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+		System.out.println(String.format("Generated in %.1f s", (System.nanoTime() - start) / 1e9));
+	}
+}
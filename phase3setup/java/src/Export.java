@@ -0,0 +1,80 @@
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class exports a listing to a file or standard out, streamed from
+ * the database through a server-side cursor and rendered by a ResultWriter
+ * a batch at a time, so a listing of millions of rows writes at disk speed
+ * in bounded memory. The format follows the file extension (.csv, .jsonl)
+ * unless --format is given; standard out gets a table by default.
+ *
+ * Usage: java Export &lt;dbname&gt; &lt;port&gt; &lt;user&gt; pending-users [--out path] [--format table|csv|jsonl]
+ *        java Export &lt;dbname&gt; &lt;port&gt; &lt;user&gt; shows-on-date &lt;MM/DD/YYYY&gt; [--out path] [--format ...]
+ *        java Export &lt;dbname&gt; &lt;port&gt; &lt;user&gt; cinema-schedule &lt;cinema&gt; &lt;MM/DD/YYYY&gt; &lt;MM/DD/YYYY&gt; [--out path] [--format ...]
+ */
+public class Export {
+	private static int argumentsOf(String listing) {
+		switch (listing) {
+			case "pending-users": return 0;
+			case "shows-on-date": return 1;
+			case "cinema-schedule": return 3;
+			default: return -1;
+		}
+	}
+
+	private static void usage() {
+		String cmd = "java [-classpath <classpath>] " + Export.class.getName() + " <dbname> <port> <user> ";
+		System.err.println("Usage: " + cmd + "pending-users [--out path] [--format table|csv|jsonl]");
+		System.err.println("       " + cmd + "shows-on-date <MM/DD/YYYY> [--out path] [--format table|csv|jsonl]");
+		System.err.println("       " + cmd + "cinema-schedule <cinema> <MM/DD/YYYY> <MM/DD/YYYY> [--out path] [--format table|csv|jsonl]");
+		System.exit(2);
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 4 || argumentsOf(args[3]) < 0 || args.length < 4 + argumentsOf(args[3])) usage();
+		String listing = args[3];
+		List<String> params = Arrays.asList(args).subList(4, 4 + argumentsOf(listing));
+		String out = null;
+		String format = null;
+		List<String> rest = Arrays.asList(args).subList(4 + params.size(), args.length);
+		for (int i = 0; i + 1 < rest.size(); i += 2) {
+			if (rest.get(i).equals("--out")) out = rest.get(i + 1);
+			else if (rest.get(i).equals("--format")) format = rest.get(i + 1);
+		}
+		ResultWriter.Format f = format != null ? ResultWriter.Format.valueOf(format.toUpperCase())
+			: out != null ? ResultWriter.Format.ofPath(out) : ResultWriter.Format.TABLE;
+
+		String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+		ConnectionPool pool = new ConnectionPool(url, args[2], "", 1, 64, 30000L);
+		TicketmasterService service = TicketmasterService.create(pool, null);
+		long start = System.nanoTime();
+		int status = 0;
+		ResultWriter writer = null;
+		try {
+			writer = ResultWriter.create(f, new BufferedWriter(new OutputStreamWriter(
+				out == null ? System.out : new FileOutputStream(out), StandardCharsets.UTF_8), 1 << 16), out != null, ResultWriter.DEFAULT_BATCH_ROWS);
+			try {
+				if (listing.equals("pending-users")) service.usersWithPendingBooking(writer);
+				else if (listing.equals("shows-on-date")) service.showsOnDate(params.get(0), writer);
+				else service.scheduleOfCinema(params.get(0), params.get(1), params.get(2), writer);
+			} finally {
+				writer.close();
+			}
+		} catch (SQLException | IOException e) {
+			System.err.println(e.getMessage());
+			status = 1;
+		} finally {
+			pool.close();
+		}
+		if (out != null && status == 0) {
+			System.err.println(String.format("Exported %d rows to %s in %.1f s", writer.getRows(), out, (System.nanoTime() - start) / 1e9));
+		}
+		System.exit(status);
+	}
+}
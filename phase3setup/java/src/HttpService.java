@@ -0,0 +1,349 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class serves the Ticketmaster operations as JSON over HTTP with the
+ * JDK's built-in server:
+ *
+ *   GET    /shows?date=MM/DD/YYYY[&amp;time=HH:MM]    shows on a date, or starting at a time
+ *   GET    /shows/{sid}/seats                       free seats and prices, from memory
+ *   GET    /shows/{sid}/theaters                    theaters playing a show
+ *   GET    /cinemas/{cname}/schedule?from=&amp;to=MM/DD/YYYY   shows of a cinema by date and time
+ *   GET    /movies?q=..[&amp;from=&amp;to=MM/DD/YYYY][&amp;genre=][&amp;lang=][&amp;offset=][&amp;limit=]   movie search, most relevant first
+ *   GET    /movies/shows?title=..&amp;after=YYYY-MM-DD HH:MM:SS   upcoming shows of a movie
+ *   GET    /users/{email}/bookings[?from=&amp;to=MM/DD/YYYY][&amp;status=][&amp;after=cursor][&amp;limit=]   a page of a user's bookings, newest first
+ *   POST   /bookings                                {status, bdatetime, sid, email, seats:[..] | best:N[, holdMs]}
+ *   POST   /bookings/{bid}/seat                     {ssid, newSsid}
+ *   DELETE /payments/{pid}                          remove a payment, releasing its seats
+ *   GET    /stats                                   latency, round trips and rows per operation and statement, reads per target
+ *
+ * Every request runs on its own virtual thread where the JVM has them
+ * (Java 21+), and on a bounded platform thread pool otherwise. Virtual
+ * threads park cheaply while they wait, so thousands of browsing users cost
+ * little; the database is protected by a semaphore with one permit per
+ * pooled connection, acquired around every service call. A request that
+ * cannot get a permit in time is answered with 503 instead of queueing.
+ *
+ * With -Dticketmaster.readUrl the listings read from that replica while it
+ * is current, see ReadRouter; /stats shows where reads went.
+ *
+ * Usage: java HttpService &lt;dbname&gt; &lt;port&gt; &lt;user&gt; [--http-port N]
+ */
+public class HttpService {
+	/**
+	 * A call into the service made while holding a database permit.
+	 */
+	interface Call {
+		Object run() throws SQLException;
+	}
+
+	/**
+	 * An error answered with a specific HTTP status.
+	 */
+	static final class HttpError extends Exception {
+		private static final long serialVersionUID = 1L;
+		final int status;
+
+		HttpError(int status, String message) {
+			super(message);
+			this.status = status;
+		}
+	}
+
+	private final TicketmasterService _service;
+	private final Semaphore _dbPermits;
+	private final long _permitTimeoutMs;
+	private final HttpServer _server;
+	private final ExecutorService _executor;
+
+	/**
+	 * @param service the operations to serve
+	 * @param port the TCP port to listen on
+	 * @param dbPermits the number of service calls that may use the database at once
+	 * @param permitTimeoutMs how long a request waits for a permit before it gets 503
+	 */
+	public HttpService(TicketmasterService service, int port, int dbPermits, long permitTimeoutMs) throws IOException {
+		this._service = service;
+		this._dbPermits = new Semaphore(dbPermits, true);
+		this._permitTimeoutMs = permitTimeoutMs;
+		this._executor = newRequestExecutor();
+		this._server = HttpServer.create(new InetSocketAddress(port), 1024);
+		this._server.setExecutor(this._executor);
+		this._server.createContext("/", this::handle);
+	}
+
+	public void start() {
+		this._server.start();
+	}
+
+	/**
+	 * Method to stop accepting requests, give running ones delayS seconds to
+	 * finish, and stop the request threads.
+	 */
+	public void stop(int delayS) {
+		this._server.stop(delayS);
+		this._executor.shutdownNow();
+	}
+
+	/**
+	 * @return a virtual-thread-per-task executor when the JVM has one, else a bounded thread pool
+	 */
+	static ExecutorService newRequestExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			final AtomicInteger n = new AtomicInteger();
+			return Executors.newFixedThreadPool(Integer.getInteger("ticketmaster.httpThreads", 200), r -> {
+				Thread t = new Thread(r, "http-" + n.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			});
+		}
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		int status = 200;
+		Object body;
+		try {
+			body = route(exchange.getRequestMethod(), exchange.getRequestURI().getRawPath().split("/"), exchange);
+			if (exchange.getRequestMethod().equals("POST") && exchange.getRequestURI().getPath().equals("/bookings")) status = 201;
+		} catch (HttpError e) {
+			status = e.status;
+			body = error(e.getMessage());
+		} catch (IllegalArgumentException e) {
+			status = 400;
+			body = error(e.getMessage());
+		} catch (SQLException e) {
+			status = statusOf(e);
+			body = error(e.getMessage());
+		} catch (RuntimeException e) {
+			status = 500;
+			body = error(e.toString());
+		}
+		byte[] bytes = Json.write(body).getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * Method to dispatch a request by method and path segments; segment 0
+	 * is the empty string before the leading slash.
+	 */
+	private Object route(String method, String[] path, HttpExchange exchange) throws HttpError, SQLException, IOException {
+		Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+		String first = path.length > 1 ? path[1] : "";
+		if (method.equals("GET") && first.equals("stats") && path.length == 2) {
+			Map<String, Object> stats = this._service.getMetrics().toMap();
+			stats.put("reads", this._service.getReads().toMap());
+			return stats;
+		}
+		if (method.equals("GET") && first.equals("shows") && path.length == 2) {
+			String date = require(query, "date");
+			if (query.containsKey("time")) return db(() -> this._service.showsStartingAt(date, query.get("time")));
+			return db(() -> this._service.showsOnDate(date));
+		}
+		if (method.equals("GET") && first.equals("shows") && path.length == 4 && path[3].equals("seats")) {
+			final long sid = Long.parseLong(path[2]);
+			return db(() -> seats(this._service.seatMap(sid)));
+		}
+		if (method.equals("GET") && first.equals("shows") && path.length == 4 && path[3].equals("theaters")) {
+			final long sid = Long.parseLong(path[2]);
+			return db(() -> this._service.theatersPlayingShow(sid));
+		}
+		if (method.equals("GET") && first.equals("cinemas") && path.length == 4 && path[3].equals("schedule")) {
+			final String cinema = decode(path[2]);
+			String from = require(query, "from");
+			String to = require(query, "to");
+			return db(() -> this._service.scheduleOfCinema(cinema, from, to));
+		}
+		if (method.equals("GET") && first.equals("movies") && path.length == 2) {
+			String keywords = require(query, "q");
+			int offset = query.containsKey("offset") ? Integer.parseInt(query.get("offset")) : 0;
+			int limit = query.containsKey("limit") ? Integer.parseInt(query.get("limit")) : 20;
+			return db(() -> this._service.searchMovies(keywords, query.get("from"), query.get("to"), query.get("genre"), query.get("lang"), offset, limit));
+		}
+		if (method.equals("GET") && first.equals("movies") && path.length == 3 && path[2].equals("shows")) {
+			String title = require(query, "title");
+			String after = require(query, "after");
+			return db(() -> this._service.upcomingShows(this._service.getReference().movieId(title), after));
+		}
+		if (method.equals("GET") && first.equals("users") && path.length == 4 && path[3].equals("bookings")) {
+			final String email = decode(path[2]);
+			int limit = query.containsKey("limit") ? Integer.parseInt(query.get("limit")) : 50;
+			return db(() -> this._service.bookingHistory(email, query.get("from"), query.get("to"), query.get("status"), query.get("after"), limit).toMap());
+		}
+		if (method.equals("POST") && first.equals("bookings") && path.length == 2) {
+			BatchRunner.Args a = new BatchRunner.Args(readObject(exchange));
+			final long holdMs = a.has("holdMs") ? a.lng("holdMs") : this._service.getHolds().getTtlMs();
+			ReservationResult r = (ReservationResult) db(() -> a.has("best")
+				? this._service.bookBest(a.str("status"), a.str("bdatetime"), a.lng("sid"), a.str("email"), a.integer("best"), holdMs)
+				: this._service.book(a.str("status"), a.str("bdatetime"), a.lng("sid"), a.str("email"), a.longs("seats"), holdMs));
+			return reservation(r);
+		}
+		if (method.equals("POST") && first.equals("bookings") && path.length == 4 && path[3].equals("seat")) {
+			final long bid = Long.parseLong(path[2]);
+			BatchRunner.Args a = new BatchRunner.Args(readObject(exchange));
+			ReservationResult r = (ReservationResult) db(() -> this._service.changeSeat(bid, a.lng("ssid"), a.lng("newSsid")));
+			return reservation(r);
+		}
+		if (method.equals("DELETE") && first.equals("payments") && path.length == 3) {
+			final long pid = Long.parseLong(path[2]);
+			int released = (Integer) db(() -> this._service.removePayment(pid));
+			Map<String, Object> result = new LinkedHashMap<String, Object>();
+			result.put("released", released);
+			return result;
+		}
+		throw new HttpError(404, "No such endpoint: " + method + " " + exchange.getRequestURI().getPath());
+	}
+
+	/**
+	 * Method to run a service call while holding a database permit.
+	 */
+	private Object db(Call call) throws HttpError, SQLException {
+		boolean acquired;
+		try {
+			acquired = this._dbPermits.tryAcquire(this._permitTimeoutMs, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new HttpError(503, "Interrupted while waiting for the database");
+		}
+		if (!acquired) throw new HttpError(503, "Too many requests, please retry");
+		try {
+			return call.run();
+		} finally {
+			this._dbPermits.release();
+		}
+	}
+
+	private static Object seats(SeatAvailabilityIndex.ShowSeatMap map) {
+		long[] free = map.freeSeats();
+		float[] prices = new float[free.length];
+		for (int i = 0; i < free.length; ++i) prices[i] = map.price(free[i]);
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("sid", map.sid);
+		result.put("seats", map.size());
+		result.put("free", free);
+		result.put("prices", prices);
+		return result;
+	}
+
+	private static Object reservation(ReservationResult r) throws HttpError {
+		if (!r.isReserved()) {
+			throw new HttpError(r.status == ReservationResult.Status.REJECTED ? 422 : 409, r.status + ": " + r.message);
+		}
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("bid", r.bid);
+		result.put("seats", r.reserved);
+		result.put("attempts", r.attempts);
+		return result;
+	}
+
+	private static Object error(String message) {
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("error", message);
+		return result;
+	}
+
+	/**
+	 * @return 404 for missing rows, 409 for constraint violations, 503 for connection trouble, else 500
+	 */
+	private static int statusOf(SQLException e) {
+		String state = e.getSQLState();
+		if (state == null) return 500;
+		if (state.equals("02000")) return 404;
+		if (state.startsWith("23")) return 409;
+		if (state.startsWith("08")) return 503;
+		if (state.startsWith("22")) return 400;
+		return 500;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> readObject(HttpExchange exchange) throws IOException {
+		String text;
+		try (InputStream in = exchange.getRequestBody()) {
+			text = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+		Object value = Json.parse(text);
+		if (!(value instanceof Map)) throw new IllegalArgumentException("Expected a JSON object");
+		return (Map<String, Object>) value;
+	}
+
+	private static Map<String, String> parseQuery(String raw) {
+		Map<String, String> query = new LinkedHashMap<String, String>();
+		if (raw == null || raw.isEmpty()) return query;
+		for (String pair : raw.split("&")) {
+			int eq = pair.indexOf('=');
+			if (eq < 0) query.put(decode(pair), "");
+			else query.put(decode(pair.substring(0, eq)), decode(pair.substring(eq + 1)));
+		}
+		return query;
+	}
+
+	private static String require(Map<String, String> query, String name) {
+		String value = query.get(name);
+		if (value == null || value.isEmpty()) throw new IllegalArgumentException("Missing query parameter " + name);
+		return value;
+	}
+
+	private static String decode(String s) {
+		return URLDecoder.decode(s, StandardCharsets.UTF_8);
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.err.println("Usage: java [-classpath <classpath>] " + HttpService.class.getName() + " <dbname> <port> <user> [--http-port N]");
+			System.exit(2);
+		}
+		int httpPort = 8080;
+		List<String> rest = Arrays.asList(args).subList(3, args.length);
+		for (int i = 0; i + 1 < rest.size(); i += 2) {
+			if (rest.get(i).equals("--http-port")) httpPort = Integer.parseInt(rest.get(i + 1));
+		}
+		String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+		final ConnectionPool pool = new ConnectionPool(url, args[2], "",
+			Integer.getInteger("ticketmaster.poolSize", 16),
+			Integer.getInteger("ticketmaster.statementCacheSize", 64),
+			Long.getLong("ticketmaster.borrowTimeoutMs", 30000L));
+		pool.release(pool.borrow());
+		final SeatAvailabilityIndex availability = new SeatAvailabilityIndex(pool,
+			Integer.getInteger("ticketmaster.seatMapShows", 10000),
+			Long.getLong("ticketmaster.seatListenerPollMs", 100L));
+		availability.start();
+		final TicketmasterService service = TicketmasterService.create(pool, availability);
+		service.getHolds().start();
+		service.getReads().start();
+		pool.getMetrics().registerMBeans().dumpEvery(System.err, Long.getLong("ticketmaster.statsIntervalMs", 0L));
+		// one permit per connection, so no request holds a permit while waiting for a connection
+		final HttpService http = new HttpService(service, httpPort, pool.getMaxSize(),
+			Long.getLong("ticketmaster.httpPermitTimeoutMs", 5000L));
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			http.stop(2);
+			service.getHolds().close();
+			service.getReads().close();
+			availability.close();
+			pool.close();
+		}));
+		http.start();
+		System.out.println("Serving on http://localhost:" + httpPort + "/");
+	}
+}
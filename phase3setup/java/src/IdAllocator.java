@@ -0,0 +1,108 @@
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class hands out ids of a database sequence from memory. Ids are
+ * reserved a block at a time with one query that calls nextval once per id
+ * (hi-lo style, but without changing the sequence's increment, so psql and
+ * other clients keep working), and claimed from the current block with an
+ * atomic counter, so concurrent threads never lock or wait unless the block
+ * runs out. Inserts therefore know their keys before they are sent and can
+ * be batched without RETURNING or currval round trips.
+ *
+ * Ids are unique but not contiguous, and ids are only ascending within one
+ * allocator: several processes interleave their blocks, and the unused part
+ * of a block is lost when the process exits.
+ */
+public final class IdAllocator {
+	/**
+	 * Reserved ids and the index of the next one to hand out.
+	 */
+	private static final class Block {
+		final long[] ids;
+		final AtomicInteger next = new AtomicInteger();
+
+		Block(long[] ids) {
+			this.ids = ids;
+		}
+	}
+
+	private final ConnectionPool _pool;
+	private final String _sequence;
+	private final int _blockSize;
+	private final LongAdder _reservations = new LongAdder();
+	private volatile Block _block = new Block(new long[0]);
+
+	/**
+	 * @param pool the connections blocks are reserved through
+	 * @param sequence the sequence to draw from, such as Booking_Seq
+	 * @param blockSize the ids reserved per round trip
+	 */
+	public IdAllocator(ConnectionPool pool, String sequence, int blockSize) {
+		if (blockSize < 1) throw new IllegalArgumentException("blockSize must be at least 1");
+		this._pool = pool;
+		this._sequence = sequence;
+		this._blockSize = blockSize;
+	}
+
+	public String getSequence() {
+		return this._sequence;
+	}
+
+	/**
+	 * @return the number of round trips made to reserve ids
+	 */
+	public long getReservations() {
+		return this._reservations.sum();
+	}
+
+	/**
+	 * Method to take one id.
+	 */
+	public long next() throws SQLException {
+		while (true) {
+			Block b = this._block;
+			int i = b.next.getAndIncrement();
+			if (i < b.ids.length) return b.ids[i];
+			refill(b, 0);
+		}
+	}
+
+	/**
+	 * Method to take count ids at once. What is left of the current block is
+	 * used first; a request larger than that reserves the rest together
+	 * with the next block, so it costs at most one round trip.
+	 */
+	public long[] next(int count) throws SQLException {
+		long[] ids = new long[count];
+		int filled = 0;
+		while (filled < count) {
+			Block b = this._block;
+			int wanted = count - filled;
+			int first = b.next.getAndAdd(wanted);
+			if (first < b.ids.length) {
+				int n = Math.min(wanted, b.ids.length - first);
+				System.arraycopy(b.ids, first, ids, filled, n);
+				filled += n;
+			}
+			if (filled < count) refill(b, count - filled);
+		}
+		return ids;
+	}
+
+	/**
+	 * Method to replace an exhausted block, unless another thread already
+	 * did. Threads that find the block empty meanwhile wait here for the one
+	 * round trip instead of making their own.
+	 *
+	 * @param extra ids needed beyond a normal block
+	 */
+	private synchronized void refill(Block exhausted, int extra) throws SQLException {
+		if (this._block != exhausted) return;
+		final int size = this._blockSize + extra;
+		long[] ids = this._pool.withConnection(conn -> conn.executeQueryAndReturnColumns(Queries.NEXT_IDS, this._sequence, size)).getLongs(0);
+		this._reservations.increment();
+		this._block = new Block(ids);
+	}
+}
@@ -0,0 +1,279 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class reads and writes the small JSON documents of the batch mode:
+ * one object per line. Objects parse to LinkedHashMap, arrays to ArrayList,
+ * integral numbers to Long, other numbers to Double, and true, false, null
+ * to Boolean and null.
+ *
+ * Writing accepts the same types plus long[], float[], ColumnarResult (as an
+ * array of row objects), and any other value as its string.
+ */
+public final class Json {
+	private final String _text;
+	private int _pos = 0;
+
+	private Json(String text) {
+		this._text = text;
+	}
+
+	/**
+	 * Method to parse one JSON value.
+	 *
+	 * @throws IllegalArgumentException when the text is not valid JSON
+	 */
+	public static Object parse(String text) {
+		Json parser = new Json(text);
+		Object value = parser.value();
+		parser.skipSpace();
+		if (parser._pos != text.length()) throw parser.error("Unexpected text after value");
+		return value;
+	}
+
+	/**
+	 * Method to write a value as compact JSON.
+	 */
+	public static String write(Object value) {
+		StringBuilder sb = new StringBuilder();
+		write(sb, value);
+		return sb.toString();
+	}
+
+	/**
+	 * Method to append a value as compact JSON.
+	 */
+	public static void write(StringBuilder sb, Object value) {
+		if (value == null) {
+			sb.append("null");
+		} else if (value instanceof String) {
+			quote(sb, (String) value);
+		} else if (value instanceof Double || value instanceof Float) {
+			double d = ((Number) value).doubleValue();
+			if (Double.isNaN(d) || Double.isInfinite(d)) sb.append("null"); else sb.append(value);
+		} else if (value instanceof Number || value instanceof Boolean) {
+			sb.append(value);
+		} else if (value instanceof Map) {
+			sb.append('{');
+			boolean first = true;
+			for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+				if (!first) sb.append(',');
+				first = false;
+				quote(sb, String.valueOf(e.getKey()));
+				sb.append(':');
+				write(sb, e.getValue());
+			}
+			sb.append('}');
+		} else if (value instanceof Collection) {
+			sb.append('[');
+			boolean first = true;
+			for (Object o : (Collection<?>) value) {
+				if (!first) sb.append(',');
+				first = false;
+				write(sb, o);
+			}
+			sb.append(']');
+		} else if (value instanceof long[]) {
+			long[] a = (long[]) value;
+			sb.append('[');
+			for (int i = 0; i < a.length; ++i) {
+				if (i > 0) sb.append(',');
+				sb.append(a[i]);
+			}
+			sb.append(']');
+		} else if (value instanceof float[]) {
+			float[] a = (float[]) value;
+			sb.append('[');
+			for (int i = 0; i < a.length; ++i) {
+				if (i > 0) sb.append(',');
+				write(sb, a[i]);
+			}
+			sb.append(']');
+		} else if (value instanceof ColumnarResult) {
+			ColumnarResult rows = (ColumnarResult) value;
+			sb.append('[');
+			for (int r = 0; r < rows.size(); ++r) {
+				if (r > 0) sb.append(',');
+				writeRow(sb, rows, r);
+			}
+			sb.append(']');
+		} else {
+			quote(sb, value.toString());
+		}
+	}
+
+	/**
+	 * Method to append one row of a result as an object keyed by column
+	 * name, with numbers as numbers and other values as their text.
+	 */
+	static void writeRow(StringBuilder sb, ColumnarResult rows, int r) {
+		sb.append('{');
+		for (int c = 0; c < rows.columnCount(); ++c) {
+			if (c > 0) sb.append(',');
+			quote(sb, rows.getColumnName(c));
+			sb.append(':');
+			if (rows.isNull(r, c)) sb.append("null");
+			else if (rows.isNumeric(c)) write(sb, rows.getObject(r, c));
+			else quote(sb, rows.getString(r, c));
+		}
+		sb.append('}');
+	}
+
+	private static void quote(StringBuilder sb, String s) {
+		sb.append('"');
+		for (int i = 0; i < s.length(); ++i) {
+			char ch = s.charAt(i);
+			switch (ch) {
+				case '"': sb.append("\\\""); break;
+				case '\\': sb.append("\\\\"); break;
+				case '\n': sb.append("\\n"); break;
+				case '\r': sb.append("\\r"); break;
+				case '\t': sb.append("\\t"); break;
+				default:
+					if (ch < 0x20) sb.append(String.format("\\u%04x", (int) ch)); else sb.append(ch);
+			}
+		}
+		sb.append('"');
+	}
+
+	private Object value() {
+		skipSpace();
+		if (this._pos >= this._text.length()) throw error("Unexpected end of input");
+		char ch = this._text.charAt(this._pos);
+		switch (ch) {
+			case '{': return object();
+			case '[': return array();
+			case '"': return string();
+			case 't': return literal("true", Boolean.TRUE);
+			case 'f': return literal("false", Boolean.FALSE);
+			case 'n': return literal("null", null);
+			default:
+				if (ch == '-' || (ch >= '0' && ch <= '9')) return number();
+				throw error("Unexpected character '" + ch + "'");
+		}
+	}
+
+	private Map<String, Object> object() {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		++this._pos;
+		skipSpace();
+		if (peek() == '}') {
+			++this._pos;
+			return map;
+		}
+		while (true) {
+			skipSpace();
+			if (peek() != '"') throw error("Expected a member name");
+			String key = string();
+			skipSpace();
+			expect(':');
+			map.put(key, value());
+			skipSpace();
+			if (peek() == ',') {
+				++this._pos;
+			} else {
+				expect('}');
+				return map;
+			}
+		}
+	}
+
+	private List<Object> array() {
+		List<Object> list = new ArrayList<Object>();
+		++this._pos;
+		skipSpace();
+		if (peek() == ']') {
+			++this._pos;
+			return list;
+		}
+		while (true) {
+			list.add(value());
+			skipSpace();
+			if (peek() == ',') {
+				++this._pos;
+			} else {
+				expect(']');
+				return list;
+			}
+		}
+	}
+
+	private String string() {
+		++this._pos;
+		StringBuilder sb = new StringBuilder();
+		while (this._pos < this._text.length()) {
+			char ch = this._text.charAt(this._pos++);
+			if (ch == '"') return sb.toString();
+			if (ch != '\\') {
+				sb.append(ch);
+				continue;
+			}
+			if (this._pos >= this._text.length()) break;
+			char esc = this._text.charAt(this._pos++);
+			switch (esc) {
+				case '"': case '\\': case '/': sb.append(esc); break;
+				case 'b': sb.append('\b'); break;
+				case 'f': sb.append('\f'); break;
+				case 'n': sb.append('\n'); break;
+				case 'r': sb.append('\r'); break;
+				case 't': sb.append('\t'); break;
+				case 'u':
+					if (this._pos + 4 > this._text.length()) throw error("Bad unicode escape");
+					sb.append((char) Integer.parseInt(this._text.substring(this._pos, this._pos + 4), 16));
+					this._pos += 4;
+					break;
+				default: throw error("Bad escape '\\" + esc + "'");
+			}
+		}
+		throw error("Unterminated string");
+	}
+
+	private Object number() {
+		int start = this._pos;
+		boolean integral = true;
+		if (peek() == '-') ++this._pos;
+		while (this._pos < this._text.length()) {
+			char ch = this._text.charAt(this._pos);
+			if (ch >= '0' && ch <= '9') {
+				++this._pos;
+			} else if (ch == '.' || ch == 'e' || ch == 'E' || ch == '+' || ch == '-') {
+				integral = false;
+				++this._pos;
+			} else {
+				break;
+			}
+		}
+		String n = this._text.substring(start, this._pos);
+		try {
+			return integral ? (Object) Long.parseLong(n) : (Object) Double.parseDouble(n);
+		} catch (NumberFormatException e) {
+			throw error("Bad number " + n);
+		}
+	}
+
+	private Object literal(String word, Object value) {
+		if (!this._text.startsWith(word, this._pos)) throw error("Unexpected literal");
+		this._pos += word.length();
+		return value;
+	}
+
+	private void skipSpace() {
+		while (this._pos < this._text.length() && Character.isWhitespace(this._text.charAt(this._pos))) ++this._pos;
+	}
+
+	private char peek() {
+		return this._pos < this._text.length() ? this._text.charAt(this._pos) : '\0';
+	}
+
+	private void expect(char ch) {
+		if (peek() != ch) throw error("Expected '" + ch + "'");
+		++this._pos;
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException(message + " at position " + this._pos);
+	}
+}
@@ -0,0 +1,82 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class counts latencies in log-linear buckets: every power of two is
+ * split into 16 buckets, so a percentile is within about 6% of the true
+ * value from nanoseconds to hours in a fixed 8 KB of counters. Recording is
+ * lock-free and may run concurrently with other recorders and readers;
+ * readers see a snapshot that is at most slightly behind.
+ */
+public final class LatencyHistogram {
+	private static final int SUB_BITS = 4;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+
+	private final AtomicLongArray _buckets = new AtomicLongArray(64 << SUB_BITS);
+	private final LongAdder _count = new LongAdder();
+	private final LongAdder _sum = new LongAdder();
+	private final LongAccumulator _max = new LongAccumulator(Long::max, 0);
+
+	static int bucketOf(long value) {
+		if (value < 2 * SUB_COUNT) return (int) Math.max(0, value);
+		int exp = 63 - Long.numberOfLeadingZeros(value);
+		return ((exp - SUB_BITS + 1) << SUB_BITS) + (int) ((value >>> (exp - SUB_BITS)) & (SUB_COUNT - 1));
+	}
+
+	static long lowerBoundOf(int bucket) {
+		if (bucket < 2 * SUB_COUNT) return bucket;
+		int exp = (bucket >>> SUB_BITS) + SUB_BITS - 1;
+		return (long) (SUB_COUNT + (bucket & (SUB_COUNT - 1))) << (exp - SUB_BITS);
+	}
+
+	/**
+	 * Method to count one latency.
+	 */
+	public void record(long nanos) {
+		this._buckets.incrementAndGet(bucketOf(nanos));
+		this._count.increment();
+		this._sum.add(nanos);
+		this._max.accumulate(nanos);
+	}
+
+	public long getCount() {
+		return this._count.sum();
+	}
+
+	public long getMax() {
+		return this._max.get();
+	}
+
+	public double getMean() {
+		long count = this._count.sum();
+		return count == 0 ? 0 : (double) this._sum.sum() / count;
+	}
+
+	/**
+	 * @param p the fraction of latencies, such as 0.99
+	 * @return the nanoseconds that fraction of the recorded latencies did not exceed
+	 */
+	public long percentile(double p) {
+		long total = 0;
+		for (int i = 0; i < this._buckets.length(); ++i) total += this._buckets.get(i);
+		if (total == 0) return 0;
+		long rank = Math.max(1, (long) Math.ceil(p * total));
+		long seen = 0;
+		for (int i = 0; i < this._buckets.length(); ++i) {
+			seen += this._buckets.get(i);
+			if (seen >= rank) return Math.min(lowerBoundOf(i + 1) - 1, getMax());
+		}
+		return getMax();
+	}
+
+	/**
+	 * Method to forget every recorded latency.
+	 */
+	public void reset() {
+		for (int i = 0; i < this._buckets.length(); ++i) this._buckets.set(i, 0);
+		this._count.reset();
+		this._sum.reset();
+		this._max.reset();
+	}
+}
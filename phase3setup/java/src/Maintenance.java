@@ -0,0 +1,148 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class runs MaintenanceJobs one after another on a background thread,
+ * so the console stays usable while a large cleanup is in progress, and
+ * keeps the jobs of this session for progress reporting.
+ *
+ * Its main method runs a single job in the foreground for nightly cron use:
+ *
+ * Usage: java Maintenance &lt;dbname&gt; &lt;port&gt; &lt;user&gt; clear-cancelled [--chunk N]
+ *        java Maintenance &lt;dbname&gt; &lt;port&gt; &lt;user&gt; remove-shows &lt;cinema&gt; &lt;MM/DD/YYYY&gt; [--chunk N]
+ *        java Maintenance &lt;dbname&gt; &lt;port&gt; &lt;user&gt; rebuild-schedule
+ *        java Maintenance &lt;dbname&gt; &lt;port&gt; &lt;user&gt; partitions [--months N]
+ *        java Maintenance &lt;dbname&gt; &lt;port&gt; &lt;user&gt; retire &lt;MM/DD/YYYY&gt; [--archive]
+ *
+ * Rerunning an interrupted job with the same arguments resumes it. The
+ * schedule rebuild is a single transaction that recovers the ShowSchedule
+ * read model after the tables it copies were changed outside the
+ * application.
+ *
+ * The last two need the tables partitioned by sql/partition.sql: partitions
+ * creates the monthly partitions of the coming months (3 by default), and
+ * retire detaches the months that ended before a date, dropping them or
+ * keeping them in the archive schema.
+ */
+public class Maintenance {
+	private final ExecutorService _executor;
+	private final List<MaintenanceJob> _jobs = new ArrayList<MaintenanceJob>();
+
+	public Maintenance() {
+		this._executor = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "maintenance");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Method to queue a job behind any job already running.
+	 */
+	public synchronized MaintenanceJob submit(MaintenanceJob job) {
+		this._jobs.add(job);
+		this._executor.execute(job);
+		return job;
+	}
+
+	/**
+	 * @return the jobs submitted in this session, oldest first
+	 */
+	public synchronized List<MaintenanceJob> getJobs() {
+		return new ArrayList<MaintenanceJob>(this._jobs);
+	}
+
+	/**
+	 * Method to stop the running job after its current chunk and drop queued
+	 * jobs. Stopped jobs resume from their last chunk when started again.
+	 */
+	public synchronized void shutdown(long waitMs) {
+		for (MaintenanceJob job : this._jobs) job.cancel();
+		this._executor.shutdownNow();
+		try {
+			this._executor.awaitTermination(waitMs, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 4 || (args[3].equals("remove-shows") && args.length < 6) || (args[3].equals("retire") && args.length < 5)) {
+			System.err.println("Usage: java [-classpath <classpath>] " + Maintenance.class.getName() + " <dbname> <port> <user> clear-cancelled [--chunk N]");
+			System.err.println("       java [-classpath <classpath>] " + Maintenance.class.getName() + " <dbname> <port> <user> remove-shows <cinema> <MM/DD/YYYY> [--chunk N]");
+			System.err.println("       java [-classpath <classpath>] " + Maintenance.class.getName() + " <dbname> <port> <user> rebuild-schedule");
+			System.err.println("       java [-classpath <classpath>] " + Maintenance.class.getName() + " <dbname> <port> <user> partitions [--months N]");
+			System.err.println("       java [-classpath <classpath>] " + Maintenance.class.getName() + " <dbname> <port> <user> retire <MM/DD/YYYY> [--archive]");
+			System.exit(2);
+		}
+		int chunkSize = Integer.getInteger("ticketmaster.maintenanceChunk", 1000);
+		long lockTimeoutMs = Long.getLong("ticketmaster.maintenanceLockTimeoutMs", 2000L);
+		int months = 3;
+		List<String> rest = Arrays.asList(args).subList(args[3].equals("remove-shows") ? 6 : args[3].equals("retire") ? 5 : 4, args.length);
+		boolean archive = rest.contains("--archive");
+		for (int i = 0; i + 1 < rest.size(); i += 2) {
+			if (rest.get(i).equals("--chunk")) chunkSize = Integer.parseInt(rest.get(i + 1));
+			else if (rest.get(i).equals("--months")) months = Integer.parseInt(rest.get(i + 1));
+		}
+		String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+		ConnectionPool pool = new ConnectionPool(url, args[2], "", 1, 64, 30000L);
+		if (args[3].equals("rebuild-schedule") || args[3].equals("partitions") || args[3].equals("retire")) {
+			int status = 0;
+			try {
+				long start = System.nanoTime();
+				TicketmasterService service = TicketmasterService.create(pool, null);
+				if (args[3].equals("rebuild-schedule")) {
+					int rows = service.rebuildSchedule();
+					System.out.println(String.format("Rebuilt the show schedule with %d rows in %.1f s", rows, (System.nanoTime() - start) / 1e9));
+				} else if (args[3].equals("partitions")) {
+					int created = service.createShowPartitions(months);
+					System.out.println(String.format("Created %d partitions for the next %d months in %.1f s", created, months, (System.nanoTime() - start) / 1e9));
+				} else {
+					List<String> retired = service.retireShowPartitions(args[4], archive);
+					System.out.println(String.format("%s %d months %s in %.1f s", archive ? "Archived" : "Dropped", retired.size(), retired, (System.nanoTime() - start) / 1e9));
+				}
+			} catch (SQLException e) {
+				System.err.println(e.getMessage());
+				status = 1;
+			} finally {
+				pool.close();
+			}
+			System.exit(status);
+		}
+		final MaintenanceJob job;
+		if (args[3].equals("clear-cancelled")) {
+			job = MaintenanceJob.clearCancelledBookings(pool, chunkSize, lockTimeoutMs);
+		} else if (args[3].equals("remove-shows")) {
+			job = MaintenanceJob.removeShowsOnDate(pool, args[4], args[5], chunkSize, lockTimeoutMs);
+		} else {
+			System.err.println("Unknown job " + args[3]);
+			pool.close();
+			System.exit(2);
+			return;
+		}
+		// a kill between chunks leaves the run resumable; stop cleanly on Ctrl-C too
+		Thread main = Thread.currentThread();
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			job.cancel();
+			try {
+				main.join(10000);
+			} catch (InterruptedException e) {
+				// exiting anyway.
+			}
+		}));
+		try {
+			job.setProgress(System.out).run();
+		} finally {
+			pool.close();
+		}
+		if (job.getState() == MaintenanceJob.State.FAILED) {
+			System.err.println(job.getError());
+		}
+		System.exit(job.getState() == MaintenanceJob.State.DONE ? 0 : 1);
+	}
+}
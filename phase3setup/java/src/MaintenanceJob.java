@@ -0,0 +1,278 @@
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class runs a maintenance task as a sequence of short transactions,
+ * one per chunk of ids. Each transaction selects the next chunk with a
+ * keyset query (ids greater than the last one processed, locked FOR UPDATE),
+ * applies the job's set-based statements to the whole chunk at once, and
+ * records the last id in MaintenanceRuns before it commits. Row locks are
+ * therefore held for one chunk only, and a job that was interrupted resumes
+ * after its last committed chunk when it is started again with the same
+ * arguments.
+ *
+ * A chunk that cannot get its locks within the lock timeout is retried with
+ * a growing delay, so a nightly job yields to live bookings instead of
+ * queueing them behind it.
+ */
+public class MaintenanceJob implements Runnable {
+	/**
+	 * Told about the ids of every chunk after it committed.
+	 */
+	public interface ChunkListener {
+		void committed(long[] ids);
+	}
+
+	public enum State { PENDING, RUNNING, DONE, FAILED, INTERRUPTED }
+
+	private static final int LOCK_RETRIES = 5;
+
+	private final ConnectionPool _pool;
+	private final String _name;
+	private final String _args;
+	private final int _chunkSize;
+	private final long _lockTimeoutMs;
+	private final String _selectChunk;
+	private final Object[] _selectParams;
+	private final String[] _statements;
+	//statement -> its parameters after the ids
+	private final Map<String, Object[]> _statementParams = new HashMap<String, Object[]>();
+	private final List<ChunkListener> _listeners = new ArrayList<ChunkListener>();
+	private volatile PrintStream _progress = null;
+
+	private volatile State _state = State.PENDING;
+	private volatile boolean _cancelled = false;
+	private volatile long _lastKey = 0;
+	private volatile long _processed = 0;
+	private volatile long _chunks = 0;
+	private volatile long _startedAt = 0;
+	private volatile String _error = null;
+
+	/**
+	 * @param pool the connections chunks run on
+	 * @param name the job name recorded in MaintenanceRuns
+	 * @param args the job arguments recorded in MaintenanceRuns; a rerun with the same name and args resumes
+	 * @param chunkSize the number of ids per transaction
+	 * @param lockTimeoutMs how long a chunk waits for row locks before it is retried
+	 * @param selectChunk selects the next ids ascending; takes selectParams, then the last id and the chunk size
+	 * @param selectParams the leading parameters of selectChunk
+	 * @param statements the statements applied to each chunk, each taking the ids as its first parameter
+	 */
+	public MaintenanceJob(ConnectionPool pool, String name, String args, int chunkSize, long lockTimeoutMs,
+			String selectChunk, Object[] selectParams, String... statements) {
+		if (chunkSize < 1) throw new IllegalArgumentException("chunkSize must be at least 1");
+		this._pool = pool;
+		this._name = name;
+		this._args = args;
+		this._chunkSize = chunkSize;
+		this._lockTimeoutMs = lockTimeoutMs;
+		this._selectChunk = selectChunk;
+		this._selectParams = selectParams;
+		this._statements = statements;
+	}
+
+	/**
+	 * Method to create the job that releases the seats of cancelled bookings
+	 * and deletes the bookings with their payments.
+	 */
+	public static MaintenanceJob clearCancelledBookings(ConnectionPool pool, int chunkSize, long lockTimeoutMs) {
+		return new MaintenanceJob(pool, "clear-cancelled", "", chunkSize, lockTimeoutMs,
+			Queries.CANCELLED_BOOKINGS_AFTER, new Object[0],
+			Queries.RELEASE_SEATS_OF_BOOKINGS,
+			Queries.DELETE_PAYMENTS_OF_BOOKINGS,
+			Queries.DELETE_CANCELLED_BOOKINGS);
+	}
+
+	/**
+	 * Method to create the job that removes the shows of a cinema on a date
+	 * with their schedule rows, seats, plays and payments (their bookings
+	 * cascade). Seats, payments and shows are also filtered by the show date
+	 * so each chunk only touches that date's partitions.
+	 *
+	 * @param showDate the date in format MM/DD/YYYY
+	 */
+	public static MaintenanceJob removeShowsOnDate(ConnectionPool pool, String cinemaName, String showDate, int chunkSize, long lockTimeoutMs) {
+		return new MaintenanceJob(pool, "remove-shows", cinemaName + "|" + showDate, chunkSize, lockTimeoutMs,
+			Queries.SHOWS_OF_CINEMA_ON_DATE_AFTER, new Object[]{ showDate, cinemaName },
+			Queries.DELETE_SCHEDULE_OF_SHOWS,
+			Queries.DELETE_SEATS_OF_SHOWS,
+			Queries.DELETE_PLAYS_OF_SHOWS,
+			Queries.DELETE_PAYMENTS_OF_SHOWS,
+			Queries.DELETE_SHOWS)
+			.bindAfterIds(Queries.DELETE_SEATS_OF_SHOWS, showDate)
+			.bindAfterIds(Queries.DELETE_PAYMENTS_OF_SHOWS, showDate)
+			.bindAfterIds(Queries.DELETE_SHOWS, showDate);
+	}
+
+	/**
+	 * Method to give one of the job's statements parameters after the ids,
+	 * such as the show date that limits it to one partition.
+	 */
+	MaintenanceJob bindAfterIds(String statement, Object... params) {
+		this._statementParams.put(statement, params);
+		return this;
+	}
+
+	public MaintenanceJob addListener(ChunkListener listener) {
+		this._listeners.add(listener);
+		return this;
+	}
+
+	/**
+	 * Sets where a progress line is printed after every chunk, null for none.
+	 */
+	public MaintenanceJob setProgress(PrintStream progress) {
+		this._progress = progress;
+		return this;
+	}
+
+	/**
+	 * Method to run the job to completion on the calling thread. Failures are
+	 * recorded in getState and getError and in MaintenanceRuns.
+	 */
+	@Override
+	public void run() {
+		this._state = State.RUNNING;
+		this._startedAt = System.nanoTime();
+		try {
+			ColumnarResult resumed = this._pool.withConnection(conn -> conn.executeQueryAndReturnColumns(Queries.START_MAINTENANCE_RUN, this._name, this._args));
+			this._lastKey = resumed.getLong(0, 0);
+			this._processed = resumed.getLong(0, 1);
+			this._chunks = resumed.getLong(0, 2);
+			if (this._chunks > 0) report("resuming after id " + this._lastKey);
+
+			while (!this._cancelled && !Thread.currentThread().isInterrupted()) {
+				long[] ids = runChunkWithRetry();
+				if (ids.length == 0) break;
+				for (ChunkListener listener : this._listeners) listener.committed(ids);
+				report(null);
+				if (ids.length < this._chunkSize) break;
+			}
+			if (this._cancelled || Thread.currentThread().isInterrupted()) {
+				finish(State.INTERRUPTED, "Interrupted", null);
+			} else {
+				finish(State.DONE, "Done", null);
+			}
+		} catch (SQLException e) {
+			this._error = e.getMessage();
+			finish(State.FAILED, "Failed", e.getMessage());
+		}
+	}
+
+	/**
+	 * Asks a running job to stop after its current chunk.
+	 */
+	public void cancel() {
+		this._cancelled = true;
+	}
+
+	/**
+	 * Method to run one chunk in its own transaction: select, apply, record.
+	 *
+	 * @return the ids of the chunk, empty when no ids are left
+	 */
+	private long[] runChunk() throws SQLException {
+		final long after = this._lastKey;
+		long[] ids = this._pool.inTransaction(conn -> {
+			conn.executeQueryAndReturnColumns("SELECT set_config('lock_timeout', ?, true);", this._lockTimeoutMs + "ms");
+			Object[] params = Arrays.copyOf(this._selectParams, this._selectParams.length + 2);
+			params[params.length - 2] = after;
+			params[params.length - 1] = this._chunkSize;
+			long[] chunk = conn.executeQueryAndReturnColumns(this._selectChunk, params).getLongs(0);
+			if (chunk.length == 0) return chunk;
+			for (String sql : this._statements) {
+				Object[] bound = this._statementParams.getOrDefault(sql, new Object[0]);
+				Object[] stmtParams = new Object[1 + bound.length];
+				stmtParams[0] = chunk;
+				System.arraycopy(bound, 0, stmtParams, 1, bound.length);
+				conn.executeUpdate(sql, stmtParams);
+			}
+			conn.executeUpdate(Queries.RECORD_MAINTENANCE_CHUNK, chunk[chunk.length - 1], chunk.length, this._name, this._args);
+			return chunk;
+		});
+		if (ids.length > 0) {
+			this._lastKey = ids[ids.length - 1];
+			this._processed += ids.length;
+			++this._chunks;
+		}
+		return ids;
+	}
+
+	private long[] runChunkWithRetry() throws SQLException {
+		for (int attempt = 1; ; ++attempt) {
+			try {
+				return this._pool.getMetrics().time(this._name + " chunk", this::runChunk);
+			} catch (SQLException e) {
+				// lock_not_available and deadlock_detected: back off and try the chunk again
+				boolean retry = "55P03".equals(e.getSQLState()) || "40P01".equals(e.getSQLState());
+				if (!retry || attempt >= LOCK_RETRIES) throw e;
+				report("chunk after id " + this._lastKey + " is locked, retrying");
+				try {
+					Thread.sleep(100L << attempt);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new SQLException("Interrupted while waiting for locks");
+				}
+			}
+		}
+	}
+
+	private void finish(State state, String status, String message) {
+		this._state = state;
+		try {
+			this._pool.withConnection(conn -> conn.executeUpdate(Queries.FINISH_MAINTENANCE_RUN, status, message, this._name, this._args));
+		} catch (SQLException e) {
+			// the run stays marked Running and resumes from its last chunk next time
+		}
+		report(status.toLowerCase());
+	}
+
+	private void report(String note) {
+		PrintStream out = this._progress;
+		if (out != null) out.println(toString() + (note == null ? "" : " - " + note));
+	}
+
+	public String getName() {
+		return this._name;
+	}
+
+	public String getArgs() {
+		return this._args;
+	}
+
+	public State getState() {
+		return this._state;
+	}
+
+	public long getProcessed() {
+		return this._processed;
+	}
+
+	public long getChunks() {
+		return this._chunks;
+	}
+
+	public long getLastKey() {
+		return this._lastKey;
+	}
+
+	public String getError() {
+		return this._error;
+	}
+
+	/**
+	 * @return the name, state and progress of the job on one line
+	 */
+	@Override
+	public String toString() {
+		double seconds = this._startedAt == 0 ? 0 : (System.nanoTime() - this._startedAt) / 1e9;
+		String args = this._args.isEmpty() ? "" : " " + this._args;
+		return String.format("%s%s: %s, %d ids in %d chunks, last id %d, %.1fs",
+			this._name, args, this._state, this._processed, this._chunks, this._lastKey, seconds);
+	}
+}
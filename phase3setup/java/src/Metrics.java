@@ -0,0 +1,342 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * This class records where time goes: a latency histogram, round trips,
+ * rows fetched and errors per service operation and per SQL statement.
+ * Statements are named after their constant in Queries. A statement run
+ * while an operation is being timed on the same thread also counts towards
+ * that operation, so a report shows how many round trips an AddBooking
+ * takes as well as how long.
+ *
+ * All recording is lock-free. Every recorder can be published over JMX
+ * under ticketmaster:type=Operation or ticketmaster:type=Statement, and
+ * the whole report can be printed on demand or periodically.
+ */
+public final class Metrics {
+	/**
+	 * The JMX view of one recorder.
+	 */
+	public interface RecorderMXBean {
+		long getCount();
+		long getErrors();
+		long getRoundTrips();
+		long getRows();
+		double getMeanMs();
+		double getP50Ms();
+		double getP99Ms();
+		double getP999Ms();
+		double getMaxMs();
+		String getLastError();
+		void reset();
+	}
+
+	/**
+	 * The JMX view of all recorders.
+	 */
+	public interface MetricsMXBean {
+		String getReport();
+		void reset();
+	}
+
+	/**
+	 * The measurements of one operation or statement.
+	 */
+	public static final class Recorder implements RecorderMXBean {
+		final String name;
+		final LatencyHistogram latency = new LatencyHistogram();
+		final LongAdder errors = new LongAdder();
+		final LongAdder roundTrips = new LongAdder();
+		final LongAdder rows = new LongAdder();
+		volatile String lastError = null;
+
+		Recorder(String name) {
+			this.name = name;
+		}
+
+		void record(long nanos, long roundTrips, long rows, Throwable error) {
+			this.latency.record(nanos);
+			this.roundTrips.add(roundTrips);
+			this.rows.add(rows);
+			if (error != null) {
+				this.errors.increment();
+				this.lastError = error.getMessage();
+			}
+		}
+
+		public long getCount() { return this.latency.getCount(); }
+		public long getErrors() { return this.errors.sum(); }
+		public long getRoundTrips() { return this.roundTrips.sum(); }
+		public long getRows() { return this.rows.sum(); }
+		public double getMeanMs() { return this.latency.getMean() / 1e6; }
+		public double getP50Ms() { return this.latency.percentile(0.50) / 1e6; }
+		public double getP99Ms() { return this.latency.percentile(0.99) / 1e6; }
+		public double getP999Ms() { return this.latency.percentile(0.999) / 1e6; }
+		public double getMaxMs() { return this.latency.getMax() / 1e6; }
+		public String getLastError() { return this.lastError; }
+
+		public void reset() {
+			this.latency.reset();
+			this.errors.reset();
+			this.roundTrips.reset();
+			this.rows.reset();
+			this.lastError = null;
+		}
+
+		Map<String, Object> toMap() {
+			Map<String, Object> m = new LinkedHashMap<String, Object>();
+			m.put("name", this.name);
+			m.put("count", getCount());
+			m.put("errors", getErrors());
+			m.put("roundTrips", getRoundTrips());
+			m.put("rows", getRows());
+			m.put("meanMs", getMeanMs());
+			m.put("p50Ms", getP50Ms());
+			m.put("p99Ms", getP99Ms());
+			m.put("p999Ms", getP999Ms());
+			m.put("maxMs", getMaxMs());
+			return m;
+		}
+	}
+
+	/**
+	 * Work timed as an operation.
+	 */
+	public interface Call<T> {
+		T call() throws SQLException;
+	}
+
+	/**
+	 * The round trips and rows of the operation running on a thread.
+	 */
+	private static final class Scope {
+		long roundTrips;
+		long rows;
+	}
+
+	//SQL text -> name of its constant in Queries
+	private static final Map<String, String> STATEMENT_NAMES = statementNames();
+
+	private final boolean _enabled;
+	private final ConcurrentHashMap<String, Recorder> _operations = new ConcurrentHashMap<String, Recorder>();
+	private final ConcurrentHashMap<String, Recorder> _statements = new ConcurrentHashMap<String, Recorder>();
+	private final ThreadLocal<Scope> _scope = new ThreadLocal<Scope>();
+	private volatile MBeanServer _server = null;
+
+	/**
+	 * @param enabled false to make every recording a no-op
+	 */
+	public Metrics(boolean enabled) {
+		this._enabled = enabled;
+	}
+
+	private static Map<String, String> statementNames() {
+		Map<String, String> names = new HashMap<String, String>();
+		for (Field f : Queries.class.getDeclaredFields()) {
+			if (!Modifier.isStatic(f.getModifiers()) || f.getType() != String.class) continue;
+			try {
+				names.put((String) f.get(null), f.getName());
+			} catch (IllegalAccessException e) {
+				// not a query.
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * @return the name of the Queries constant holding sql, or its first words
+	 */
+	static String statementName(String sql) {
+		String name = STATEMENT_NAMES.get(sql);
+		if (name != null) return name;
+		String text = sql.trim().replaceAll("\\s+", " ");
+		return text.length() <= 48 ? text : text.substring(0, 48) + "...";
+	}
+
+	private Recorder recorder(ConcurrentHashMap<String, Recorder> recorders, String type, String name) {
+		Recorder r = recorders.get(name);
+		if (r != null) return r;
+		Recorder created = new Recorder(name);
+		r = recorders.putIfAbsent(name, created);
+		if (r != null) return r;
+		if (this._server != null) register(type, created);
+		return created;
+	}
+
+	/**
+	 * Method to time an operation. Statements the work runs on this thread
+	 * add their round trips and rows to it.
+	 */
+	public <T> T time(String operation, Call<T> work) throws SQLException {
+		if (!this._enabled) return work.call();
+		Scope outer = this._scope.get();
+		Scope scope = new Scope();
+		this._scope.set(scope);
+		long start = System.nanoTime();
+		Throwable error = null;
+		try {
+			return work.call();
+		} catch (SQLException | RuntimeException e) {
+			error = e;
+			throw e;
+		} finally {
+			long nanos = System.nanoTime() - start;
+			if (outer == null) {
+				this._scope.remove();
+			} else {
+				this._scope.set(outer);
+				outer.roundTrips += scope.roundTrips;
+				outer.rows += scope.rows;
+			}
+			recorder(this._operations, "Operation", operation).record(nanos, scope.roundTrips, scope.rows, error);
+		}
+	}
+
+	/**
+	 * Method to record one execution of a statement.
+	 */
+	public void statement(String sql, long nanos, long roundTrips, long rows, Throwable error) {
+		if (!this._enabled) return;
+		Scope scope = this._scope.get();
+		if (scope != null) {
+			scope.roundTrips += roundTrips;
+			scope.rows += rows;
+		}
+		recorder(this._statements, "Statement", statementName(sql)).record(nanos, roundTrips, rows, error);
+	}
+
+	/**
+	 * Method to count round trips outside any statement, such as a commit.
+	 */
+	public void roundTrip() {
+		if (!this._enabled) return;
+		Scope scope = this._scope.get();
+		if (scope != null) ++scope.roundTrips;
+	}
+
+	public Recorder getOperation(String name) {
+		return this._operations.get(name);
+	}
+
+	public Recorder getStatement(String name) {
+		return this._statements.get(name);
+	}
+
+	/**
+	 * Method to forget everything recorded so far.
+	 */
+	public void reset() {
+		for (Recorder r : this._operations.values()) r.reset();
+		for (Recorder r : this._statements.values()) r.reset();
+	}
+
+	/**
+	 * Method to publish every recorder, present and future, on the platform
+	 * MBean server.
+	 */
+	public synchronized Metrics registerMBeans() {
+		if (!this._enabled || this._server != null) return this;
+		this._server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			ObjectName name = new ObjectName("ticketmaster:type=Metrics");
+			if (!this._server.isRegistered(name)) {
+				this._server.registerMBean(new MetricsMXBean() {
+					public String getReport() { return report(); }
+					public void reset() { Metrics.this.reset(); }
+				}, name);
+			}
+		} catch (JMException e) {
+			System.err.println("Cannot register metrics: " + e.getMessage());
+		}
+		for (Recorder r : this._operations.values()) register("Operation", r);
+		for (Recorder r : this._statements.values()) register("Statement", r);
+		return this;
+	}
+
+	private void register(String type, Recorder r) {
+		try {
+			ObjectName name = new ObjectName("ticketmaster:type=" + type + ",name=" + ObjectName.quote(r.name));
+			if (!this._server.isRegistered(name)) this._server.registerMBean(r, name);
+		} catch (JMException e) {
+			System.err.println("Cannot register metrics of " + r.name + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Method to print the report every intervalMs from a daemon thread.
+	 * Does nothing when intervalMs is not positive.
+	 */
+	public Metrics dumpEvery(final PrintStream out, final long intervalMs) {
+		if (!this._enabled || intervalMs <= 0) return this;
+		Thread t = new Thread(() -> {
+			try {
+				while (true) {
+					Thread.sleep(intervalMs);
+					out.print(report());
+					out.flush();
+				}
+			} catch (InterruptedException e) {
+				// stopped.
+			}
+		}, "metrics-dump");
+		t.setDaemon(true);
+		t.start();
+		return this;
+	}
+
+	private static List<Recorder> sorted(Map<String, Recorder> recorders) {
+		return new ArrayList<Recorder>(new TreeMap<String, Recorder>(recorders).values());
+	}
+
+	private static void table(StringBuilder sb, String title, List<Recorder> recorders) {
+		sb.append(String.format("%-34s %9s %7s %9s %9s %9s %9s %9s %9s%n",
+			title, "count", "errors", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "trips/op", "rows/op"));
+		for (Recorder r : recorders) {
+			long count = r.getCount();
+			if (count == 0) continue;
+			sb.append(String.format("%-34s %9d %7d %9.3f %9.3f %9.3f %9.3f %9.1f %9.1f%n",
+				r.name, count, r.getErrors(), r.getP50Ms(), r.getP99Ms(), r.getP999Ms(), r.getMaxMs(),
+				(double) r.getRoundTrips() / count, (double) r.getRows() / count));
+		}
+	}
+
+	/**
+	 * @return the operations and statements as a table, one line each
+	 */
+	public String report() {
+		StringBuilder sb = new StringBuilder();
+		table(sb, "operation", sorted(this._operations));
+		sb.append('\n');
+		table(sb, "statement", sorted(this._statements));
+		return sb.toString();
+	}
+
+	/**
+	 * @return the operations and statements as lists of maps, for Json
+	 */
+	public Map<String, Object> toMap() {
+		Map<String, Object> m = new LinkedHashMap<String, Object>();
+		List<Object> operations = new ArrayList<Object>();
+		for (Recorder r : sorted(this._operations)) operations.add(r.toMap());
+		List<Object> statements = new ArrayList<Object>();
+		for (Recorder r : sorted(this._statements)) statements.add(r.toMap());
+		m.put("operations", operations);
+		m.put("statements", statements);
+		return m;
+	}
+}
@@ -0,0 +1,271 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class is the plan-regression suite for the Ticketmaster menu queries.
+ * It runs EXPLAIN (ANALYZE, BUFFERS) on the statements of all 14 menu
+ * operations, using sample parameters taken from the loaded data, and fails
+ * when a plan scans a large table sequentially or a statement exceeds the
+ * latency budget. Data-modifying statements are explained inside a
+ * transaction that is always rolled back, after any setup statements their
+ * foreign keys need. A statement that cannot be analyzed fails the check.
+ *
+ * Run it against a scaled dataset; on the small sample data most tables are
+ * below the row threshold and sequential scans of them are not reported.
+ *
+ * Usage: java PlanCheck <dbname> <port> <user> [--budget-ms N] [--min-rows N]
+ */
+public class PlanCheck {
+	private static final Pattern SEQ_SCAN = Pattern.compile("Seq Scan on (\\w+)");
+	private static final Pattern EXEC_TIME = Pattern.compile("(?:Execution Time|Total runtime): ([0-9.]+) ms");
+
+	/**
+	 * One statement to explain.
+	 */
+	static class Case {
+		final String name;
+		final String sql;
+		final Object[] params;
+		final Set<String> allowedSeqScans;
+		final List<String> setupSql = new ArrayList<String>();
+		final List<Object[]> setupParams = new ArrayList<Object[]>();
+
+		Case(String name, String sql, Object[] params, String... allowedSeqScans) {
+			this.name = name;
+			this.sql = sql;
+			this.params = params;
+			this.allowedSeqScans = new HashSet<String>();
+			for (String t : allowedSeqScans) this.allowedSeqScans.add(t.toLowerCase());
+		}
+
+		/**
+		 * Method to run a statement before the explained one in the same
+		 * transaction, e.g. to delete the rows whose foreign keys would
+		 * otherwise make it fail.
+		 */
+		Case after(String sql, Object... params) {
+			this.setupSql.add(sql);
+			this.setupParams.add(params);
+			return this;
+		}
+	}
+
+	private final ConnectionPool _pool;
+	private final double _budgetMs;
+	private final long _minRows;
+	private final Map<String, Long> _tableRows = new HashMap<String, Long>();
+
+	public PlanCheck(ConnectionPool pool, double budgetMs, long minRows) {
+		this._pool = pool;
+		this._budgetMs = budgetMs;
+		this._minRows = minRows;
+	}
+
+	/**
+	 * Method to build the cases for the 14 menu operations from sample rows
+	 * of the current database.
+	 */
+	public List<Case> buildCases() throws SQLException {
+		return this._pool.withConnection(conn -> {
+			ColumnarResult show = conn.executeQueryAndReturnColumns(
+				"SELECT S.sid, S.mvid, M.title, CAST(S.sdate AS TEXT), CAST(S.sttime AS TEXT), C.cname, C.cid, P.tid " +
+				"FROM Shows S, Movies M, Plays P, Theaters T, Cinemas C WHERE S.mvid = M.mvid AND S.sid = P.sid AND P.tid = T.tid AND T.cid = C.cid LIMIT 1;");
+			ColumnarResult seat = conn.executeQueryAndReturnColumns("SELECT ssid, sid FROM ShowSeats WHERE bid IS NULL LIMIT 1;");
+			ColumnarResult payment = conn.executeQueryAndReturnColumns("SELECT pid, bid FROM Payments LIMIT 1;");
+			ColumnarResult user = conn.executeQueryAndReturnColumns("SELECT email FROM Bookings LIMIT 1;");
+			ColumnarResult city = conn.executeQueryAndReturnColumns("SELECT C1.city_name FROM Cities C1, Cinemas C2 WHERE C1.city_id = C2.city_id LIMIT 1;");
+			if (show.size() == 0 || seat.size() == 0 || payment.size() == 0 || user.size() == 0 || city.size() == 0) {
+				throw new SQLException("PlanCheck needs a loaded dataset");
+			}
+			long sid = show.getLong(0, 0);
+			long mvid = show.getLong(0, 1);
+			String title = show.getString(0, 2);
+			String sdate = show.getString(0, 3);
+			String sttime = show.getString(0, 4);
+			String cname = show.getString(0, 5);
+			long cid = show.getLong(0, 6);
+			long tid = show.getLong(0, 7);
+			long ssid = seat.getLong(0, 0);
+			long seatSid = seat.getLong(0, 1);
+			long pid = payment.getLong(0, 0);
+			long bid = payment.getLong(0, 1);
+			String email = user.getString(0, 0);
+
+			List<Case> cases = new ArrayList<Case>();
+			cases.add(new Case("1 AddUser", Queries.INSERT_USER, new Object[]{ "plancheck@example.com", "Check", "Plan", 5550000000L, "0" }));
+			cases.add(new Case("2 AddBooking: movie", Queries.MOVIE_ID_BY_TITLE, new Object[]{ title }));
+			cases.add(new Case("2 AddBooking: shows", Queries.UPCOMING_SHOWS_OF_MOVIE, new Object[]{ mvid, sdate, sdate, "00:00:00" }));
+			cases.add(new Case("2 AddBooking: free seats", Queries.AVAILABLE_SEATS, new Object[]{ seatSid }));
+			cases.add(new Case("2 AddBooking: best seats", Queries.FREE_SEATS_BY_NUMBER, new Object[]{ seatSid, seatSid }));
+			cases.add(new Case("2 AddBooking: book", Queries.RESERVE_SEATS, new Object[]{ seatSid, new long[]{ ssid }, seatSid, Long.MAX_VALUE, "Pending", "2019-01-01 10:00:00-08", 1, seatSid, email, 600000L }));
+			cases.add(new Case("3 AddShowing: cinemas", Queries.CINEMAS_IN_CITY, new Object[]{ city.getString(0, 0) }));
+			cases.add(new Case("3 AddShowing: theaters", Queries.THEATERS_OF_CINEMA, new Object[]{ cid }));
+			cases.add(new Case("3 AddShowing: seats", Queries.CINEMA_SEATS_OF_THEATER, new Object[]{ tid }));
+			cases.add(new Case("4 CancelPending", Queries.CANCEL_PENDING_BOOKINGS, new Object[0]));
+			cases.add(new Case("Seat holds: rebuild", Queries.PENDING_HOLDS, new Object[]{ 600000L }));
+			cases.add(new Case("Seat holds: expire", Queries.EXPIRE_HOLDS, new Object[]{ new long[]{ bid } }));
+			cases.add(new Case("5 ChangeSeats", Queries.CHANGE_SEAT, new Object[]{ ssid, bid, bid, ssid, ssid, bid, bid }));
+			cases.add(new Case("6 RemovePayment: booking", Queries.BOOKING_OF_PAYMENT, new Object[]{ pid }));
+			cases.add(new Case("6 RemovePayment: seats", Queries.RELEASE_SEATS_OF_BOOKING, new Object[]{ bid }));
+			cases.add(new Case("6 RemovePayment: cancel", Queries.CANCEL_BOOKING, new Object[]{ bid }));
+			cases.add(new Case("6 RemovePayment: delete", Queries.DELETE_PAYMENT, new Object[]{ pid }));
+			cases.add(new Case("7 ClearCancelled: chunk", Queries.CANCELLED_BOOKINGS_AFTER, new Object[]{ 0L, 1000 }));
+			cases.add(new Case("7 ClearCancelled: seats", Queries.RELEASE_SEATS_OF_BOOKINGS, new Object[]{ new long[]{ bid } }));
+			cases.add(new Case("7 ClearCancelled: payments", Queries.DELETE_PAYMENTS_OF_BOOKINGS, new Object[]{ new long[]{ bid } }));
+			cases.add(new Case("7 ClearCancelled: delete", Queries.DELETE_CANCELLED_BOOKINGS, new Object[]{ new long[]{ bid } })
+				.after(Queries.CANCEL_BOOKING, bid)
+				.after(Queries.RELEASE_SEATS_OF_BOOKINGS, (Object) new long[]{ bid })
+				.after(Queries.DELETE_PAYMENTS_OF_BOOKINGS, (Object) new long[]{ bid }));
+			cases.add(new Case("8 RemoveShows: chunk", Queries.SHOWS_OF_CINEMA_ON_DATE_AFTER, new Object[]{ sdate, cname, 0L, 1000 }));
+			cases.add(new Case("8 RemoveShows: seats", Queries.DELETE_SEATS_OF_SHOWS, new Object[]{ new long[]{ sid }, sdate }));
+			cases.add(new Case("8 RemoveShows: plays", Queries.DELETE_PLAYS_OF_SHOWS, new Object[]{ new long[]{ sid } }));
+			cases.add(new Case("8 RemoveShows: payments", Queries.DELETE_PAYMENTS_OF_SHOWS, new Object[]{ new long[]{ sid }, sdate }));
+			cases.add(new Case("8 RemoveShows: shows", Queries.DELETE_SHOWS, new Object[]{ new long[]{ sid }, sdate })
+				.after(Queries.DELETE_SCHEDULE_OF_SHOWS, (Object) new long[]{ sid })
+				.after(Queries.DELETE_SEATS_OF_SHOWS, new long[]{ sid }, sdate)
+				.after(Queries.DELETE_PLAYS_OF_SHOWS, (Object) new long[]{ sid })
+				.after(Queries.DELETE_PAYMENTS_OF_SHOWS, new long[]{ sid }, sdate));
+			cases.add(new Case("9 TheatersPlayingShow: shows", Queries.SHOWS_ON_DATE, new Object[]{ sdate }));
+			cases.add(new Case("9 TheatersPlayingShow", Queries.THEATERS_PLAYING_SHOW, new Object[]{ sid }));
+			cases.add(new Case("10 ShowsAtTimeAndDate", Queries.SHOWS_ON_DATE_AT_TIME, new Object[]{ sdate, sttime, sdate, sttime }));
+			cases.add(new Case("11 SearchMovies", Queries.MOVIE_SEARCH, new Object[]{ "love", "love", "%love%", "love", null, null, null, null, null, null, 20, 0 }));
+			cases.add(new Case("12 UsersWithPendingBooking", Queries.USERS_WITH_PENDING_BOOKING, new Object[0]));
+			cases.add(new Case("13 MovieAtCinemaInRange", Queries.SHOWS_OF_MOVIE_AT_CINEMA_IN_RANGE, new Object[]{ mvid, sdate, sdate, cname }));
+			cases.add(new Case("Schedule of cinema", Queries.SCHEDULE_OF_CINEMA, new Object[]{ cname, sdate, sdate }));
+			cases.add(new Case("14 BookingHistory", Queries.BOOKING_HISTORY, new Object[]{ email, null, null, null, null, null, null, 50 }));
+			return cases;
+		});
+	}
+
+	/**
+	 * Method to explain every case and print a report.
+	 *
+	 * @return the number of failed cases
+	 */
+	public int run(List<Case> cases) throws SQLException {
+		loadTableRows();
+		int failures = 0;
+		System.out.println(String.format("%-34s %10s  %s", "statement", "time (ms)", "result"));
+		for (Case c : cases) {
+			List<String> problems = new ArrayList<String>();
+			List<String> plan;
+			try {
+				plan = explain(c);
+			} catch (SQLException e) {
+				System.out.println(String.format("%-34s %10s  FAIL %s", c.name, "-", e.getMessage()));
+				++failures;
+				continue;
+			}
+			double ms = -1;
+			for (String line : plan) {
+				Matcher m = SEQ_SCAN.matcher(line);
+				while (m.find()) {
+					String table = m.group(1).toLowerCase();
+					Long rows = this._tableRows.get(table);
+					if (!c.allowedSeqScans.contains(table) && rows != null && rows >= this._minRows) {
+						problems.add("seq scan on " + table + " (" + rows + " rows)");
+					}
+				}
+				m = EXEC_TIME.matcher(line);
+				if (m.find()) ms = Double.parseDouble(m.group(1));
+			}
+			if (ms < 0) {
+				problems.add("not analyzed");
+			} else if (ms > this._budgetMs) {
+				problems.add("over budget of " + this._budgetMs + " ms");
+			}
+			String time = ms < 0 ? "-" : String.format("%.3f", ms);
+			if (problems.isEmpty()) {
+				System.out.println(String.format("%-34s %10s  ok", c.name, time));
+			} else {
+				++failures;
+				System.out.println(String.format("%-34s %10s  FAIL %s", c.name, time, String.join("; ", problems)));
+				for (String line : plan) System.out.println("    " + line);
+			}
+		}
+		System.out.println(failures == 0 ? "All plans passed" : failures + " plan(s) failed");
+		return failures;
+	}
+
+	/**
+	 * Method to run EXPLAIN (ANALYZE, BUFFERS) for one case inside a
+	 * transaction that is rolled back, so data-modifying statements leave
+	 * no trace. The case's setup statements run first in the same
+	 * transaction.
+	 */
+	private List<String> explain(final Case c) throws SQLException {
+		final String sql = c.sql.trim().endsWith(";") ? c.sql.trim().substring(0, c.sql.trim().length() - 1) : c.sql;
+		return this._pool.withConnection(conn -> {
+			Connection jdbc = conn.getConnection();
+			jdbc.setAutoCommit(false);
+			try {
+				for (int i = 0; i < c.setupSql.size(); ++i) {
+					conn.executeUpdate(c.setupSql.get(i), c.setupParams.get(i));
+				}
+				return explainLines(conn, "EXPLAIN (ANALYZE, BUFFERS) " + sql, c.params);
+			} finally {
+				jdbc.rollback();
+				jdbc.setAutoCommit(true);
+			}
+		});
+	}
+
+	private static List<String> explainLines(PooledConnection conn, String sql, Object[] params) throws SQLException {
+		PreparedStatement stmt = conn.prepare(sql);
+		PooledConnection.bind(stmt, params);
+		List<String> lines = new ArrayList<String>();
+		ResultSet rs = stmt.executeQuery();
+		try {
+			while (rs.next()) lines.add(rs.getString(1));
+		} finally {
+			rs.close();
+		}
+		return lines;
+	}
+
+	private void loadTableRows() throws SQLException {
+		ColumnarResult tables = this._pool.withConnection(conn -> conn.executeQueryAndReturnColumns(
+			"SELECT CAST(relname AS TEXT), CAST(reltuples AS BIGINT) FROM pg_class WHERE relkind IN ('r', 'p') AND relnamespace = CAST('public' AS REGNAMESPACE);"));
+		for (int r = 0; r < tables.size(); ++r) {
+			this._tableRows.put(tables.getString(r, 0).toLowerCase(), tables.getLong(r, 1));
+		}
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 3) {
+			System.err.println("Usage: java [-classpath <classpath>] " + PlanCheck.class.getName() + " <dbname> <port> <user> [--budget-ms N] [--min-rows N]");
+			System.exit(2);
+		}
+		double budgetMs = 50;
+		long minRows = 10000;
+		List<String> rest = Arrays.asList(args).subList(3, args.length);
+		for (int i = 0; i + 1 < rest.size(); i += 2) {
+			if (rest.get(i).equals("--budget-ms")) budgetMs = Double.parseDouble(rest.get(i + 1));
+			else if (rest.get(i).equals("--min-rows")) minRows = Long.parseLong(rest.get(i + 1));
+		}
+		String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+		ConnectionPool pool = new ConnectionPool(url, args[2], "", 1, 64, 30000L);
+		int failures;
+		try {
+			PlanCheck check = new PlanCheck(pool, budgetMs, minRows);
+			failures = check.run(check.buildCases());
+		} catch (SQLException e) {
+			System.err.println(e.getMessage());
+			failures = 1;
+		} finally {
+			pool.close();
+		}
+		System.exit(failures == 0 ? 0 : 1);
+	}
+}
@@ -0,0 +1,452 @@
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class wraps one physical database connection handed out by the
+ * ConnectionPool. It keeps a bounded cache of PreparedStatements keyed by
+ * SQL text so that every statement is parsed and planned only once per
+ * connection, and binds typed parameters instead of formatting literals
+ * into the SQL string.
+ *
+ * A PooledConnection is used by one thread at a time.
+ */
+public class PooledConnection {
+	//reference to physical database connection
+	private final Connection _connection;
+	//prepared statements of this connection, least recently used first
+	private final LinkedHashMap<String, PreparedStatement> _statements;
+	//set once the connection failed in a way that makes it unusable
+	private boolean _broken = false;
+	//latencies, round trips and rows of every statement run
+	private final Metrics _metrics;
+
+	public PooledConnection(Connection connection, final int statementCacheSize, Metrics metrics) {
+		this._connection = connection;
+		this._metrics = metrics;
+		this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if (size() <= statementCacheSize) return false;
+				closeQuietly(eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Returns the underlying JDBC connection. Callers must not close it.
+	 */
+	public Connection getConnection() {
+		return this._connection;
+	}
+
+	/**
+	 * Method to fetch the cached PreparedStatement for the given SQL text,
+	 * preparing it on first use. The returned statement belongs to the
+	 * cache and must not be closed by the caller.
+	 *
+	 * @param sql the SQL text with '?' parameter markers
+	 * @return the prepared statement with its parameters cleared
+	 * @throws java.sql.SQLException when the statement cannot be prepared
+	 */
+	public PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement stmt = this._statements.get(sql);
+		if (stmt == null || stmt.isClosed()) {
+			stmt = this._connection.prepareStatement(sql);
+			this._statements.put(sql, stmt);
+		} else {
+			stmt.clearParameters();
+		}
+		return stmt;
+	}
+
+	/**
+	 * Method to record one execution of a statement that started at start.
+	 */
+	private void record(String sql, long start, long roundTrips, long rows, Throwable error) {
+		this._metrics.statement(sql, System.nanoTime() - start, roundTrips, rows, error);
+	}
+
+	/**
+	 * Method to bind the given parameters to a prepared statement in order.
+	 * Values are bound with their Java type, so Long maps to BIGINT,
+	 * Integer to INTEGER, Float to REAL and String to VARCHAR. A long[]
+	 * is bound as a BIGINT[] for use with '= ANY(?)'. A null value is bound
+	 * as SQL NULL.
+	 *
+	 * @param stmt the statement to bind
+	 * @param params the parameter values
+	 * @throws java.sql.SQLException when a parameter cannot be bound
+	 */
+	public static void bind(PreparedStatement stmt, Object... params) throws SQLException {
+		for (int i = 0; i < params.length; ++i) {
+			if (params[i] == null) {
+				stmt.setNull(i + 1, Types.NULL);
+			} else if (params[i] instanceof long[]) {
+				long[] values = (long[]) params[i];
+				Long[] boxed = new Long[values.length];
+				for (int j = 0; j < values.length; ++j) boxed[j] = values[j];
+				stmt.setArray(i + 1, stmt.getConnection().createArrayOf("bigint", boxed));
+			} else {
+				stmt.setObject(i + 1, params[i]);
+			}
+		}
+	}
+
+	/**
+	 * Method to execute an update SQL statement with parameters.
+	 *
+	 * @param sql the SQL text with '?' parameter markers
+	 * @param params the parameter values
+	 * @return the number of rows affected
+	 * @throws java.sql.SQLException when update failed
+	 */
+	public int executeUpdate(String sql, Object... params) throws SQLException {
+		long start = System.nanoTime();
+		try {
+			PreparedStatement stmt = prepare(sql);
+			bind(stmt, params);
+			int updated = stmt.executeUpdate();
+			record(sql, start, 1, updated, null);
+			return updated;
+		} catch (SQLException e) {
+			record(sql, start, 1, 0, e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Method to execute the same update statement once per parameter row
+	 * using JDBC batching. The batch is sent every batchSize rows, so a large
+	 * input costs one round trip per batch instead of one per row.
+	 *
+	 * @param sql the SQL text with '?' parameter markers
+	 * @param rows the parameter values of each row
+	 * @param batchSize the number of rows sent per round trip
+	 * @return the number of rows submitted
+	 * @throws java.sql.SQLException when update failed
+	 */
+	public int executeBatch(String sql, Iterable<Object[]> rows, int batchSize) throws SQLException {
+		long start = System.nanoTime();
+		PreparedStatement stmt = prepare(sql);
+		int pending = 0;
+		int submitted = 0;
+		int batches = 0;
+		try {
+			for (Object[] row : rows) {
+				bind(stmt, row);
+				stmt.addBatch();
+				++submitted;
+				if (++pending >= batchSize) {
+					++batches;
+					stmt.executeBatch();
+					pending = 0;
+				}
+			}
+			if (pending > 0) {
+				++batches;
+				stmt.executeBatch();
+			}
+		} catch (SQLException e) {
+			stmt.clearBatch();
+			record(sql, start, batches, 0, e);
+			throw e;
+		}
+		record(sql, start, batches, submitted, null);
+		return submitted;
+	}
+
+	/**
+	 * Method to execute a query with parameters and output the results to
+	 * standard out as an aligned table, rendered and written a batch of
+	 * rows at a time.
+	 *
+	 * @param sql the SQL text with '?' parameter markers
+	 * @param params the parameter values
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQueryAndPrintResult(String sql, Object... params) throws SQLException {
+		long start = System.nanoTime();
+		int rowCount = 0;
+		SQLException failure = null;
+		try {
+			PreparedStatement stmt = prepare(sql);
+			bind(stmt, params);
+			ResultSet rs = stmt.executeQuery();
+			try (ResultWriter out = ResultWriter.console()) {
+				out.columns(rs.getMetaData());
+
+				//iterates through the result set and output them to standard out.
+				while (rs.next()) {
+					out.row(rs);
+					++rowCount;
+				}//end while
+			} catch (IOException e) {
+				throw new SQLException("Cannot print results: " + e.getMessage());
+			} finally {
+				rs.close();
+			}
+			return rowCount;
+		} catch (SQLException e) {
+			failure = e;
+			throw e;
+		} finally {
+			record(sql, start, 1, rowCount, failure);
+		}
+	}
+
+	/**
+	 * Method to execute a query with parameters and return the results as a
+	 * list of records. Each record in turn is a list of attribute values.
+	 *
+	 * @param sql the SQL text with '?' parameter markers
+	 * @param params the parameter values
+	 * @return the query result as a list of records
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public List<List<String>> executeQueryAndReturnResult(String sql, Object... params) throws SQLException {
+		long start = System.nanoTime();
+		List<List<String>> result = new ArrayList<List<String>>();
+		SQLException failure = null;
+		try {
+			PreparedStatement stmt = prepare(sql);
+			bind(stmt, params);
+			ResultSet rs = stmt.executeQuery();
+			try {
+				int numCol = rs.getMetaData().getColumnCount();
+				while (rs.next()) {
+					List<String> record = new ArrayList<String>(numCol);
+					for (int i = 1; i <= numCol; ++i)
+						record.add(rs.getString(i));
+					result.add(record);
+				}//end while
+				return result;
+			} finally {
+				rs.close();
+			}
+		} catch (SQLException e) {
+			failure = e;
+			throw e;
+		} finally {
+			record(sql, start, 1, result.size(), failure);
+		}
+	}
+
+	/**
+	 * Method to execute a query with parameters and return the results in
+	 * typed column buffers, see ColumnarResult.
+	 *
+	 * @param sql the SQL text with '?' parameter markers
+	 * @param params the parameter values
+	 * @return the query result stored column by column
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public ColumnarResult executeQueryAndReturnColumns(String sql, Object... params) throws SQLException {
+		long start = System.nanoTime();
+		ColumnarResult result = null;
+		SQLException failure = null;
+		try {
+			PreparedStatement stmt = prepare(sql);
+			bind(stmt, params);
+			ResultSet rs = stmt.executeQuery();
+			try {
+				result = ColumnarResult.read(rs);
+				return result;
+			} finally {
+				rs.close();
+			}
+		} catch (SQLException e) {
+			failure = e;
+			throw e;
+		} finally {
+			record(sql, start, 1, result == null ? 0 : result.size(), failure);
+		}
+	}
+
+	/**
+	 * Method to execute a query with parameters and return the first column
+	 * of its first row as a long, e.g. an id lookup or INSERT ... RETURNING.
+	 *
+	 * @param sql the SQL text with '?' parameter markers
+	 * @param params the parameter values
+	 * @return the value of the first column of the first row
+	 * @throws java.sql.SQLException when failed to execute the query or it returned no row
+	 */
+	public long executeQueryForLong(String sql, Object... params) throws SQLException {
+		long start = System.nanoTime();
+		SQLException failure = null;
+		try {
+			PreparedStatement stmt = prepare(sql);
+			bind(stmt, params);
+			ResultSet rs = stmt.executeQuery();
+			try {
+				if (!rs.next()) throw new SQLException("No matching row found", "02000");
+				return rs.getLong(1);
+			} finally {
+				rs.close();
+			}
+		} catch (SQLException e) {
+			failure = e;
+			throw e;
+		} finally {
+			record(sql, start, 1, failure == null ? 1 : 0, failure);
+		}
+	}
+
+	/**
+	 * Method to execute a query with parameters and return the number of
+	 * results. The count is computed by the server, see executeCount.
+	 *
+	 * @param sql the SQL text with '?' parameter markers
+	 * @param params the parameter values
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQuery(String sql, Object... params) throws SQLException {
+		return (int) executeCount(sql, params);
+	}
+
+	/**
+	 * Method to count the rows of a query on the server by wrapping it in
+	 * SELECT COUNT(*), so no rows are sent over the wire.
+	 *
+	 * @param sql the SQL text of a SELECT with '?' parameter markers
+	 * @param params the parameter values
+	 * @return the number of rows the query returns
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public long executeCount(String sql, Object... params) throws SQLException {
+		long start = System.nanoTime();
+		SQLException failure = null;
+		String query = sql.trim();
+		if (query.endsWith(";")) query = query.substring(0, query.length() - 1);
+		try {
+			PreparedStatement stmt = prepare("SELECT COUNT(*) FROM (" + query + ") AS counted;");
+			bind(stmt, params);
+			ResultSet rs = stmt.executeQuery();
+			try {
+				rs.next();
+				return rs.getLong(1);
+			} finally {
+				rs.close();
+			}
+		} catch (SQLException e) {
+			failure = e;
+			throw e;
+		} finally {
+			// recorded under the name of the counted query
+			record(sql, start, 1, failure == null ? 1 : 0, failure);
+		}
+	}
+
+	/**
+	 * Method to stream the results of a query to a handler through a
+	 * server-side cursor. Only fetchSize rows are held in memory at a time.
+	 * The cursor needs a transaction, so when the connection is in
+	 * autocommit mode one is opened for the duration of the query and
+	 * committed afterwards. Other statements may run on this connection
+	 * from inside the handler.
+	 *
+	 * @param sql the SQL text with '?' parameter markers
+	 * @param fetchSize the number of rows fetched per round trip
+	 * @param handler receives every row
+	 * @param params the parameter values
+	 * @return the number of rows streamed
+	 * @throws java.sql.SQLException when failed to execute the query or the handler failed
+	 */
+	public long streamQuery(String sql, int fetchSize, RowHandler handler, Object... params) throws SQLException {
+		long start = System.nanoTime();
+		long streamed = 0;
+		Throwable failure = null;
+		boolean autoCommit = this._connection.getAutoCommit();
+		if (autoCommit) this._connection.setAutoCommit(false);
+		boolean done = false;
+		try {
+			PreparedStatement stmt = prepare(sql);
+			bind(stmt, params);
+			stmt.setFetchSize(fetchSize);
+			long rowCount = 0;
+			ResultSet rs = stmt.executeQuery();
+			try {
+				handler.columns(rs.getMetaData());
+				while (rs.next()) {
+					handler.row(rs);
+					++rowCount;
+				}//end while
+			} finally {
+				rs.close();
+				stmt.setFetchSize(0);
+				streamed = rowCount;
+			}
+			if (autoCommit) this._connection.commit();
+			done = true;
+			return rowCount;
+		} catch (SQLException | RuntimeException e) {
+			// a handler that throws fails the execution as much as the database does
+			failure = e;
+			throw e;
+		} finally {
+			// one round trip per fetch, plus the commit of its own transaction; 0 is the driver's default fetch size
+			record(sql, start, 1 + (fetchSize > 0 ? streamed / fetchSize : 0) + (autoCommit ? 1 : 0), streamed, failure);
+			if (autoCommit) {
+				if (!done) this._connection.rollback();
+				this._connection.setAutoCommit(true);
+			}
+		}
+	}
+
+	/**
+	 * Records the given exception against this connection. Connection-level
+	 * failures (SQLState class 08) mark the connection as broken so that the
+	 * pool discards it instead of handing it out again.
+	 */
+	void failed(SQLException e) {
+		String state = e.getSQLState();
+		if (state != null && state.startsWith("08")) {
+			this._broken = true;
+		}
+	}
+
+	boolean isBroken() {
+		try {
+			return this._broken || this._connection.isClosed();
+		} catch (SQLException e) {
+			return true;
+		}
+	}
+
+	/**
+	 * Method to close all cached statements and the physical connection.
+	 */
+	void close() {
+		Iterator<PreparedStatement> it = this._statements.values().iterator();
+		while (it.hasNext()) {
+			closeQuietly(it.next());
+			it.remove();
+		}
+		try {
+			this._connection.close();
+		} catch (SQLException e) {
+			// ignored.
+		}
+	}
+
+	private static void closeQuietly(PreparedStatement stmt) {
+		try {
+			stmt.close();
+		} catch (SQLException e) {
+			// ignored.
+		}
+	}
+}
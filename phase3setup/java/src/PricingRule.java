@@ -0,0 +1,45 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * This interface decides the price of a seat when the ShowSeats of a new
+ * showing are generated. Rules are called once per seat and must be safe to
+ * call from several threads.
+ */
+public interface PricingRule {
+	/**
+	 * @param sid the show the seat is generated for
+	 * @param csid the cinema seat
+	 * @param sno the seat number within the theater
+	 * @param stype the seat type, e.g. Regular
+	 * @return the price of the seat for this show
+	 */
+	float price(long sid, long csid, int sno, String stype);
+
+	/**
+	 * A whole-dollar price picked uniformly from min to max inclusive. This
+	 * is the rule the console menu has always used (6 to 12).
+	 */
+	static PricingRule randomBetween(final int min, final int max) {
+		return (sid, csid, sno, stype) -> ThreadLocalRandom.current().nextInt(max - min + 1) + min;
+	}
+
+	/**
+	 * The same price for every seat.
+	 */
+	static PricingRule flat(final float price) {
+		return (sid, csid, sno, stype) -> price;
+	}
+
+	/**
+	 * A price per seat type, falling back to another rule for unknown types.
+	 */
+	static PricingRule byType(Map<String, Float> prices, final PricingRule fallback) {
+		final Map<String, Float> copy = new HashMap<String, Float>(prices);
+		return (sid, csid, sno, stype) -> {
+			Float price = copy.get(stype);
+			return price != null ? price : fallback.price(sid, csid, sno, stype);
+		};
+	}
+}
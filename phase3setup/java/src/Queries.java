@@ -0,0 +1,186 @@
+/**
+ * This class holds the SQL text of every statement the Ticketmaster
+ * operations run, grouped by menu operation. Keeping the text in one place
+ * lets PlanCheck explain exactly the statements the menus execute, and keeps
+ * each string identical across calls so the per-connection statement cache
+ * finds it.
+ */
+public final class Queries {
+	private Queries() {
+	}
+
+	// Seat reservation; the hold parameter of RESERVE_SEATS is how long a Pending booking holds its seats in ms, NULL for no
+	// expiry, which is stored as hold_until = 'infinity'.
+	// The show's date (migration 007) is read once from Shows and filters every ShowSeats access, so with sql/partition.sql
+	// they only touch the partition of that month; the booking is inserted with it. One row per seat claimed
+	static final String RESERVE_SEATS =
+		"WITH d AS (SELECT sdate FROM Shows WHERE sid = ?), " +
+		"f AS (SELECT ssid FROM ShowSeats WHERE ssid = ANY(?) AND sid = ? AND sdate = (SELECT sdate FROM d) AND bid IS NULL FOR UPDATE SKIP LOCKED), " +
+		"b AS (INSERT INTO Bookings (bid, status, bdatetime, seats, sid, email, hold_until, sdate) VALUES (?, ?, CAST(? AS TIMESTAMPTZ), ?, ?, ?, COALESCE(now() + CAST(? AS BIGINT) * INTERVAL '1 millisecond', CAST('infinity' AS TIMESTAMPTZ)), (SELECT sdate FROM d)) RETURNING bid), " +
+		"s AS (UPDATE ShowSeats SET bid = (SELECT bid FROM b) WHERE ssid IN (SELECT ssid FROM f) AND sdate = (SELECT sdate FROM d) RETURNING ssid) " +
+		"SELECT ssid FROM s;";
+	static final String FREE_SEATS_BY_NUMBER = "SELECT SS.ssid, CS.sno FROM ShowSeats SS, CinemaSeats CS WHERE SS.csid = CS.csid AND SS.sid = ? AND SS.sdate = (SELECT sdate FROM Shows WHERE sid = ?) AND SS.bid IS NULL ORDER BY CS.sno;";
+	static final String CHANGE_SEAT =
+		"WITH o AS (SELECT sid, price FROM ShowSeats WHERE ssid = ? AND bid = ? FOR UPDATE), " +
+		"n AS (UPDATE ShowSeats SET bid = ? WHERE ssid = (SELECT ssid FROM ShowSeats WHERE ssid = ? AND bid IS NULL FOR UPDATE SKIP LOCKED) AND sid = (SELECT sid FROM o) AND price = (SELECT price FROM o) RETURNING ssid) " +
+		"UPDATE ShowSeats SET bid = NULL WHERE ssid = ? AND bid = ? AND EXISTS (SELECT 1 FROM n) RETURNING sid, (SELECT email FROM Bookings WHERE bid = ?);";
+	static final String SHOW_SEATS_BY_ID = "SELECT ssid, sid, csid, bid, price FROM ShowSeats WHERE ssid = ANY(?);";
+
+	// Seat availability
+	static final String SEAT_MAP_OF_SHOW = "SELECT ssid, price, bid FROM ShowSeats WHERE sid = ? AND sdate = (SELECT sdate FROM Shows WHERE sid = ?) ORDER BY ssid;";
+
+	// Id blocks of IdAllocator
+	static final String NEXT_IDS = "SELECT nextval(CAST(? AS REGCLASS)) FROM generate_series(1, ?);";
+
+	// Show generation
+	static final String INSERT_SHOW = "INSERT INTO Shows (sid, mvid, sdate, sttime, edtime) VALUES (?, ?, CAST(? AS DATE), CAST(? AS TIME), CAST(? AS TIME));";
+	static final String INSERT_PLAY = "INSERT INTO Plays (sid, tid) VALUES (?, ?);";
+	static final String CINEMA_SEATS_OF_THEATER = "SELECT csid, sno, stype FROM CinemaSeats WHERE tid = ? ORDER BY sno;";
+	static final String INSERT_SHOW_SEAT = "INSERT INTO ShowSeats (ssid, sid, csid, price, sdate) VALUES (?, ?, ?, ?, CAST(? AS DATE));";
+
+	// 1. Add User
+	static final String INSERT_USER = "INSERT INTO Users (email, lname, fname, phone, pwd) VALUES (?, ?, ?, ?, ?);";
+
+	// Bulk user import, one chunk at a time through a session-local staging table
+	static final String CREATE_USER_STAGING = "CREATE TEMP TABLE IF NOT EXISTS UserImport (LIKE Users) ON COMMIT DELETE ROWS;";
+	static final String COPY_USER_STAGING = "COPY UserImport (email, lname, fname, phone, pwd) FROM STDIN WITH (FORMAT csv)";
+	static final String INSERT_USERS_FROM_STAGING = "INSERT INTO Users (email, lname, fname, phone, pwd) SELECT email, lname, fname, phone, pwd FROM UserImport ON CONFLICT (email) DO NOTHING RETURNING email;";
+	static final String INSERT_USER_IF_NEW = "INSERT INTO Users (email, lname, fname, phone, pwd) VALUES (?, ?, ?, ?, ?) ON CONFLICT (email) DO NOTHING;";
+
+	// 2. Add Booking
+	static final String MOVIE_ID_BY_TITLE = "SELECT mvid FROM Movies WHERE title = ?;";
+	static final String UPCOMING_SHOWS_OF_MOVIE = "SELECT S.sid, S.sdate, S.sttime, S.edtime, T.tname, T.tseats FROM Shows S, Theaters T, Plays P WHERE S.sid = P.sid AND T.tid = P.tid AND S.mvid = ? AND (S.sdate > CAST(? AS DATE) OR (S.sdate = CAST(? AS DATE) AND S.edtime > CAST(? AS TIME)));";
+	static final String AVAILABLE_SEATS = "SELECT ssid, price FROM ShowSeats WHERE sid = ? AND bid IS NULL;";
+
+	// 3. Add Movie Showing for an Existing Theater
+	static final String INSERT_MOVIE = "INSERT INTO Movies (mvid, title, rdate, country, description, duration, lang, genre) VALUES (?, ?, CAST(? AS DATE), ?, ?, ?, ?, ?);";
+	static final String CINEMAS_IN_CITY = "SELECT C2.cid, C2.cname, C2.tnum FROM Cities C1, Cinemas C2 WHERE C1.city_id = C2.city_id AND C1.city_name = ?;";
+	static final String THEATERS_OF_CINEMA = "SELECT tid, tname, tseats FROM Theaters WHERE cid = ?;";
+
+	// 4. Cancel Pending Bookings
+	// Cancels the bookings and releases their seats in one statement; one row per released seat (bid, sid, ssid, email),
+	// or (bid, NULL, NULL, email) for a booking without seats
+	static final String CANCEL_PENDING_BOOKINGS =
+		"WITH c AS (UPDATE Bookings SET status = 'Cancelled' WHERE status = 'Pending' RETURNING bid, email), " +
+		"s AS (UPDATE ShowSeats SS SET bid = NULL FROM c WHERE SS.bid = c.bid RETURNING c.bid, SS.sid, SS.ssid) " +
+		"SELECT c.bid, s.sid, s.ssid, c.email FROM c LEFT JOIN s ON s.bid = c.bid;";
+
+	// Seat holds (migration 006): the ms every Pending booking's hold has left by the database's clock, negative when
+	// it ran out. Holds of 'infinity' never run out and are skipped; only rows without hold_until, from before the
+	// migration or loaded from CSV, fall back to bdatetime plus the default hold
+	static final String PENDING_HOLDS = "SELECT bid, CAST(EXTRACT(EPOCH FROM COALESCE(hold_until, bdatetime + CAST(? AS BIGINT) * INTERVAL '1 millisecond') - now()) * 1000 AS BIGINT) FROM Bookings WHERE status = 'Pending' AND hold_until IS DISTINCT FROM CAST('infinity' AS TIMESTAMPTZ);";
+	// Like CANCEL_PENDING_BOOKINGS for a batch of bids; bookings paid or cancelled meanwhile are left alone
+	static final String EXPIRE_HOLDS =
+		"WITH c AS (UPDATE Bookings SET status = 'Cancelled' WHERE bid = ANY(?) AND status = 'Pending' RETURNING bid, email), " +
+		"s AS (UPDATE ShowSeats SS SET bid = NULL FROM c WHERE SS.bid = c.bid RETURNING c.bid, SS.sid, SS.ssid) " +
+		"SELECT c.bid, s.sid, s.ssid, c.email FROM c LEFT JOIN s ON s.bid = c.bid;";
+
+	// 6. Remove a Payment
+	static final String BOOKING_OF_PAYMENT = "SELECT bid FROM Payments WHERE pid = ?;";
+	static final String RELEASE_SEATS_OF_BOOKING = "UPDATE ShowSeats SET bid = NULL WHERE bid = ? RETURNING sid, ssid;";
+	static final String CANCEL_BOOKING = "UPDATE Bookings SET status = 'Cancelled' WHERE bid = ? RETURNING email;";
+	static final String DELETE_PAYMENT = "DELETE FROM Payments WHERE pid = ?;";
+
+	// 7. Clear Cancelled Bookings, one chunk of bids at a time; payments are deleted first since they
+	// do not cascade once Bookings is partitioned (sql/partition.sql)
+	static final String CANCELLED_BOOKINGS_AFTER = "SELECT bid FROM Bookings WHERE status = 'Cancelled' AND bid > ? ORDER BY bid LIMIT ? FOR UPDATE;";
+	static final String RELEASE_SEATS_OF_BOOKINGS = "UPDATE ShowSeats SET bid = NULL WHERE bid = ANY(?);";
+	static final String DELETE_PAYMENTS_OF_BOOKINGS = "DELETE FROM Payments WHERE bid = ANY(?);";
+	static final String DELETE_CANCELLED_BOOKINGS = "DELETE FROM Bookings WHERE bid = ANY(?) AND status = 'Cancelled';";
+
+	// 8. Remove Shows on a Given Date, one chunk of sids at a time; Bookings cascade, Payments are deleted first. The
+	// show date after the sids prunes the monthly partitions of sql/partition.sql
+	static final String SHOWS_OF_CINEMA_ON_DATE_AFTER = "SELECT S.sid FROM Shows S WHERE S.sdate = CAST(? AS DATE) AND EXISTS (SELECT 1 FROM Plays P, Theaters T, Cinemas C WHERE P.sid = S.sid AND P.tid = T.tid AND T.cid = C.cid AND C.cname = ?) AND S.sid > ? ORDER BY S.sid LIMIT ? FOR UPDATE;";
+	static final String DELETE_SEATS_OF_SHOWS = "DELETE FROM ShowSeats WHERE sid = ANY(?) AND sdate = CAST(? AS DATE);";
+	static final String DELETE_PLAYS_OF_SHOWS = "DELETE FROM Plays WHERE sid = ANY(?);";
+	static final String DELETE_PAYMENTS_OF_SHOWS = "DELETE FROM Payments WHERE bid IN (SELECT bid FROM Bookings WHERE sid = ANY(?) AND sdate = CAST(? AS DATE));";
+	static final String DELETE_SHOWS = "DELETE FROM Shows WHERE sid = ANY(?) AND sdate = CAST(? AS DATE);";
+
+	// Read routing: WAL positions in bytes of the primary and of what a replica has replayed; a server that is not
+	// a replica reports its own position
+	static final String PRIMARY_WAL_POSITION = "SELECT CAST(pg_current_wal_lsn() - CAST('0/0' AS pg_lsn) AS BIGINT);";
+	static final String REPLICA_REPLAY_POSITION = "SELECT CAST(COALESCE(pg_last_wal_replay_lsn(), pg_current_wal_lsn()) - CAST('0/0' AS pg_lsn) AS BIGINT);";
+
+	// Monthly show partitions (sql/partition.sql): create the months of a date range, retire the months before a date
+	static final String CREATE_SHOW_PARTITIONS = "SELECT create_show_partitions(CURRENT_DATE, CAST(CURRENT_DATE + CAST(? AS INTEGER) * INTERVAL '1 month' AS DATE));";
+	static final String RETIRE_SHOW_PARTITIONS = "SELECT retire_show_partitions(CAST(? AS DATE), ?);";
+	static final String PARTITIONED_TABLES = "SELECT CAST(partrelid AS regclass) FROM pg_partitioned_table WHERE partrelid = ANY(CAST(string_to_array(?, ',') AS regclass[]));";
+
+	// Show schedule read model (migration 005), written with the Shows and Plays rows it copies
+	private static final String SCHEDULE_ROWS =
+		"INSERT INTO ShowSchedule (sid, tid, mvid, title, duration, sdate, sttime, edtime, tname, tseats, cid, cname, city_name) " +
+		"SELECT S.sid, T.tid, M.mvid, M.title, M.duration, S.sdate, S.sttime, S.edtime, T.tname, T.tseats, C2.cid, C2.cname, C1.city_name " +
+		"FROM Shows S, Movies M, Plays P, Theaters T, Cinemas C2, Cities C1 " +
+		"WHERE S.mvid = M.mvid AND S.sid = P.sid AND P.tid = T.tid AND T.cid = C2.cid AND C2.city_id = C1.city_id";
+	static final String INSERT_SCHEDULE_OF_SHOWS = SCHEDULE_ROWS + " AND S.sid = ANY(?) ON CONFLICT DO NOTHING;";
+	static final String DELETE_SCHEDULE_OF_SHOWS = "DELETE FROM ShowSchedule WHERE sid = ANY(?);";
+	static final String DELETE_SCHEDULE = "DELETE FROM ShowSchedule;";
+	static final String REBUILD_SCHEDULE = SCHEDULE_ROWS + ";";
+	static final String SCHEDULE_OF_CINEMA = "SELECT sdate, sttime, edtime, title, duration, tname, sid FROM ShowSchedule WHERE cname = ? AND sdate >= CAST(? AS DATE) AND sdate <= CAST(? AS DATE) ORDER BY sdate, sttime, tname;";
+
+	// Maintenance job progress
+	static final String START_MAINTENANCE_RUN =
+		"INSERT INTO MaintenanceRuns AS R (job, args, status) VALUES (?, ?, 'Running') " +
+		"ON CONFLICT (job, args) DO UPDATE SET status = 'Running', message = NULL, updated = now(), " +
+		"last_key = CASE WHEN R.status = 'Done' THEN 0 ELSE R.last_key END, " +
+		"processed = CASE WHEN R.status = 'Done' THEN 0 ELSE R.processed END, " +
+		"chunks = CASE WHEN R.status = 'Done' THEN 0 ELSE R.chunks END, " +
+		"started = CASE WHEN R.status = 'Done' THEN now() ELSE R.started END " +
+		"RETURNING last_key, processed, chunks;";
+	static final String RECORD_MAINTENANCE_CHUNK = "UPDATE MaintenanceRuns SET last_key = ?, processed = processed + ?, chunks = chunks + 1, updated = now() WHERE job = ? AND args = ?;";
+	static final String FINISH_MAINTENANCE_RUN = "UPDATE MaintenanceRuns SET status = ?, message = ?, updated = now() WHERE job = ? AND args = ?;";
+	static final String MAINTENANCE_RUNS = "SELECT job, args, status, processed, chunks, last_key, started, updated, message FROM MaintenanceRuns ORDER BY updated DESC;";
+
+	// Bulk load
+	static final String LOAD_SESSION = "SELECT set_config('DateStyle', 'ISO, MDY', false), set_config('synchronous_commit', 'off', false), set_config('maintenance_work_mem', ?, false);";
+	static final String CONSTRAINTS_OF_TABLES = "SELECT CAST(conrelid AS regclass), conname, contype, pg_get_constraintdef(oid), CAST(confrelid AS regclass) FROM pg_constraint WHERE conrelid = ANY(CAST(string_to_array(?, ',') AS regclass[])) AND contype IN ('p', 'u', 'f', 'c', 'x') ORDER BY conname;";
+	static final String INDEXES_OF_TABLES =
+		"SELECT CAST(i.indrelid AS regclass), CAST(i.indexrelid AS regclass), pg_get_indexdef(i.indexrelid) FROM pg_index i " +
+		"WHERE i.indrelid = ANY(CAST(string_to_array(?, ',') AS regclass[])) AND NOT EXISTS (SELECT 1 FROM pg_constraint k WHERE k.conindid = i.indexrelid AND k.contype <> 'f') ORDER BY 2;";
+	static final String RESET_SEQUENCES =
+		"SELECT setval('Booking_Seq', GREATEST((SELECT MAX(bid) FROM Bookings), 500)), setval('Movie_Seq', GREATEST((SELECT MAX(mvid) FROM Movies), 53)), " +
+		"setval('Show_Seq', GREATEST((SELECT MAX(sid) FROM Shows), 200)), setval('ShowSeat_Seq', GREATEST((SELECT MAX(ssid) FROM ShowSeats), 1200));";
+
+	// 9. List all Theaters in a Cinema Playing a Given Show
+	static final String SHOWS_ON_DATE = "SELECT * FROM Shows WHERE sdate = CAST(? AS DATE);";
+	static final String THEATERS_PLAYING_SHOW = "SELECT city_name, cname, tname, tseats FROM ShowSchedule WHERE sid = ?;";
+
+	// 10. List all Shows that Start at a Given Time and Date; a show not yet playing in any theater has no ShowSchedule row
+	// and is listed once with a NULL cinema and theater
+	static final String SHOWS_ON_DATE_AT_TIME =
+		"SELECT sid, mvid, sdate, sttime, edtime, title, cname, tname FROM ShowSchedule WHERE sdate = CAST(? AS DATE) AND sttime = CAST(? AS TIME) " +
+		"UNION ALL SELECT S.sid, S.mvid, S.sdate, S.sttime, S.edtime, M.title, CAST(NULL AS VARCHAR), CAST(NULL AS VARCHAR) FROM Shows S, Movies M " +
+		"WHERE S.mvid = M.mvid AND S.sdate = CAST(? AS DATE) AND S.sttime = CAST(? AS TIME) AND NOT EXISTS (SELECT 1 FROM Plays P WHERE P.sid = S.sid) " +
+		"ORDER BY cname, tname;";
+
+	// 11. Search Movies by keywords, release date range, genre and language
+	// Parameters: keywords, keywords, title pattern, keywords, from, to, genre, genre, lang, lang, limit, offset.
+	// The text search expression is the one indexed by migration 004.
+	static final String MOVIE_SEARCH =
+		"SELECT mvid, title, rdate, genre, lang, duration, " +
+		"round(CAST(similarity(title, ?) + ts_rank(to_tsvector('simple', title || ' ' || coalesce(description, '')), plainto_tsquery('simple', ?)) AS NUMERIC), 3) AS relevance " +
+		"FROM Movies WHERE (title ILIKE ? OR to_tsvector('simple', title || ' ' || coalesce(description, '')) @@ plainto_tsquery('simple', ?)) " +
+		"AND rdate BETWEEN COALESCE(CAST(? AS DATE), CAST('-infinity' AS DATE)) AND COALESCE(CAST(? AS DATE), CAST('infinity' AS DATE)) " +
+		"AND (CAST(? AS VARCHAR) IS NULL OR genre = CAST(? AS VARCHAR)) AND (CAST(? AS CHAR(2)) IS NULL OR lang = CAST(? AS CHAR(2))) " +
+		"ORDER BY relevance DESC, mvid LIMIT ? OFFSET ?;";
+
+	// 12. List Users with a Pending Booking
+	static final String USERS_WITH_PENDING_BOOKING = "SELECT U.fname, U.lname, U.email FROM Users U, Bookings B WHERE B.status = 'Pending' AND B.email = U.email;";
+
+	// 13. List Shows Playing a Given Movie at a Given Cinema During a Date Range
+	static final String SHOWS_OF_MOVIE_AT_CINEMA_IN_RANGE = "SELECT cname, title, duration, sdate, sttime FROM ShowSchedule WHERE mvid = ? AND sdate >= CAST(? AS DATE) AND sdate <= CAST(? AS DATE) AND cname = ? ORDER BY sdate, sttime;";
+
+	// 14. Booking History of a Given User, a page of bookings at a time, newest first, one row per booked seat.
+	// Parameters: email, from date, to date, status, status, cursor bdatetime, cursor bid, bookings per page.
+	// Pages are read by keyset from Bookings_email_idx; cancelled bookings have no seats left and show one row.
+	static final String BOOKING_HISTORY =
+		"SELECT B.bid, B.bdatetime, B.status, M.title, S.sdate, S.sttime, T.tname, C.sno, SS.price " +
+		"FROM (SELECT bid, bdatetime, status, sid FROM Bookings WHERE email = ? " +
+		"AND bdatetime >= COALESCE(CAST(? AS DATE), CAST('-infinity' AS DATE)) AND bdatetime < COALESCE(CAST(? AS DATE) + 1, CAST('infinity' AS DATE)) " +
+		"AND (CAST(? AS VARCHAR) IS NULL OR status = CAST(? AS VARCHAR)) " +
+		"AND (bdatetime, bid) < (COALESCE(CAST(? AS TIMESTAMPTZ), CAST('infinity' AS TIMESTAMPTZ)), COALESCE(CAST(? AS BIGINT), 9223372036854775807)) " +
+		"ORDER BY bdatetime DESC, bid DESC LIMIT ?) B " +
+		"JOIN Shows S ON S.sid = B.sid JOIN Movies M ON M.mvid = S.mvid " +
+		"LEFT JOIN ShowSeats SS ON SS.bid = B.bid AND SS.sid = B.sid LEFT JOIN CinemaSeats C ON C.csid = SS.csid LEFT JOIN Theaters T ON T.tid = C.tid " +
+		"ORDER BY B.bdatetime DESC, B.bid DESC, C.sno;";
+}
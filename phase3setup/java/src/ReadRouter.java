@@ -0,0 +1,243 @@
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class sends read-only work to a streaming replica of the database
+ * and everything else to the primary, so browsing can be scaled out while
+ * the primary keeps the seat writes. Without a replica every read runs on
+ * the primary.
+ *
+ * A background thread samples the primary's WAL position and the position
+ * the replica has replayed every poll interval. From these it knows the
+ * newest moment of the primary the replica is known to have caught up to;
+ * the replica's lag is how long ago that was. Reads go to the primary
+ * while the lag is above the limit, while the replica cannot be reached,
+ * and for a user whose own write (a booking, a change to one or a new
+ * account) may not have been replayed yet, so users always see their own
+ * bookings.
+ *
+ * A replica that fails to hand out a connection, or whose connection drops
+ * (SQLState class 08) or cancels a read in a recovery conflict (40001),
+ * is marked down until the next poll measures it successfully, and the
+ * read is run again on the primary. Only buffered reads are run again:
+ * a streamed read may already have passed rows to its handler when the
+ * replica fails, so its error reaches the caller.
+ */
+public class ReadRouter implements AutoCloseable {
+	//primary WAL positions kept while the replica has not replayed them
+	private static final int MAX_SAMPLES = 1000;
+
+	private final ConnectionPool _primary;
+	private final ConnectionPool _replica;
+	private final long _maxLagMs;
+	private final long _pollMs;
+	//user -> when their last write committed, while the replica may not have it
+	private final ConcurrentHashMap<String, Long> _writes = new ConcurrentHashMap<String, Long>();
+	//{time, primary WAL position} not yet replayed, oldest first; poller thread only
+	private final ArrayDeque<long[]> _samples = new ArrayDeque<long[]>();
+	private final LongAdder _replicaReads = new LongAdder();
+	private final LongAdder _primaryReads = new LongAdder();
+	private final LongAdder _fallbacks = new LongAdder();
+	//the newest time the replica has replayed everything committed before, 0 while unknown
+	private volatile long _caughtUpTo = 0;
+	//set when the replica fails, cleared by the next poll that measures it without a failure meanwhile
+	private volatile boolean _replicaDown = false;
+	private volatile boolean _running = false;
+	private Thread _poller;
+
+	/**
+	 * @param primary the connections writes and fallback reads run on
+	 * @param replica the connections of a read replica, or null for none
+	 * @param maxLagMs the most a replica may lag behind before reads move to the primary
+	 * @param pollMs how often the replica's lag is measured
+	 */
+	public ReadRouter(ConnectionPool primary, ConnectionPool replica, long maxLagMs, long pollMs) {
+		this._primary = primary;
+		this._replica = replica;
+		this._maxLagMs = maxLagMs;
+		this._pollMs = Math.max(1L, pollMs);
+	}
+
+	public boolean hasReplica() {
+		return this._replica != null;
+	}
+
+	/**
+	 * @return how far the replica is known to lag behind the primary in ms, 0 without a replica
+	 */
+	public long getLagMs() {
+		return this._replica == null ? 0 : System.currentTimeMillis() - this._caughtUpTo;
+	}
+
+	/**
+	 * Method to record that a user's write committed on the primary, so the
+	 * user's reads stay on the primary until the replica has replayed it.
+	 */
+	public void wrote(String user) {
+		if (this._replica != null && user != null) this._writes.put(user, System.currentTimeMillis());
+	}
+
+	/**
+	 * @param user the user the read is for, or null when it is not about one user
+	 * @return whether a read would go to the replica now
+	 */
+	public boolean routesToReplica(String user) {
+		if (this._replica == null || !this._running || this._replicaDown) return false;
+		long caughtUpTo = this._caughtUpTo;
+		if (System.currentTimeMillis() - caughtUpTo > this._maxLagMs) return false;
+		if (user == null) return true;
+		Long wrote = this._writes.get(user);
+		return wrote == null || wrote < caughtUpTo;
+	}
+
+	/**
+	 * Method to run read-only work that buffers its result on the replica
+	 * when it is current enough for the user, and on the primary otherwise.
+	 * When the replica fails the work is run again on the primary.
+	 *
+	 * @param user the user the read is for, or null when it is not about one user
+	 */
+	public <T> T read(String user, ConnectionPool.Work<T> work) throws SQLException {
+		return route(user, work, true);
+	}
+
+	/**
+	 * Method to run read-only work that streams rows to a handler, routed
+	 * like read. It is only moved to the primary when the replica cannot
+	 * hand out a connection; a failure after that reaches the caller.
+	 *
+	 * @param user the user the read is for, or null when it is not about one user
+	 */
+	public <T> T stream(String user, ConnectionPool.Work<T> work) throws SQLException {
+		return route(user, work, false);
+	}
+
+	private <T> T route(String user, ConnectionPool.Work<T> work, boolean retry) throws SQLException {
+		if (routesToReplica(user)) {
+			PooledConnection conn = null;
+			try {
+				conn = this._replica.borrow();
+			} catch (SQLException e) {
+				// the work has not started, so it can run on the primary instead
+				down();
+			}
+			if (conn != null) {
+				this._replicaReads.increment();
+				try {
+					return work.run(conn);
+				} catch (SQLException e) {
+					conn.failed(e);
+					if (!retry || !unavailable(e)) throw e;
+					down();
+				} finally {
+					this._replica.release(conn);
+				}
+			}
+		}
+		this._primaryReads.increment();
+		return this._primary.withConnection(work);
+	}
+
+	/**
+	 * @return whether the error means the replica cannot serve reads now:
+	 * a lost connection, or a read cancelled by a recovery conflict
+	 */
+	private static boolean unavailable(SQLException e) {
+		String state = e.getSQLState();
+		return state != null && (state.startsWith("08") || state.equals("40001"));
+	}
+
+	private void down() {
+		this._fallbacks.increment();
+		this._replicaDown = true;
+	}
+
+	/**
+	 * Method to start the thread that measures the replica's lag. Until its
+	 * first measurement every read runs on the primary.
+	 */
+	public synchronized void start() {
+		if (this._running || this._replica == null) return;
+		this._running = true;
+		this._poller = new Thread(this::poll, "read-router-poller");
+		this._poller.setDaemon(true);
+		this._poller.start();
+	}
+
+	/**
+	 * Method to stop the poller and close the replica's connections.
+	 */
+	@Override
+	public synchronized void close() {
+		this._running = false;
+		if (this._poller != null) {
+			this._poller.interrupt();
+			this._poller = null;
+		}
+		if (this._replica != null) this._replica.close();
+	}
+
+	private void poll() {
+		while (this._running) {
+			try {
+				measure();
+			} catch (SQLException e) {
+				this._replicaDown = true;
+			}
+			try {
+				Thread.sleep(this._pollMs);
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Method to sample the primary's WAL position, then find the newest
+	 * sample the replica has replayed. Everything committed before that
+	 * sample was taken is on the replica.
+	 */
+	private void measure() throws SQLException {
+		long failures = this._fallbacks.sum();
+		long now = System.currentTimeMillis();
+		long written = this._primary.withConnection(conn -> conn.executeQueryForLong(Queries.PRIMARY_WAL_POSITION));
+		if (this._samples.size() >= MAX_SAMPLES) this._samples.pollFirst();
+		this._samples.addLast(new long[]{ now, written });
+		long replayed = this._replica.withConnection(conn -> conn.executeQueryForLong(Queries.REPLICA_REPLAY_POSITION));
+		long caughtUpTo = this._caughtUpTo;
+		while (!this._samples.isEmpty() && this._samples.peekFirst()[1] <= replayed) {
+			caughtUpTo = this._samples.pollFirst()[0];
+		}
+		this._caughtUpTo = caughtUpTo;
+		final long current = caughtUpTo;
+		this._writes.values().removeIf(wrote -> wrote < current);
+		// a read that failed while this ran keeps the replica down until the next poll
+		if (this._fallbacks.sum() == failures) this._replicaDown = false;
+	}
+
+	/**
+	 * @return the reads per target and the replica's lag, for Json
+	 */
+	public Map<String, Object> toMap() {
+		Map<String, Object> m = new LinkedHashMap<String, Object>();
+		m.put("replica", this._replica != null);
+		m.put("replicaDown", this._replicaDown);
+		m.put("lagMs", getLagMs());
+		m.put("replicaReads", this._replicaReads.sum());
+		m.put("primaryReads", this._primaryReads.sum());
+		m.put("fallbacks", this._fallbacks.sum());
+		m.put("stickyUsers", this._writes.size());
+		return m;
+	}
+
+	@Override
+	public String toString() {
+		if (this._replica == null) return "Reads: no replica, all " + this._primaryReads.sum() + " on the primary";
+		return String.format("Reads: %d on the replica, %d on the primary, %d fallbacks; replica %s, lag %d ms, %d users reading their own writes",
+			this._replicaReads.sum(), this._primaryReads.sum(), this._fallbacks.sum(), this._replicaDown ? "down" : "up", getLagMs(), this._writes.size());
+	}
+}
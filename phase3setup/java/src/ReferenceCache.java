@@ -0,0 +1,140 @@
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class is a bounded read-through cache for near-static reference data
+ * such as movie ids by title or the theaters of a cinema. A miss loads the
+ * value through the loader and keeps it until it is older than the TTL, is
+ * invalidated, or is the least recently used entry when the cache is full.
+ *
+ * Loads run outside the cache lock, so two threads missing the same key may
+ * both load it. A load that raced with an invalidation is returned but not
+ * kept, so an invalidated value is never put back by a slow reader.
+ */
+public class ReferenceCache<K, V> {
+	/**
+	 * Loads the value of a key on a cache miss.
+	 */
+	public interface Loader<K, V> {
+		V load(K key) throws SQLException;
+	}
+
+	private static final class Entry<V> {
+		final V value;
+		final long loadedAt;
+
+		Entry(V value, long loadedAt) {
+			this.value = value;
+			this.loadedAt = loadedAt;
+		}
+	}
+
+	private final String _name;
+	private final int _maxSize;
+	private final long _ttlNanos;
+	private final Loader<K, V> _loader;
+	private final LinkedHashMap<K, Entry<V>> _entries;
+	//bumped by every invalidation, to detect loads that raced with one
+	private long _generation = 0;
+	private final AtomicLong _hits = new AtomicLong();
+	private final AtomicLong _misses = new AtomicLong();
+	private final AtomicLong _evictions = new AtomicLong();
+
+	/**
+	 * @param name the name shown in statistics
+	 * @param maxSize the number of entries kept before the least recently used is dropped
+	 * @param ttlMs how long an entry is served before it is loaded again, 0 or less for no limit
+	 * @param loader loads missing values
+	 */
+	public ReferenceCache(String name, final int maxSize, long ttlMs, Loader<K, V> loader) {
+		this._name = name;
+		this._maxSize = Math.max(1, maxSize);
+		this._ttlNanos = ttlMs > 0 ? ttlMs * 1000000L : Long.MAX_VALUE;
+		this._loader = loader;
+		this._entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+				if (size() <= ReferenceCache.this._maxSize) return false;
+				ReferenceCache.this._evictions.incrementAndGet();
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Method to return the value of a key, loading it on a miss. Values the
+	 * loader fails for are not cached.
+	 */
+	public V get(K key) throws SQLException {
+		long generation;
+		synchronized (this) {
+			Entry<V> entry = this._entries.get(key);
+			if (entry != null && System.nanoTime() - entry.loadedAt < this._ttlNanos) {
+				this._hits.incrementAndGet();
+				return entry.value;
+			}
+			if (entry != null) this._entries.remove(key);
+			generation = this._generation;
+		}
+		this._misses.incrementAndGet();
+		V value = this._loader.load(key);
+		synchronized (this) {
+			if (value != null && generation == this._generation) {
+				this._entries.put(key, new Entry<V>(value, System.nanoTime()));
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Drops one key so that it is loaded again on next use.
+	 */
+	public synchronized void invalidate(K key) {
+		++this._generation;
+		this._entries.remove(key);
+	}
+
+	/**
+	 * Drops every key.
+	 */
+	public synchronized void clear() {
+		++this._generation;
+		this._entries.clear();
+	}
+
+	public synchronized int size() {
+		return this._entries.size();
+	}
+
+	public String getName() {
+		return this._name;
+	}
+
+	public long getHits() {
+		return this._hits.get();
+	}
+
+	public long getMisses() {
+		return this._misses.get();
+	}
+
+	public long getEvictions() {
+		return this._evictions.get();
+	}
+
+	/**
+	 * @return hits, misses, evictions and the hit ratio on one line
+	 */
+	@Override
+	public String toString() {
+		long hits = getHits();
+		long misses = getMisses();
+		long total = hits + misses;
+		return String.format("%s: %d entries, %d hits, %d misses, %d evictions, %.1f%% hit ratio",
+			this._name, size(), hits, misses, getEvictions(), total == 0 ? 0.0 : 100.0 * hits / total);
+	}
+}
@@ -0,0 +1,104 @@
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class serves the near-static tables the menus look up over and over
+ * (Movies, Cities, Cinemas, Theaters, Plays, CinemaSeats) from bounded
+ * read-through caches, so a repeated lookup costs no round trip.
+ *
+ * Entries expire after a TTL so edits made directly in SQL are picked up
+ * eventually. Changes made through Ticketmaster invalidate the affected keys
+ * right away: adding a movie drops its title, and removing shows drops the
+ * theaters cached for them.
+ */
+public class ReferenceData {
+	private final ReferenceCache<String, Long> _movieIds;
+	private final ReferenceCache<String, ColumnarResult> _cinemasInCity;
+	private final ReferenceCache<Long, ColumnarResult> _theatersOfCinema;
+	private final ReferenceCache<Long, ColumnarResult> _theatersPlayingShow;
+	private final ReferenceCache<Long, ColumnarResult> _cinemaSeats;
+
+	/**
+	 * @param pool the connections misses are loaded through
+	 * @param maxSize the number of entries kept per cache
+	 * @param ttlMs how long an entry is served before it is loaded again
+	 */
+	public ReferenceData(final ConnectionPool pool, int maxSize, long ttlMs) {
+		this._movieIds = new ReferenceCache<String, Long>("movies by title", maxSize, ttlMs,
+			title -> pool.withConnection(conn -> conn.executeQueryForLong(Queries.MOVIE_ID_BY_TITLE, title)));
+		this._cinemasInCity = new ReferenceCache<String, ColumnarResult>("cinemas by city", maxSize, ttlMs,
+			city -> pool.withConnection(conn -> conn.executeQueryAndReturnColumns(Queries.CINEMAS_IN_CITY, city)));
+		this._theatersOfCinema = new ReferenceCache<Long, ColumnarResult>("theaters by cinema", maxSize, ttlMs,
+			cid -> pool.withConnection(conn -> conn.executeQueryAndReturnColumns(Queries.THEATERS_OF_CINEMA, cid)));
+		this._theatersPlayingShow = new ReferenceCache<Long, ColumnarResult>("theaters by show", maxSize, ttlMs,
+			sid -> pool.withConnection(conn -> conn.executeQueryAndReturnColumns(Queries.THEATERS_PLAYING_SHOW, sid)));
+		this._cinemaSeats = new ReferenceCache<Long, ColumnarResult>("seats by theater", maxSize, ttlMs,
+			tid -> pool.withConnection(conn -> conn.executeQueryAndReturnColumns(Queries.CINEMA_SEATS_OF_THEATER, tid)));
+	}
+
+	/**
+	 * @return the mvid of the movie with the given title
+	 * @throws java.sql.SQLException when no movie has that title
+	 */
+	public long movieId(String title) throws SQLException {
+		return this._movieIds.get(title);
+	}
+
+	/**
+	 * @return cid, cname, tnum of the cinemas in a city
+	 */
+	public ColumnarResult cinemasInCity(String city) throws SQLException {
+		return this._cinemasInCity.get(city);
+	}
+
+	/**
+	 * @return tid, tname, tseats of the theaters of a cinema
+	 */
+	public ColumnarResult theatersOfCinema(long cid) throws SQLException {
+		return this._theatersOfCinema.get(cid);
+	}
+
+	/**
+	 * @return city_name, cname, tname, tseats of the theaters playing a show
+	 */
+	public ColumnarResult theatersPlayingShow(long sid) throws SQLException {
+		return this._theatersPlayingShow.get(sid);
+	}
+
+	/**
+	 * @return csid, sno, stype of the seats of a theater ordered by sno
+	 */
+	public ColumnarResult cinemaSeats(long tid) throws SQLException {
+		return this._cinemaSeats.get(tid);
+	}
+
+	/**
+	 * Drops a movie title, e.g. after a movie with that title was added.
+	 */
+	public void movieChanged(String title) {
+		this._movieIds.invalidate(title);
+	}
+
+	/**
+	 * Drops the theaters cached for a show, e.g. after it was removed.
+	 */
+	public void showRemoved(long sid) {
+		this._theatersPlayingShow.invalidate(sid);
+	}
+
+	/**
+	 * Drops every cached entry.
+	 */
+	public void clear() {
+		for (ReferenceCache<?, ?> cache : caches()) cache.clear();
+	}
+
+	/**
+	 * @return the caches in a fixed order, for statistics
+	 */
+	public List<ReferenceCache<?, ?>> caches() {
+		return Arrays.<ReferenceCache<?, ?>>asList(this._movieIds, this._cinemasInCity, this._theatersOfCinema,
+			this._theatersPlayingShow, this._cinemaSeats);
+	}
+}
@@ -0,0 +1,46 @@
+/**
+ * This class is the outcome of a seat reservation attempt. A conflict is a
+ * normal result rather than an exception, so callers can show the customer
+ * which seats were lost and offer others.
+ */
+public class ReservationResult {
+	public enum Status {
+		//all requested seats were claimed
+		RESERVED,
+		//some requested seats were already taken or held by a concurrent booking
+		CONFLICT,
+		//the show does not have enough free seats for the request
+		NOT_ENOUGH_SEATS,
+		//the request does not match the data, e.g. a seat of another show
+		REJECTED
+	}
+
+	public final Status status;
+	//the booking the seats belong to, or -1 when nothing was reserved
+	public final long bid;
+	//the seats claimed by this attempt
+	public final long[] reserved;
+	//the requested seats that could not be claimed
+	public final long[] conflicts;
+	//the number of attempts made, including retries
+	public final int attempts;
+	public final String message;
+
+	ReservationResult(Status status, long bid, long[] reserved, long[] conflicts, int attempts, String message) {
+		this.status = status;
+		this.bid = bid;
+		this.reserved = reserved;
+		this.conflicts = conflicts;
+		this.attempts = attempts;
+		this.message = message;
+	}
+
+	public boolean isReserved() {
+		return this.status == Status.RESERVED;
+	}
+
+	@Override
+	public String toString() {
+		return this.message;
+	}
+}
@@ -0,0 +1,336 @@
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * This class renders query results as an aligned text table, as CSV, or as
+ * JSON Lines (one object per row) through a buffered writer. Rows are
+ * rendered a bounded batch at a time, whether they come from a
+ * ColumnarResult already in memory or stream in from a query: a writer is
+ * a RowHandler, so it can be handed to streamQuery and only one batch of
+ * rows is held at once however large the result.
+ *
+ * A table computes its column widths from the first batch and widens them
+ * for later batches as needed, so very long results stay mostly aligned
+ * without being read twice. Output is flushed after every batch; close
+ * renders the last batch and flushes.
+ */
+public abstract class ResultWriter implements RowHandler, AutoCloseable {
+	public enum Format {
+		TABLE, CSV, JSONL;
+
+		/**
+		 * @return the format named by a file extension, TABLE for any other
+		 */
+		public static Format ofPath(String path) {
+			String lower = path.toLowerCase();
+			if (lower.endsWith(".csv")) return CSV;
+			if (lower.endsWith(".jsonl") || lower.endsWith(".json")) return JSONL;
+			return TABLE;
+		}
+	}
+
+	//rows rendered together when none is given
+	public static final int DEFAULT_BATCH_ROWS = 1000;
+
+	protected final Writer _out;
+	private final boolean _closeOut;
+	private final int _batchRows;
+	private final StringBuilder _text = new StringBuilder(1 << 16);
+	private ColumnarResult _batch = null;
+	private long _rows = 0;
+	private boolean _started = false;
+
+	/**
+	 * @param out where the rendered rows go
+	 * @param closeOut whether close also closes out
+	 * @param batchRows the rows rendered together
+	 */
+	protected ResultWriter(Writer out, boolean closeOut, int batchRows) {
+		if (batchRows < 1) throw new IllegalArgumentException("batchRows must be at least 1");
+		this._out = out;
+		this._closeOut = closeOut;
+		this._batchRows = batchRows;
+	}
+
+	/**
+	 * Method to create a writer of the given format.
+	 */
+	public static ResultWriter create(Format format, Writer out, boolean closeOut, int batchRows) {
+		switch (format) {
+			case CSV: return new Csv(out, closeOut, batchRows);
+			case JSONL: return new JsonLines(out, closeOut, batchRows);
+			default: return new Table(out, closeOut, batchRows);
+		}
+	}
+
+	/**
+	 * @return a table writer to standard out that leaves it open when closed
+	 */
+	public static ResultWriter console() {
+		return create(Format.TABLE, new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16), false, DEFAULT_BATCH_ROWS);
+	}
+
+	/**
+	 * @return a UTF-8 writer to a new file, in the format of its extension
+	 */
+	public static ResultWriter toFile(String path) throws IOException {
+		return create(Format.ofPath(path), new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path), StandardCharsets.UTF_8), 1 << 16),
+			true, DEFAULT_BATCH_ROWS);
+	}
+
+	/**
+	 * @return the number of rows rendered so far
+	 */
+	public long getRows() {
+		return this._rows;
+	}
+
+	@Override
+	public void columns(ResultSetMetaData rsmd) throws SQLException {
+		this._batch = new ColumnarResult(rsmd);
+	}
+
+	@Override
+	public void row(ResultSet rs) throws SQLException {
+		this._batch.append(rs);
+		if (this._batch.size() >= this._batchRows) {
+			try {
+				render(this._batch, 0, this._batch.size());
+			} catch (IOException e) {
+				throw new SQLException("Cannot write results: " + e.getMessage());
+			}
+			this._batch.clear();
+		}
+	}
+
+	/**
+	 * Method to render every row of a result already in memory.
+	 *
+	 * @return the number of rows rendered
+	 */
+	public int write(ColumnarResult rows) throws IOException {
+		for (int from = 0; from < rows.size(); from += this._batchRows) {
+			render(rows, from, Math.min(rows.size(), from + this._batchRows));
+		}
+		if (!this._started && rows.size() == 0) empty(rows);
+		return rows.size();
+	}
+
+	private void render(ColumnarResult rows, int from, int to) throws IOException {
+		if (!this._started) {
+			header(this._text, rows, from, to);
+			this._started = true;
+		}
+		batch(this._text, rows, from, to);
+		this._out.append(this._text);
+		this._out.flush();
+		this._text.setLength(0);
+		this._rows += to - from;
+	}
+
+	private void empty(ColumnarResult shape) throws IOException {
+		emptyResult(this._text, shape);
+		this._started = true;
+		this._out.append(this._text);
+		this._text.setLength(0);
+	}
+
+	/**
+	 * Method to render the last streamed batch and flush, closing the output
+	 * if this writer owns it.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if (this._batch != null && this._batch.size() > 0) {
+				render(this._batch, 0, this._batch.size());
+				this._batch.clear();
+			} else if (this._batch != null && !this._started) {
+				empty(this._batch);
+			}
+			this._out.flush();
+		} finally {
+			if (this._closeOut) this._out.close();
+		}
+	}
+
+	/**
+	 * Method to render what goes before the first row, given its first batch.
+	 */
+	protected abstract void header(StringBuilder sb, ColumnarResult rows, int from, int to);
+
+	/**
+	 * Method to render rows from (inclusive) to to (exclusive) of a batch.
+	 */
+	protected abstract void batch(StringBuilder sb, ColumnarResult rows, int from, int to);
+
+	/**
+	 * Method to render a result without rows; nothing by default.
+	 */
+	protected void emptyResult(StringBuilder sb, ColumnarResult shape) {
+	}
+
+	/**
+	 * An aligned text table with numbers right-aligned and NULL shown as
+	 * null, like the server's text output.
+	 */
+	static final class Table extends ResultWriter {
+		private int[] _widths = null;
+
+		Table(Writer out, boolean closeOut, int batchRows) {
+			super(out, closeOut, batchRows);
+		}
+
+		private static String cell(ColumnarResult rows, int r, int c) {
+			String s = rows.getString(r, c);
+			return s == null ? "null" : s;
+		}
+
+		private void widen(ColumnarResult rows, int from, int to) {
+			for (int c = 0; c < this._widths.length; ++c) {
+				int w = this._widths[c];
+				for (int r = from; r < to; ++r) w = Math.max(w, cell(rows, r, c).length());
+				this._widths[c] = w;
+			}
+		}
+
+		private static void pad(StringBuilder sb, int n) {
+			for (int i = 0; i < n; ++i) sb.append(' ');
+		}
+
+		@Override
+		protected void header(StringBuilder sb, ColumnarResult rows, int from, int to) {
+			this._widths = new int[rows.columnCount()];
+			for (int c = 0; c < this._widths.length; ++c) this._widths[c] = rows.getColumnName(c).length();
+			widen(rows, from, to);
+			for (int c = 0; c < this._widths.length; ++c) {
+				if (c > 0) sb.append(" | ");
+				sb.append(rows.getColumnName(c));
+				if (c < this._widths.length - 1) pad(sb, this._widths[c] - rows.getColumnName(c).length());
+			}
+			sb.append('\n');
+			for (int c = 0; c < this._widths.length; ++c) {
+				if (c > 0) sb.append("-+-");
+				for (int i = 0; i < this._widths[c]; ++i) sb.append('-');
+			}
+			sb.append('\n');
+		}
+
+		@Override
+		protected void batch(StringBuilder sb, ColumnarResult rows, int from, int to) {
+			widen(rows, from, to);
+			for (int r = from; r < to; ++r) {
+				for (int c = 0; c < this._widths.length; ++c) {
+					if (c > 0) sb.append(" | ");
+					String s = cell(rows, r, c);
+					if (rows.isNumeric(c)) {
+						pad(sb, this._widths[c] - s.length());
+						sb.append(s);
+					} else {
+						sb.append(s);
+						if (c < this._widths.length - 1) pad(sb, this._widths[c] - s.length());
+					}
+				}
+				sb.append('\n');
+			}
+		}
+	}
+
+	/**
+	 * RFC 4180 CSV with a header line; NULL is an empty field, and fields
+	 * holding a comma, quote or line break are quoted.
+	 */
+	static final class Csv extends ResultWriter {
+		Csv(Writer out, boolean closeOut, int batchRows) {
+			super(out, closeOut, batchRows);
+		}
+
+		private static void field(StringBuilder sb, String s) {
+			if (s == null) return;
+			boolean quote = false;
+			for (int i = 0; i < s.length() && !quote; ++i) {
+				char ch = s.charAt(i);
+				quote = ch == ',' || ch == '"' || ch == '\n' || ch == '\r';
+			}
+			if (!quote) {
+				sb.append(s);
+				return;
+			}
+			sb.append('"');
+			for (int i = 0; i < s.length(); ++i) {
+				char ch = s.charAt(i);
+				if (ch == '"') sb.append('"');
+				sb.append(ch);
+			}
+			sb.append('"');
+		}
+
+		@Override
+		protected void header(StringBuilder sb, ColumnarResult rows, int from, int to) {
+			emptyResult(sb, rows);
+		}
+
+		@Override
+		protected void emptyResult(StringBuilder sb, ColumnarResult shape) {
+			for (int c = 0; c < shape.columnCount(); ++c) {
+				if (c > 0) sb.append(',');
+				field(sb, shape.getColumnName(c));
+			}
+			sb.append("\r\n");
+		}
+
+		@Override
+		protected void batch(StringBuilder sb, ColumnarResult rows, int from, int to) {
+			for (int r = from; r < to; ++r) {
+				for (int c = 0; c < rows.columnCount(); ++c) {
+					if (c > 0) sb.append(',');
+					field(sb, rows.getString(r, c));
+				}
+				sb.append("\r\n");
+			}
+		}
+	}
+
+	/**
+	 * One JSON object per line, keyed by column name, with numbers as JSON
+	 * numbers and everything else as strings.
+	 */
+	static final class JsonLines extends ResultWriter {
+		JsonLines(Writer out, boolean closeOut, int batchRows) {
+			super(out, closeOut, batchRows);
+		}
+
+		@Override
+		protected void header(StringBuilder sb, ColumnarResult rows, int from, int to) {
+		}
+
+		@Override
+		protected void batch(StringBuilder sb, ColumnarResult rows, int from, int to) {
+			for (int r = from; r < to; ++r) {
+				Json.writeRow(sb, rows, r);
+				sb.append('\n');
+			}
+		}
+	}
+
+	/**
+	 * Method to render a result already in memory to standard out as a table.
+	 *
+	 * @return the number of rows printed
+	 */
+	public static int print(ColumnarResult rows) {
+		try (ResultWriter w = console()) {
+			return w.write(rows);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,19 @@
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * This interface receives the rows of a streamed query one at a time. The
+ * ResultSet is positioned on the current row and must not be advanced or
+ * kept past the call.
+ */
+public interface RowHandler {
+	/**
+	 * Method called once with the columns of the result, before its first
+	 * row and also when there are no rows.
+	 */
+	default void columns(ResultSetMetaData rsmd) throws SQLException {
+	}
+
+	void row(ResultSet rs) throws SQLException;
+}
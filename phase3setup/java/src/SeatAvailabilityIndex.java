@@ -0,0 +1,320 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * This class keeps the seat availability of shows in memory so that showing
+ * the free seats of a show does not touch the database. Each show is loaded
+ * on first use into a ShowSeatMap: its ssids in ascending order, their
+ * prices, and one bit per seat that is set while the seat is free.
+ *
+ * Seat changes arrive through LISTEN on the seat_changes channel, which the
+ * ShowSeats triggers of migration 002 notify in commit order, for this
+ * instance's transactions as for those of other instances (or direct SQL).
+ * The booking, seat change, payment removal and cleanup paths only report
+ * their commits directly while no listener is connected: applied next to
+ * the notifications they could land after a newer change of the same seat
+ * and leave its bit stale. If the listener connection is lost every map is
+ * dropped, since notifications may have been missed, and shows are reloaded
+ * on next use.
+ */
+public class SeatAvailabilityIndex {
+	static final String CHANNEL = "seat_changes";
+
+	/**
+	 * The seats of one show. Reads and updates are lock-free.
+	 */
+	public static final class ShowSeatMap {
+		public final long sid;
+		private final long[] _ssids;
+		private final float[] _prices;
+		private final AtomicLongArray _free;
+		volatile long lastAccess;
+
+		ShowSeatMap(long sid, long[] ssids, float[] prices, boolean[] free) {
+			this.sid = sid;
+			this._ssids = ssids;
+			this._prices = prices;
+			this.lastAccess = System.nanoTime();
+			this._free = new AtomicLongArray((ssids.length + 63) >>> 6);
+			for (int i = 0; i < free.length; ++i) {
+				if (free[i]) this._free.getAndAccumulate(i >>> 6, 1L << i, (w, bit) -> w | bit);
+			}
+		}
+
+		public int size() {
+			return this._ssids.length;
+		}
+
+		public boolean isFree(long ssid) {
+			int i = Arrays.binarySearch(this._ssids, ssid);
+			return i >= 0 && (this._free.get(i >>> 6) & (1L << i)) != 0;
+		}
+
+		/**
+		 * @return the price of a seat of this show, or NaN for an unknown seat
+		 */
+		public float price(long ssid) {
+			int i = Arrays.binarySearch(this._ssids, ssid);
+			return i >= 0 ? this._prices[i] : Float.NaN;
+		}
+
+		public int freeCount() {
+			int count = 0;
+			for (int w = 0; w < this._free.length(); ++w) count += Long.bitCount(this._free.get(w));
+			return count;
+		}
+
+		/**
+		 * @return the free seats in ascending ssid order
+		 */
+		public long[] freeSeats() {
+			long[] words = new long[this._free.length()];
+			int count = 0;
+			for (int w = 0; w < words.length; ++w) {
+				words[w] = this._free.get(w);
+				count += Long.bitCount(words[w]);
+			}
+			long[] seats = new long[count];
+			int n = 0;
+			for (int w = 0; w < words.length; ++w) {
+				long word = words[w];
+				while (word != 0 && n < count) {
+					int bit = Long.numberOfTrailingZeros(word);
+					seats[n++] = this._ssids[(w << 6) + bit];
+					word &= word - 1;
+				}
+			}
+			return n == count ? seats : Arrays.copyOf(seats, n);
+		}
+
+		void set(long ssid, boolean free) {
+			int i = Arrays.binarySearch(this._ssids, ssid);
+			if (i < 0) return;
+			final long bit = 1L << i;
+			if (free) {
+				this._free.getAndAccumulate(i >>> 6, bit, (w, b) -> w | b);
+			} else {
+				this._free.getAndAccumulate(i >>> 6, bit, (w, b) -> w & ~b);
+			}
+		}
+	}
+
+	private final ConnectionPool _pool;
+	private final int _maxShows;
+	private final long _pollMs;
+	private final Map<Long, ShowSeatMap> _shows = new ConcurrentHashMap<Long, ShowSeatMap>();
+	//change counters striped by sid, to detect changes that race with a load
+	private final AtomicLongArray _changes = new AtomicLongArray(64);
+	//false while no listener is connected; maps are then not kept
+	private volatile boolean _coherent = false;
+	private volatile boolean _running = false;
+	private Thread _listener;
+
+	/**
+	 * @param pool the connections shows are loaded through
+	 * @param maxShows the number of shows kept in memory before the least recently used are dropped
+	 * @param pollMs how often the listener checks for notifications
+	 */
+	public SeatAvailabilityIndex(ConnectionPool pool, int maxShows, long pollMs) {
+		this._pool = pool;
+		this._maxShows = maxShows;
+		this._pollMs = pollMs;
+	}
+
+	/**
+	 * Method to return the seat map of a show, loading it on first use.
+	 * Without a connected listener the map is loaded fresh on every call.
+	 */
+	public ShowSeatMap get(long sid) throws SQLException {
+		ShowSeatMap map = this._shows.get(sid);
+		if (map == null) {
+			int stripe = stripe(sid);
+			long before = this._changes.get(stripe);
+			map = load(sid);
+			// a change that arrived during the load may be missing from it, so only keep a clean load
+			if (this._coherent && this._changes.get(stripe) == before) {
+				ShowSeatMap raced = this._shows.putIfAbsent(sid, map);
+				if (raced != null) map = raced;
+				evictIfFull();
+			}
+		}
+		map.lastAccess = System.nanoTime();
+		return map;
+	}
+
+	/**
+	 * Marks seats of a show as booked after the booking committed, unless
+	 * the listener is connected and will apply the change in order.
+	 */
+	public void booked(long sid, long... ssids) {
+		committed(sid, ssids, false);
+	}
+
+	/**
+	 * Marks seats of a show as free after the release committed, unless
+	 * the listener is connected and will apply the change in order.
+	 */
+	public void released(long sid, long... ssids) {
+		committed(sid, ssids, true);
+	}
+
+	/**
+	 * Drops a show so that it is reloaded on next use.
+	 */
+	public void invalidate(long sid) {
+		this._changes.incrementAndGet(stripe(sid));
+		this._shows.remove(sid);
+	}
+
+	public void clear() {
+		this._shows.clear();
+	}
+
+	/**
+	 * Method to start the background thread that listens for seat changes.
+	 */
+	public synchronized void start() {
+		if (this._running) return;
+		this._running = true;
+		this._listener = new Thread(this::listen, "seat-availability-listener");
+		this._listener.setDaemon(true);
+		this._listener.start();
+	}
+
+	/**
+	 * Method to stop the listener thread and drop all maps.
+	 */
+	public synchronized void close() {
+		this._running = false;
+		this._coherent = false;
+		if (this._listener != null) {
+			this._listener.interrupt();
+			this._listener = null;
+		}
+		this._shows.clear();
+	}
+
+	private void committed(long sid, long[] ssids, boolean free) {
+		if (this._coherent) {
+			// a load racing with the commit must not be kept before its notification arrives
+			this._changes.incrementAndGet(stripe(sid));
+			return;
+		}
+		update(sid, ssids, free);
+	}
+
+	private void update(long sid, long[] ssids, boolean free) {
+		this._changes.incrementAndGet(stripe(sid));
+		ShowSeatMap map = this._shows.get(sid);
+		if (map == null) return;
+		for (long ssid : ssids) map.set(ssid, free);
+	}
+
+	private static int stripe(long sid) {
+		return (int) (sid ^ (sid >>> 32)) & 63;
+	}
+
+	private ShowSeatMap load(final long sid) throws SQLException {
+		ColumnarResult seats = this._pool.withConnection(conn -> conn.executeQueryAndReturnColumns(Queries.SEAT_MAP_OF_SHOW, sid, sid));
+		boolean[] free = new boolean[seats.size()];
+		for (int r = 0; r < free.length; ++r) free[r] = seats.isNull(r, 2);
+		return new ShowSeatMap(sid, seats.getLongs(0), seats.getFloats(1), free);
+	}
+
+	private void evictIfFull() {
+		while (this._shows.size() > this._maxShows) {
+			ShowSeatMap oldest = null;
+			for (ShowSeatMap map : this._shows.values()) {
+				if (oldest == null || map.lastAccess < oldest.lastAccess) oldest = map;
+			}
+			if (oldest == null) return;
+			this._shows.remove(oldest.sid, oldest);
+		}
+	}
+
+	/**
+	 * The listener loop: holds one dedicated connection with LISTEN
+	 * seat_changes and applies notifications until stopped, reconnecting
+	 * after failures.
+	 */
+	private void listen() {
+		while (this._running) {
+			Connection conn = null;
+			try {
+				conn = this._pool.openDedicated();
+				Statement stmt = conn.createStatement();
+				stmt.execute("LISTEN " + CHANNEL);
+				PGConnection pg = conn.unwrap(PGConnection.class);
+				// anything cached before the listener was connected may be stale
+				this._shows.clear();
+				this._coherent = true;
+				while (this._running) {
+					// a round trip makes the driver read pending notifications
+					stmt.execute("SELECT 1");
+					PGNotification[] notifications = pg.getNotifications();
+					if (notifications != null) {
+						for (PGNotification n : notifications) apply(n.getParameter());
+					}
+					Thread.sleep(this._pollMs);
+				}
+				stmt.close();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (SQLException e) {
+				System.err.println("Seat availability listener failed: " + e.getMessage());
+			} finally {
+				this._coherent = false;
+				this._shows.clear();
+				if (conn != null) {
+					try {
+						conn.close();
+					} catch (SQLException e) {
+						// ignored.
+					}
+				}
+			}
+			try {
+				Thread.sleep(Math.max(this._pollMs, 1000));
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Applies one payload of the form sid:booked,ssids:freed,ssids or sid:*.
+	 */
+	void apply(String payload) {
+		try {
+			String[] parts = payload.split(":", -1);
+			long sid = Long.parseLong(parts[0]);
+			if (parts.length < 3) {
+				invalidate(sid);
+				return;
+			}
+			update(sid, parseIds(parts[1]), false);
+			update(sid, parseIds(parts[2]), true);
+		} catch (RuntimeException e) {
+			// a payload we do not understand: drop everything rather than serve stale seats
+			System.err.println("Ignoring seat change notification '" + payload + "'");
+			this._shows.clear();
+		}
+	}
+
+	private static long[] parseIds(String list) {
+		if (list.isEmpty()) return new long[0];
+		String[] parts = list.split(",");
+		long[] ids = new long[parts.length];
+		for (int i = 0; i < parts.length; ++i) ids[i] = Long.parseLong(parts[i]);
+		return ids;
+	}
+}
@@ -0,0 +1,296 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class expires the seat holds of Pending bookings. Every hold sits in
+ * a hashed timing wheel, a ring of slots with one slot per tick, in the slot
+ * of the first tick at or after its deadline. A background thread visits
+ * one slot per tick, so adding a hold and finding the due ones cost the same
+ * however many holds are waiting, and nothing scans Bookings for them. A
+ * hold due more than one turn of the wheel ahead stays in its slot until
+ * the turn it is due in.
+ *
+ * Due holds are expired a small batch at a time, each batch one statement
+ * that cancels the bookings still Pending and releases their seats, so an
+ * abandoned cart is back on sale about a tick after its hold ran out. A
+ * booking that was paid or cancelled meanwhile is left alone. Threads that
+ * make bookings only append to a queue the wheel thread drains, so holding
+ * seats never waits for the wheel.
+ *
+ * Start rebuilds the wheel from the Pending bookings in the database, so
+ * holds survive a restart, and the wheel thread scans them again every
+ * rescan interval, so holds of bookings made by other processes, with or
+ * without a running scheduler, expire as well, at most one interval late.
+ * Hold deadlines are written with the database's clock; a scan reads how
+ * long each hold has left by that clock and the wheel counts it down on
+ * its own, so clock skew between the hosts does not move expiry.
+ */
+public class SeatHoldScheduler implements AutoCloseable {
+	/**
+	 * A booking and the epoch ms its hold runs out.
+	 */
+	private static final class Hold {
+		final long bid;
+		final long deadline;
+
+		Hold(long bid, long deadline) {
+			this.bid = bid;
+			this.deadline = deadline;
+		}
+	}
+
+	//delay before a batch that failed to expire, or a failed scan, is tried again
+	private static final long RETRY_MS = 5000L;
+	//rows per round trip when rebuilding the wheel
+	private static final int REBUILD_FETCH_SIZE = 1000;
+
+	private final ConnectionPool _pool;
+	private final long _ttlMs;
+	private final long _tickMs;
+	private final int _batchSize;
+	private final long _rescanMs;
+	private final List<List<Hold>> _wheel;
+	//bids in the wheel or being expired, only used by the wheel thread
+	private final Set<Long> _known = new HashSet<Long>();
+	//holds added since the last tick, drained by the wheel thread
+	private final ConcurrentLinkedQueue<Hold> _added = new ConcurrentLinkedQueue<Hold>();
+	private final LongAdder _expired = new LongAdder();
+	//told about released seats, may be null
+	private volatile SeatAvailabilityIndex _availability;
+	//told whose bookings expired, may be null
+	private volatile ReadRouter _reads;
+	private volatile int _waiting = 0;
+	private volatile boolean _running = false;
+	private Thread _ticker;
+	//the last tick visited, only used by the wheel thread
+	private long _tick;
+	//when the wheel thread scans the Pending bookings next
+	private long _nextScan;
+
+	/**
+	 * @param pool the connections holds are expired through
+	 * @param ttlMs how long a Pending booking holds its seats unless it asks otherwise, 0 for no holds
+	 * @param tickMs the time one slot of the wheel covers
+	 * @param wheelSize the number of slots
+	 * @param batchSize the bookings expired per statement
+	 * @param rescanMs how often the Pending bookings are scanned for holds made elsewhere, 0 for never
+	 */
+	public SeatHoldScheduler(ConnectionPool pool, long ttlMs, long tickMs, int wheelSize, int batchSize, long rescanMs) {
+		if (tickMs < 1 || wheelSize < 1 || batchSize < 1) throw new IllegalArgumentException("tickMs, wheelSize and batchSize must be at least 1");
+		this._pool = pool;
+		this._ttlMs = Math.max(0L, ttlMs);
+		this._tickMs = tickMs;
+		this._batchSize = batchSize;
+		this._rescanMs = Math.max(0L, rescanMs);
+		this._wheel = new ArrayList<List<Hold>>(wheelSize);
+		for (int i = 0; i < wheelSize; ++i) this._wheel.add(new ArrayList<Hold>());
+	}
+
+	/**
+	 * @return the default hold of a Pending booking in ms, 0 when holds never run out
+	 */
+	public long getTtlMs() {
+		return this._ttlMs;
+	}
+
+	/**
+	 * Sets the availability index that is told about released seats.
+	 */
+	public void setAvailability(SeatAvailabilityIndex availability) {
+		this._availability = availability;
+	}
+
+	/**
+	 * Sets the read router that is told whose bookings expired.
+	 */
+	public void setReads(ReadRouter reads) {
+		this._reads = reads;
+	}
+
+	/**
+	 * @return the number of bookings cancelled because their hold ran out
+	 */
+	public long getExpired() {
+		return this._expired.sum();
+	}
+
+	/**
+	 * @return the number of holds in the wheel as of the last tick
+	 */
+	public int getWaiting() {
+		return this._waiting;
+	}
+
+	/**
+	 * Method to schedule the expiry of a booking that was just committed as
+	 * Pending. Holds added while the scheduler is not running are kept until
+	 * it starts.
+	 *
+	 * @param holdMs how long from now the booking holds its seats
+	 */
+	public void hold(long bid, long holdMs) {
+		this._added.add(new Hold(bid, System.currentTimeMillis() + holdMs));
+	}
+
+	/**
+	 * Method to load the holds of all Pending bookings and start the wheel
+	 * thread. Does nothing when holds never run out.
+	 *
+	 * @throws java.sql.SQLException when the holds could not be loaded
+	 */
+	public synchronized void start() throws SQLException {
+		if (this._running || this._ttlMs == 0) return;
+		scan();
+		this._running = true;
+		this._ticker = new Thread(this::run, "seat-hold-scheduler");
+		this._ticker.setDaemon(true);
+		this._ticker.start();
+	}
+
+	/**
+	 * Method to stop the wheel thread. Holds still waiting run out on the
+	 * next start.
+	 */
+	@Override
+	public synchronized void close() {
+		this._running = false;
+		if (this._ticker != null) {
+			this._ticker.interrupt();
+			this._ticker = null;
+		}
+	}
+
+	/**
+	 * Method to queue the holds of all Pending bookings, with their
+	 * deadlines on this host's clock. Holds already in the wheel are
+	 * skipped when they are placed.
+	 */
+	private void scan() throws SQLException {
+		final long now = System.currentTimeMillis();
+		this._pool.withConnection(conn -> conn.streamQuery(Queries.PENDING_HOLDS, REBUILD_FETCH_SIZE,
+			(ResultSet rs) -> this._added.add(new Hold(rs.getLong(1), now + rs.getLong(2))), this._ttlMs));
+		this._nextScan = now + this._rescanMs;
+	}
+
+	private void run() {
+		this._tick = System.currentTimeMillis() / this._tickMs;
+		List<Hold> due = new ArrayList<Hold>();
+		while (this._running) {
+			try {
+				Thread.sleep(this._tickMs - System.currentTimeMillis() % this._tickMs);
+			} catch (InterruptedException e) {
+				break;
+			}
+			if (this._rescanMs > 0 && System.currentTimeMillis() >= this._nextScan) {
+				try {
+					scan();
+				} catch (SQLException e) {
+					System.err.println("Cannot scan seat holds: " + e.getMessage());
+					this._nextScan = System.currentTimeMillis() + RETRY_MS;
+				}
+			}
+			long now = System.currentTimeMillis();
+			Hold h;
+			while ((h = this._added.poll()) != null) place(h, now, due);
+			advance(now, due);
+			if (!due.isEmpty()) {
+				expire(due, now);
+				due.clear();
+			}
+		}
+	}
+
+	/**
+	 * Method to put a hold in the slot of the first tick at or after its
+	 * deadline, or straight into due when it already ran out. A booking
+	 * that already has a hold keeps it.
+	 */
+	private void place(Hold h, long now, List<Hold> due) {
+		if (!this._known.add(h.bid)) return;
+		if (h.deadline <= now) {
+			due.add(h);
+			return;
+		}
+		long tick = (h.deadline + this._tickMs - 1) / this._tickMs;
+		this._wheel.get((int) (tick % this._wheel.size())).add(h);
+		this._waiting = this._waiting + 1;
+	}
+
+	/**
+	 * Method to visit the slots of every tick since the last visit, at most
+	 * one turn after a long pause, and move the holds that ran out to due.
+	 */
+	private void advance(long now, List<Hold> due) {
+		long target = now / this._tickMs;
+		int waiting = this._waiting;
+		for (long t = Math.max(this._tick + 1, target - this._wheel.size() + 1); t <= target; ++t) {
+			List<Hold> slot = this._wheel.get((int) (t % this._wheel.size()));
+			for (int i = slot.size() - 1; i >= 0; --i) {
+				if (slot.get(i).deadline > now) continue;
+				due.add(slot.get(i));
+				Hold last = slot.remove(slot.size() - 1);
+				if (i < slot.size()) slot.set(i, last);
+				--waiting;
+			}
+		}
+		this._tick = target;
+		this._waiting = waiting;
+	}
+
+	/**
+	 * Method to expire due holds a batch at a time. A batch that fails is
+	 * put back into the wheel and tried again later.
+	 */
+	private void expire(List<Hold> due, long now) {
+		for (int from = 0; from < due.size(); from += this._batchSize) {
+			List<Hold> batch = due.subList(from, Math.min(due.size(), from + this._batchSize));
+			final long[] bids = new long[batch.size()];
+			for (int i = 0; i < bids.length; ++i) bids[i] = batch.get(i).bid;
+			try {
+				ColumnarResult released = this._pool.getMetrics().time("ExpireHolds",
+					() -> this._pool.withConnection(conn -> conn.executeQueryAndReturnColumns(Queries.EXPIRE_HOLDS, (Object) bids)));
+				this._expired.add(release(released, this._availability, this._reads));
+				for (Hold h : batch) this._known.remove(h.bid);
+			} catch (SQLException e) {
+				System.err.println("Cannot expire seat holds: " + e.getMessage());
+				for (Hold h : batch) {
+					this._known.remove(h.bid);
+					place(new Hold(h.bid, now + RETRY_MS), now, due);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Method to tell the availability index about the seats of cancelled
+	 * bookings, and the read router about their users, given rows of bid,
+	 * sid, ssid, email as returned by EXPIRE_HOLDS and CANCEL_PENDING_BOOKINGS.
+	 *
+	 * @param availability the index to update, or null for none
+	 * @param reads the router to tell, or null for none
+	 * @return the number of bookings cancelled
+	 */
+	static int release(ColumnarResult rows, SeatAvailabilityIndex availability, ReadRouter reads) {
+		Set<Long> bids = new HashSet<Long>();
+		Map<Long, List<Long>> seats = new HashMap<Long, List<Long>>();
+		for (int r = 0; r < rows.size(); ++r) {
+			if (bids.add(rows.getLong(r, 0)) && reads != null) reads.wrote(rows.getString(r, 3));
+			if (rows.isNull(r, 1)) continue;
+			seats.computeIfAbsent(rows.getLong(r, 1), sid -> new ArrayList<Long>()).add(rows.getLong(r, 2));
+		}
+		if (availability != null) {
+			for (Map.Entry<Long, List<Long>> e : seats.entrySet()) {
+				availability.released(e.getKey(), e.getValue().stream().mapToLong(Long::longValue).toArray());
+			}
+		}
+		return bids.size();
+	}
+}
@@ -0,0 +1,313 @@
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.LongStream;
+
+/**
+ * This class claims show seats for bookings so that concurrent customers can
+ * never double-book a seat. Every claim is a conditional update (bid IS NULL)
+ * on rows locked with FOR UPDATE SKIP LOCKED, so a booking never waits
+ * behind another booking's row locks: seats held by an in-flight transaction
+ * are reported as conflicts and the attempt is retried after a short jittered
+ * backoff, while seats that are already booked are reported straight away.
+ *
+ * Besides explicit seat lists the engine can pick the best N adjacent free
+ * seats of a show by CinemaSeats.sno.
+ *
+ * A Pending booking holds its seats for a limited time when a
+ * SeatHoldScheduler is set: the deadline is stored with the booking and
+ * the scheduler cancels it when the deadline passes.
+ */
+public class SeatReservationEngine {
+	/**
+	 * Thrown inside a transaction to roll it back when not every seat could be claimed.
+	 */
+	private static class Conflict extends SQLException {
+		private static final long serialVersionUID = 1L;
+		//the seats the rolled back attempt could claim
+		final long[] claimed;
+
+		Conflict(long[] claimed) {
+			super("Seat conflict");
+			this.claimed = claimed;
+		}
+	}
+
+	private final ConnectionPool _pool;
+	private final IdAllocator _bookingIds;
+	private final int _maxAttempts;
+	private final long _backoffMs;
+	//told about committed seat changes, may be null
+	private volatile SeatAvailabilityIndex _availability;
+	//expires the holds of Pending bookings, may be null
+	private volatile SeatHoldScheduler _holds;
+	//told whose bookings changed, may be null
+	private volatile ReadRouter _reads;
+
+	/**
+	 * @param pool the connections to reserve through
+	 * @param bookingIds hands out the ids of new bookings
+	 * @param maxAttempts how often a reservation is tried before reporting a conflict
+	 * @param backoffMs the base delay between attempts, doubled per retry and jittered
+	 */
+	public SeatReservationEngine(ConnectionPool pool, IdAllocator bookingIds, int maxAttempts, long backoffMs) {
+		this._pool = pool;
+		this._bookingIds = bookingIds;
+		this._maxAttempts = Math.max(1, maxAttempts);
+		this._backoffMs = backoffMs;
+	}
+
+	/**
+	 * Sets the availability index that is told about every committed
+	 * reservation or seat change.
+	 */
+	public void setAvailability(SeatAvailabilityIndex availability) {
+		this._availability = availability;
+	}
+
+	/**
+	 * Sets the scheduler that expires the seat holds of Pending bookings.
+	 */
+	public void setHolds(SeatHoldScheduler holds) {
+		this._holds = holds;
+	}
+
+	/**
+	 * Sets the read router that is told about every committed booking and
+	 * seat change, so the user reads them back from the primary.
+	 */
+	public void setReads(ReadRouter reads) {
+		this._reads = reads;
+	}
+
+	/**
+	 * Method to create a booking for exactly the given seats of a show; a
+	 * Pending booking holds them for the scheduler's default time.
+	 *
+	 * @see #reserve(String, String, long, String, long[], long)
+	 */
+	public ReservationResult reserve(String status, String bdatetime, long sid, String email, long[] ssids) throws SQLException {
+		return reserve(status, bdatetime, sid, email, ssids, defaultHold());
+	}
+
+	/**
+	 * Method to create a booking for exactly the given seats of a show.
+	 *
+	 * @param status the booking status
+	 * @param bdatetime the booking timestamp, e.g. 2019-01-08 04:05:00-08
+	 * @param sid the show to book
+	 * @param email the user account making the booking
+	 * @param ssids the show seats to claim
+	 * @param holdMs how long a Pending booking holds its seats, 0 for as long as it is Pending
+	 * @return the outcome; on CONFLICT or REJECTED (a seat of another show) no booking was created
+	 * @throws java.sql.SQLException when the database failed
+	 */
+	public ReservationResult reserve(String status, String bdatetime, long sid, String email, long[] ssids, long holdMs) throws SQLException {
+		final long[] seats = LongStream.of(ssids).distinct().toArray();
+		if (seats.length == 0) {
+			return new ReservationResult(ReservationResult.Status.REJECTED, -1, new long[0], new long[0], 0, "A booking needs at least one seat");
+		}
+		long[] conflicts = seats;
+		// a failed attempt rolls back, so every attempt can use the same id
+		final long bid = this._bookingIds.next();
+		for (int attempt = 1; attempt <= this._maxAttempts; ++attempt) {
+			long[] missed = tryClaim(bid, status, bdatetime, sid, email, seats, holdMs);
+			if (missed.length == 0) {
+				if (this._availability != null) this._availability.booked(sid, seats);
+				return new ReservationResult(ReservationResult.Status.RESERVED, bid, seats, new long[0], attempt,
+					"Reserved " + seats.length + " seat(s) in booking " + bid);
+			}
+			// seats still free were only held by an in-flight booking and may come back
+			ColumnarResult found = this._pool.withConnection(conn -> conn.executeQueryAndReturnColumns(Queries.SHOW_SEATS_BY_ID, seats));
+			LongStream.Builder inShow = LongStream.builder();
+			LongStream.Builder booked = LongStream.builder();
+			for (int r = 0; r < found.size(); ++r) {
+				if (found.getLong(r, 1) != sid) continue;
+				inShow.add(found.getLong(r, 0));
+				if (!found.isNull(r, 3)) booked.add(found.getLong(r, 0));
+			}
+			long[] foreign = minus(seats, inShow.build().toArray());
+			if (foreign.length > 0) {
+				return new ReservationResult(ReservationResult.Status.REJECTED, -1, new long[0], new long[0], attempt,
+					"Seats are not part of show " + sid + ": " + Arrays.toString(foreign));
+			}
+			long[] taken = booked.build().toArray();
+			if (taken.length > 0) {
+				return new ReservationResult(ReservationResult.Status.CONFLICT, -1, new long[0], taken, attempt,
+					"Seats not available for show " + sid + ": " + Arrays.toString(taken));
+			}
+			// the seats still free that the attempt could not claim are locked by another transaction
+			conflicts = missed;
+			backoff(attempt);
+		}
+		return new ReservationResult(ReservationResult.Status.CONFLICT, -1, new long[0], conflicts, this._maxAttempts,
+			"Seats are being booked by someone else, please try again: " + Arrays.toString(conflicts));
+	}
+
+	/**
+	 * Method to create a booking for the best N adjacent free seats of a
+	 * show; a Pending booking holds them for the scheduler's default time.
+	 *
+	 * @see #reserveBest(String, String, long, String, int, long)
+	 */
+	public ReservationResult reserveBest(String status, String bdatetime, long sid, String email, int count) throws SQLException {
+		return reserveBest(status, bdatetime, sid, email, count, defaultHold());
+	}
+
+	/**
+	 * Method to create a booking for the best N adjacent free seats of a
+	 * show: the free seats with the smallest spread of seat numbers, closest
+	 * to the middle of the theater. If another booking wins any picked seat
+	 * the free seats are read again and a new set is picked.
+	 *
+	 * @param count the number of seats to book
+	 * @param holdMs how long a Pending booking holds its seats, 0 for as long as it is Pending
+	 * @return the outcome with the picked seats in reserved
+	 * @throws java.sql.SQLException when the database failed
+	 */
+	public ReservationResult reserveBest(String status, String bdatetime, final long sid, String email, int count, long holdMs) throws SQLException {
+		if (count < 1) {
+			return new ReservationResult(ReservationResult.Status.REJECTED, -1, new long[0], new long[0], 0, "A booking needs at least one seat");
+		}
+		final long bid = this._bookingIds.next();
+		for (int attempt = 1; attempt <= this._maxAttempts; ++attempt) {
+			ColumnarResult free = this._pool.withConnection(conn -> conn.executeQueryAndReturnColumns(Queries.FREE_SEATS_BY_NUMBER, sid, sid));
+			if (free.size() < count) {
+				return new ReservationResult(ReservationResult.Status.NOT_ENOUGH_SEATS, -1, new long[0], new long[0], attempt,
+					"Only " + free.size() + " seat(s) left for show " + sid);
+			}
+			long[] pick = bestAdjacent(free, count);
+			if (tryClaim(bid, status, bdatetime, sid, email, pick, holdMs).length == 0) {
+				if (this._availability != null) this._availability.booked(sid, pick);
+				return new ReservationResult(ReservationResult.Status.RESERVED, bid, pick, new long[0], attempt,
+					"Reserved seats " + Arrays.toString(pick) + " in booking " + bid);
+			}
+			backoff(attempt);
+		}
+		return new ReservationResult(ReservationResult.Status.CONFLICT, -1, new long[0], new long[0], this._maxAttempts,
+			"Show " + sid + " is too busy, please try again");
+	}
+
+	/**
+	 * Method to move one seat of a booking to another free seat of the same
+	 * show and price. The new seat is claimed and the old one released in a
+	 * single statement, so the booking never holds both or neither.
+	 *
+	 * @param bid the booking
+	 * @param oldSsid the seat the booking holds now
+	 * @param newSsid the seat it should hold instead
+	 * @return RESERVED with the new seat, CONFLICT when it is taken, REJECTED when the seats do not match
+	 * @throws java.sql.SQLException when the database failed
+	 */
+	public ReservationResult changeSeat(final long bid, final long oldSsid, final long newSsid) throws SQLException {
+		ColumnarResult changed = this._pool.withConnection(conn -> conn.executeQueryAndReturnColumns(Queries.CHANGE_SEAT, oldSsid, bid, bid, newSsid, oldSsid, bid, bid));
+		if (changed.size() == 1) {
+			ReadRouter reads = this._reads;
+			if (reads != null) reads.wrote(changed.getString(0, 1));
+			if (this._availability != null) {
+				long sid = changed.getLong(0, 0);
+				this._availability.booked(sid, newSsid);
+				this._availability.released(sid, oldSsid);
+			}
+			return new ReservationResult(ReservationResult.Status.RESERVED, bid, new long[]{ newSsid }, new long[0], 1,
+				"Moved booking " + bid + " from seat " + oldSsid + " to seat " + newSsid);
+		}
+		ColumnarResult seats = this._pool.withConnection(conn -> conn.executeQueryAndReturnColumns(Queries.SHOW_SEATS_BY_ID, new long[]{ oldSsid, newSsid }));
+		int oldRow = -1, newRow = -1;
+		for (int r = 0; r < seats.size(); ++r) {
+			if (seats.getLong(r, 0) == oldSsid) oldRow = r;
+			if (seats.getLong(r, 0) == newSsid) newRow = r;
+		}
+		String reason;
+		ReservationResult.Status status = ReservationResult.Status.REJECTED;
+		if (oldRow < 0 || seats.isNull(oldRow, 3) || seats.getLong(oldRow, 3) != bid) {
+			reason = "Seat " + oldSsid + " is not part of booking " + bid;
+		} else if (newRow < 0 || seats.getLong(newRow, 1) != seats.getLong(oldRow, 1)) {
+			reason = "Seat " + newSsid + " is not in the same show";
+		} else if (seats.getFloat(newRow, 4) != seats.getFloat(oldRow, 4)) {
+			reason = "The seat you want to switch to is different in price";
+		} else {
+			status = ReservationResult.Status.CONFLICT;
+			reason = "Seat " + newSsid + " is already taken";
+		}
+		return new ReservationResult(status, bid, new long[0], new long[]{ newSsid }, 1, reason);
+	}
+
+	/**
+	 * Method to pick count seats from the free seats of a show (ssid, sno
+	 * ordered by sno): the window with the smallest spread of seat numbers,
+	 * ties broken by closeness to the middle of the free range.
+	 */
+	static long[] bestAdjacent(ColumnarResult free, int count) {
+		int n = free.size();
+		double center = (free.getLong(0, 1) + free.getLong(n - 1, 1)) / 2.0;
+		int best = 0;
+		long bestSpan = Long.MAX_VALUE;
+		double bestDistance = Double.MAX_VALUE;
+		for (int i = 0; i + count <= n; ++i) {
+			long first = free.getLong(i, 1);
+			long last = free.getLong(i + count - 1, 1);
+			long span = last - first;
+			double distance = Math.abs((first + last) / 2.0 - center);
+			if (span < bestSpan || (span == bestSpan && distance < bestDistance)) {
+				best = i;
+				bestSpan = span;
+				bestDistance = distance;
+			}
+		}
+		long[] pick = new long[count];
+		for (int i = 0; i < count; ++i) pick[i] = free.getLong(best + i, 0);
+		return pick;
+	}
+
+	private long defaultHold() {
+		SeatHoldScheduler holds = this._holds;
+		return holds == null ? 0 : holds.getTtlMs();
+	}
+
+	/**
+	 * Method to insert the booking and claim all seats in one statement,
+	 * and schedule the expiry of its hold once it committed.
+	 *
+	 * @return the seats that could not be claimed, empty when the booking committed
+	 */
+	private long[] tryClaim(final long bid, final String status, final String bdatetime, final long sid, final String email, final long[] seats, long holdMs) throws SQLException {
+		final SeatHoldScheduler holds = this._holds;
+		// no hold is stored as one that never runs out, so the scheduler leaves the booking alone
+		final Long hold = holds != null && holdMs > 0 && "Pending".equals(status) ? Long.valueOf(holdMs) : null;
+		try {
+			this._pool.inTransaction(conn -> {
+				ColumnarResult claimed = conn.executeQueryAndReturnColumns(Queries.RESERVE_SEATS, sid, seats, sid, bid, status, bdatetime, seats.length, sid, email, hold);
+				if (claimed.size() != seats.length) throw new Conflict(claimed.getLongs(0));
+				return true;
+			});
+			if (hold != null) holds.hold(bid, holdMs);
+			ReadRouter reads = this._reads;
+			if (reads != null) reads.wrote(email);
+			return new long[0];
+		} catch (Conflict e) {
+			return minus(seats, e.claimed);
+		} catch (SQLException e) {
+			// deadlock and serialization failures are retried like conflicts on every seat
+			if ("40P01".equals(e.getSQLState()) || "40001".equals(e.getSQLState())) return seats;
+			throw e;
+		}
+	}
+
+	private void backoff(int attempt) throws SQLException {
+		if (attempt >= this._maxAttempts || this._backoffMs <= 0) return;
+		long bound = this._backoffMs << Math.min(attempt - 1, 6);
+		try {
+			Thread.sleep(ThreadLocalRandom.current().nextLong(bound / 2, bound + 1));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while retrying a reservation");
+		}
+	}
+
+	private static long[] minus(long[] all, long[] remove) {
+		long[] sorted = remove.clone();
+		Arrays.sort(sorted);
+		return LongStream.of(all).filter(id -> Arrays.binarySearch(sorted, id) < 0).toArray();
+	}
+}
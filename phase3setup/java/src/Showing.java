@@ -0,0 +1,17 @@
+/**
+ * This class describes one showing to create: the theater it plays in and
+ * its date and times in the formats the console accepts (MM/DD/YYYY, HH:MM).
+ */
+public class Showing {
+	public final long tid;
+	public final String sdate;
+	public final String sttime;
+	public final String edtime;
+
+	public Showing(long tid, String sdate, String sttime, String edtime) {
+		this.tid = tid;
+		this.sdate = sdate;
+		this.sttime = sttime;
+		this.edtime = edtime;
+	}
+}
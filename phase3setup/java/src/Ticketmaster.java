@@ -11,20 +11,13 @@
  */
 
 
-import java.sql.DriverManager;
-import java.sql.Connection;
-import java.sql.Statement;
-import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.io.File;
-import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Random;
-import java.math.BigInteger;  
+import java.util.Arrays;
+import java.util.Collections;
 import java.nio.charset.StandardCharsets; 
 import java.security.MessageDigest;  
 import java.security.NoSuchAlgorithmException;  
@@ -36,9 +29,23 @@ import java.security.NoSuchAlgorithmException;
  */
 
 public class Ticketmaster{
-	//reference to physical database connection
-	private Connection _connection = null;
+	//pool of physical database connections
+	private ConnectionPool _pool = null;
+	//claims seats without double-booking under concurrency
+	private SeatReservationEngine _reservations = null;
+	//in-memory free seats per show
+	private SeatAvailabilityIndex _availability = null;
+	//cached lookups of near-static tables
+	private ReferenceData _reference = null;
+	//runs chunked cleanup jobs in the background
+	private Maintenance _maintenance = null;
+	//the menu operations without the console
+	private TicketmasterService _service = null;
 	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+	//rows sent per JDBC batch when generating shows
+	private static final int SHOW_BATCH_SIZE = 1000;
+	//rows fetched per round trip by streamed queries
+	private static final int FETCH_SIZE = Integer.getInteger("ticketmaster.fetchSize", 1000);
 	
 	public Ticketmaster(String dbname, String dbport, String user, String passwd) throws SQLException {
 		System.out.print("Connecting to database...");
@@ -47,8 +54,23 @@ public class Ticketmaster{
 			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
 			System.out.println ("Connection URL: " + url + "\n");
 			
-			// obtain a physical connection
-	        this._connection = DriverManager.getConnection(url, user, passwd);
+			// obtain a physical connection up front so a bad setup fails fast
+			this._pool = new ConnectionPool(url, user, passwd,
+				Integer.getInteger("ticketmaster.poolSize", 4),
+				Integer.getInteger("ticketmaster.statementCacheSize", 64),
+				Long.getLong("ticketmaster.borrowTimeoutMs", 30000L));
+			this._pool.release(this._pool.borrow());
+			this._availability = new SeatAvailabilityIndex(this._pool,
+				Integer.getInteger("ticketmaster.seatMapShows", 10000),
+				Long.getLong("ticketmaster.seatListenerPollMs", 100L));
+			this._availability.start();
+			this._service = TicketmasterService.create(this._pool, this._availability);
+			this._service.getHolds().start();
+			this._service.getReads().start();
+			this._reservations = this._service.getReservations();
+			this._reference = this._service.getReference();
+			this._maintenance = new Maintenance();
+			this._pool.getMetrics().registerMBeans().dumpEvery(System.err, Long.getLong("ticketmaster.statsIntervalMs", 0L));
 	        System.out.println("Done");
 		}catch(Exception e){
 			System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
@@ -56,23 +78,98 @@ public class Ticketmaster{
 	        System.exit(-1);
 		}
 	}
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
+	 * method issues the query to the DBMS and returns the results in typed
+	 * column buffers, so ids and prices are read without going through text.
+	 * 
+	 * @param query the input query string with '?' parameter markers
+	 * @param params values bound to the parameter markers in order
+	 * @return the query result stored column by column
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public ColumnarResult executeQueryAndReturnColumns (final String query, final Object... params) throws SQLException {
+		return this._pool.withConnection(conn -> conn.executeQueryAndReturnColumns(query, params));
+	}
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT) that
+	 * returns a single number, such as an id lookup.
+	 * 
+	 * @param query the input query string with '?' parameter markers
+	 * @param params values bound to the parameter markers in order
+	 * @return the first column of the first row
+	 * @throws java.sql.SQLException when failed to execute the query or no row matched
+	 */
+	public long executeQueryForLong (final String query, final Object... params) throws SQLException {
+		return this._pool.withConnection(conn -> conn.executeQueryForLong(query, params));
+	}
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT) and
+	 * count its rows on the server with COUNT(*).
+	 * 
+	 * @param query the input query string with '?' parameter markers
+	 * @param params values bound to the parameter markers in order
+	 * @return the number of rows the query returns
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public long executeCount (final String query, final Object... params) throws SQLException {
+		return this._pool.withConnection(conn -> conn.executeCount(query, params));
+	}
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT) and pass
+	 * each row to a handler as it arrives, using a server-side cursor so that
+	 * only fetchSize rows are in memory at once.
+	 * 
+	 * @param query the input query string with '?' parameter markers
+	 * @param fetchSize the number of rows fetched per round trip
+	 * @param handler receives every row
+	 * @param params values bound to the parameter markers in order
+	 * @return the number of rows streamed
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public long streamQuery (final String query, final int fetchSize, final RowHandler handler, final Object... params) throws SQLException {
+		return this._pool.withConnection(conn -> conn.streamQuery(query, fetchSize, handler, params));
+	}
+
+	/**
+	 * Method to run several statements on one pooled connection in autocommit
+	 * mode, e.g. a lookup followed by an insert.
+	 * 
+	 * @param work the statements to run
+	 * @return the result of the work
+	 * @throws java.sql.SQLException when any statement failed
+	 */
+	public <T> T withConnection(ConnectionPool.Work<T> work) throws SQLException {
+		return this._pool.withConnection(work);
+	}
+
+	/**
+	 * Method to run several statements on one pooled connection in a single
+	 * transaction that is rolled back if any of them fails.
+	 * 
+	 * @param work the statements to run
+	 * @return the result of the work
+	 * @throws java.sql.SQLException when any statement failed
+	 */
+	public <T> T inTransaction(ConnectionPool.Work<T> work) throws SQLException {
+		return this._pool.inTransaction(work);
+	}
 	
 	/**
 	 * Method to execute an update SQL statement.  Update SQL instructions
 	 * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
 	 * 
-	 * @param sql the input SQL string
+	 * @param sql the input SQL string with '?' parameter markers
+	 * @param params values bound to the parameter markers in order
+	 * @return the number of rows affected
 	 * @throws java.sql.SQLException when update failed
 	 * */
-	public void executeUpdate (String sql) throws SQLException { 
-		// creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		// issues the update instruction
-		stmt.executeUpdate (sql);
-
-		// close the instruction
-	    stmt.close ();
+	public int executeUpdate (final String sql, final Object... params) throws SQLException { 
+		return this._pool.withConnection(conn -> conn.executeUpdate(sql, params));
 	}//end executeUpdate
 
 	/**
@@ -80,42 +177,13 @@ public class Ticketmaster{
 	 * method issues the query to the DBMS and outputs the results to
 	 * standard out.
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string with '?' parameter markers
+	 * @param params values bound to the parameter markers in order
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQueryAndPrintResult (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
-
-		/*
-		 *  obtains the metadata object for the returned result set.  The metadata
-		 *  contains row and column info.
-		 */
-		ResultSetMetaData rsmd = rs.getMetaData ();
-		int numCol = rsmd.getColumnCount ();
-		int rowCount = 0;
-		
-		//iterates through the result set and output them to standard out.
-		boolean outputHeader = true;
-		while (rs.next()){
-			if(outputHeader){
-				for(int i = 1; i <= numCol; i++){
-					System.out.print(rsmd.getColumnName(i) + "\t");
-			    }
-			    System.out.println();
-			    outputHeader = false;
-			}
-			for (int i=1; i<=numCol; ++i)
-				System.out.print (rs.getString (i) + "\t");
-			System.out.println ();
-			++rowCount;
-		}//end while
-		stmt.close ();
-		return rowCount;
+	public int executeQueryAndPrintResult (final String query, final Object... params) throws SQLException {
+		return this._pool.withConnection(conn -> conn.executeQueryAndPrintResult(query, params));
 	}
 	
 	/**
@@ -123,92 +191,135 @@ public class Ticketmaster{
 	 * method issues the query to the DBMS and returns the results as
 	 * a list of records. Each record in turn is a list of attribute values
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string with '?' parameter markers
+	 * @param params values bound to the parameter markers in order
 	 * @return the query result as a list of records
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException { 
-		//creates a statement object 
-		Statement stmt = this._connection.createStatement (); 
-		
-		//issues the query instruction 
-		ResultSet rs = stmt.executeQuery (query); 
-	 
-		/*
-		 * obtains the metadata object for the returned result set.  The metadata 
-		 * contains row and column info. 
-		*/ 
-		ResultSetMetaData rsmd = rs.getMetaData (); 
-		int numCol = rsmd.getColumnCount (); 
-		int rowCount = 0; 
-	 
-		//iterates through the result set and saves the data returned by the query. 
-		boolean outputHeader = false;
-		List<List<String>> result  = new ArrayList<List<String>>(); 
-		while (rs.next()){
-			List<String> record = new ArrayList<String>(); 
-			for (int i=1; i<=numCol; ++i) 
-				record.add(rs.getString (i)); 
-			result.add(record); 
-		}//end while 
-		stmt.close (); 
-		return result; 
+	public List<List<String>> executeQueryAndReturnResult (final String query, final Object... params) throws SQLException { 
+		return this._pool.withConnection(conn -> conn.executeQueryAndReturnResult(query, params));
 	}//end executeQueryAndReturnResult
 	
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and returns the number of results
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string with '?' parameter markers
+	 * @param params values bound to the parameter markers in order
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQuery (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
+	public int executeQuery (final String query, final Object... params) throws SQLException {
+		return this._pool.withConnection(conn -> conn.executeQuery(query, params));
+	}
 
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+	/**
+	 * Returns the engine that claims seats for bookings and seat changes.
+	 */
+	public SeatReservationEngine getReservations() {
+		return this._reservations;
+	}
+
+	/**
+	 * Returns the in-memory seat availability of shows.
+	 */
+	public SeatAvailabilityIndex getAvailability() {
+		return this._availability;
+	}
 
-		int rowCount = 0;
+	/**
+	 * Returns the cached lookups of movies, cinemas, theaters and their seats.
+	 */
+	public ReferenceData getReference() {
+		return this._reference;
+	}
 
-		//iterates through the result set and count nuber of results.
-		while (rs.next()){
-			rowCount++;
-		}//end while
-		stmt.close ();
-		return rowCount;
+	/**
+	 * Returns the background runner of maintenance jobs.
+	 */
+	public Maintenance getMaintenance() {
+		return this._maintenance;
 	}
-	
+
 	/**
-	 * Method to fetch the last value from sequence. This
-	 * method issues the query to the DBMS and returns the current 
-	 * value of sequence used for autogenerated keys
+	 * Returns the menu operations as a service API.
+	 */
+	public TicketmasterService getService() {
+		return this._service;
+	}
+
+	/**
+	 * Method to create a booking and claim all of its seats in one
+	 * transaction. The booking insert and the seat claim are a single
+	 * statement, so the cost does not grow with the number of seats. If any
+	 * requested seat cannot be claimed the whole booking is rolled back.
 	 * 
-	 * @param sequence name of the DB sequence
-	 * @return current value of a sequence
-	 * @throws java.sql.SQLException when failed to execute the query
+	 * @param status the booking status
+	 * @param bdatetime the booking timestamp, e.g. 2019-01-08 04:05:00-08
+	 * @param sid the show to book
+	 * @param email the user account making the booking
+	 * @param ssids the show seats to claim
+	 * @return the id of the new booking
+	 * @throws java.sql.SQLException when a seat is unavailable or the insert failed
+	 * @see SeatReservationEngine#reserve(String, String, long, String, long[])
 	 */
-	
-	public int getCurrSeqVal(String sequence) throws SQLException {
-		Statement stmt = this._connection.createStatement ();
-		
-		ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-		if (rs.next()) return rs.getInt(1);
-		return -1;
+	public long addBooking (String status, String bdatetime, long sid, String email, long[] ssids) throws SQLException {
+		ReservationResult result = this._service.book(status, bdatetime, sid, email, ssids);
+		if (!result.isReserved()) {
+			throw new SQLException(result.message);
+		}
+		return result.bid;
+	}//end addBooking
+
+	/**
+	 * Method to create one showing of a movie together with all of its
+	 * ShowSeats.
+	 * 
+	 * @return the id of the new show
+	 * @throws java.sql.SQLException when the show could not be created
+	 * @see #addShowings(long, List, PricingRule)
+	 */
+	public long addShowing (long mvid, Showing showing, PricingRule pricing) throws SQLException {
+		return addShowings(mvid, Collections.singletonList(showing), pricing)[0];
 	}
 
 	/**
-	 * Method to close the physical connection if it is open.
+	 * Method to create a batch of showings of a movie, possibly across
+	 * several theaters, in one transaction.
+	 * 
+	 * @param mvid the movie shown
+	 * @param showings the theaters, dates and times of the showings
+	 * @param pricing decides the price of every generated show seat
+	 * @return the ids of the new shows, in the order of showings
+	 * @throws java.sql.SQLException when any showing could not be created
+	 * @see TicketmasterService#addShowings(long, List, PricingRule, int)
+	 */
+	public long[] addShowings (final long mvid, final List<Showing> showings, final PricingRule pricing) throws SQLException {
+		return this._service.addShowings(mvid, showings, pricing, SHOW_BATCH_SIZE);
+	}//end addShowings
+
+	/**
+	 * Method to close all pooled connections.
 	 */
 	public void cleanup(){
-		try{
-			if (this._connection != null){
-				this._connection.close ();
-			}//end if
-		}catch (SQLException e){
-	         // ignored.
-		}//end try
+		if (this._reference != null && Boolean.getBoolean("ticketmaster.printCacheStats")){
+			for (ReferenceCache<?, ?> cache : this._reference.caches()){
+				System.err.println(cache);
+			}//end for
+		}//end if
+		if (this._maintenance != null){
+			this._maintenance.shutdown (10000);
+		}//end if
+		if (this._service != null){
+			this._service.getHolds().close ();
+			this._service.getReads().close ();
+		}//end if
+		if (this._availability != null){
+			this._availability.close ();
+		}//end if
+		if (this._pool != null){
+			this._pool.close ();
+		}//end if
 	}//end cleanup
 
 	/**
@@ -259,11 +370,13 @@ public class Ticketmaster{
 				System.out.println("8. Remove Shows on a Given Date");
 				System.out.println("9. List all Theaters in a Cinema Playing a Given Show");
 				System.out.println("10. List all Shows that Start at a Given Time and Date");
-				System.out.println("11. List Movie Titles Containing \"love\" Released After 2010");
+				System.out.println("11. Search Movies");
 				System.out.println("12. List the First Name, Last Name, and Email of Users with a Pending Booking");
 				System.out.println("13. List the Title, Duration, Date, and Time of Shows Playing a Given Movie at a Given Cinema During a Date Range");
-				System.out.println("14. List the Movie Title, Show Date & Start Time, Theater Name, and Cinema Seat Number for all Bookings of a Given User");
-				System.out.println("15. EXIT");
+				System.out.println("14. List the Booking History of a Given User");
+				System.out.println("15. Show Maintenance Job Progress");
+				System.out.println("16. Show Statistics");
+				System.out.println("17. EXIT");
 				
 				/*
 				 * FOLLOW THE SPECIFICATION IN THE PROJECT DESCRIPTION
@@ -279,11 +392,13 @@ public class Ticketmaster{
 					case 8: RemoveShowsOnDate(esql); break;
 					case 9: ListTheatersPlayingShow(esql); break;
 					case 10: ListShowsStartingOnTimeAndDate(esql); break;
-					case 11: ListMovieTitlesContainingLoveReleasedAfter2010(esql); break;
+					case 11: SearchMovies(esql); break;
 					case 12: ListUsersWithPendingBooking(esql); break;
 					case 13: ListMovieAndShowInfoAtCinemaInDateRange(esql); break;
 					case 14: ListBookingInfoForUser(esql); break;
-					case 15: keepon = false; break;
+					case 15: ShowMaintenanceProgress(esql); break;
+					case 16: ShowStatistics(esql); break;
+					case 17: keepon = false; break;
 				}
 			}
 		}catch(Exception e){
@@ -317,33 +432,35 @@ public class Ticketmaster{
 		return input;
 	}//end readChoice
 
-	public static byte[] getSHA(String input) throws NoSuchAlgorithmException 
-    {  
-        // Static getInstance method is called with hashing SHA  
-        MessageDigest md = MessageDigest.getInstance("SHA-256");  
-  
-        // digest() method called  
-        // to calculate message digest of an input  
-        // and return array of byte 
-        return md.digest(input.getBytes(StandardCharsets.UTF_8));  
-    } 
-    
-    public static String toHexString(byte[] hash) 
-    { 
-        // Convert byte array into signum representation  
-        BigInteger number = new BigInteger(1, hash);  
-  
-        // Convert message digest into hex value  
-        StringBuilder hexString = new StringBuilder(number.toString(16));  
-  
-        // Pad with leading zeros 
-        while (hexString.length() < 32)  
-        {  
-            hexString.insert(0, '0');  
-        }  
-  
-        return hexString.toString();  
-    }
+	//one SHA-256 digest per thread, reused for every password it hashes
+	private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	});
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	public static byte[] getSHA(String input) throws NoSuchAlgorithmException
+	{
+		// digest() resets the digest, so the thread's instance is ready for the next call
+		return SHA256.get().digest(input.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Method to hex-encode a hash, two lowercase digits per byte, so a
+	 * SHA-256 hash always gives the 64 characters of Users.pwd.
+	 */
+	public static String toHexString(byte[] hash)
+	{
+		char[] hex = new char[hash.length * 2];
+		for (int i = 0; i < hash.length; ++i) {
+			hex[2 * i] = HEX_DIGITS[(hash[i] >> 4) & 0xf];
+			hex[2 * i + 1] = HEX_DIGITS[hash[i] & 0xf];
+		}
+		return new String(hex);
+	}
 	
 	public static void AddUser(Ticketmaster esql){//1
 		try {
@@ -362,10 +479,9 @@ public class Ticketmaster{
 			System.out.print("Enter phone number: ");
 			phone_number = Long.parseLong(in.readLine());
 			System.out.print("Enter new password: ");
-			password = toHexString(getSHA(in.readLine()));
+			password = in.readLine();
 		
-			String sql_stmt = String.format("INSERT INTO Users (email, lname, fname, phone, pwd) VALUES ('%s', '%s', '%s', '%d', '%s');", email, last, first, phone_number, password);
-			esql.executeUpdate(sql_stmt);
+			esql.getService().addUser(email, last, first, phone_number, password);
 
 			System.out.println("Successfully added new user!\n");
 		} catch (Exception e) {
@@ -393,17 +509,21 @@ public class Ticketmaster{
 
 			System.out.print("Enter title of movie to book: ");
 			movie_title = in.readLine();
-			List<List<String>> movie_list = esql.executeQueryAndReturnResult(String.format("SELECT mvid FROM Movies WHERE title = '%s';", movie_title));
-			long mvid = Long.parseLong(movie_list.get(0).get(0));
+			long mvid = esql.getReference().movieId(movie_title);
 
 			System.out.print(String.format("Here are a list of showings for %s\n", movie_title));
-			esql.executeQueryAndPrintResult(String.format("SELECT S.sid, S.sdate, S.sttime, S.edtime, T.tname, T.tseats FROM Shows S, Theaters T, Plays P WHERE S.sid = P.sid AND T.tid = P.tid AND S.mvid = %d AND (S.sdate > CAST('%s' AS DATE) OR (S.sdate = CAST('%s' AS DATE) AND S.edtime > CAST('%s' AS TIME)));", mvid, bdatetime.substring(0, 10), bdatetime.substring(0, 10), bdatetime.substring(11, 19)));
+			esql.getService().upcomingShows(mvid, bdatetime).print();
 			System.out.print("Enter in SID of showing that you would like to book: ");
 			sid = Long.parseLong(in.readLine());
 
 			System.out.print("Here are a list of available seats for your selected movie showing\n");
-			esql.executeQueryAndPrintResult(String.format("SELECT ssid, price FROM ShowSeats WHERE sid = %d AND bid IS NULL;", sid));
-			System.out.print("Enter in ssids of seats you would like to book on each line or enter in 'q' to stop selecting seats:\n");
+			SeatAvailabilityIndex.ShowSeatMap seatMap = esql.getAvailability().get(sid);
+			System.out.println("ssid\tprice\t");
+			for(long ssid : seatMap.freeSeats()) {
+				System.out.println(ssid + "\t" + seatMap.price(ssid) + "\t");
+			}
+			System.out.print("Enter in ssids of seats you would like to book on each line or enter in 'q' to stop selecting seats.\n");
+			System.out.print("Enter 'best N' instead to book the best N adjacent seats:\n");
 			seats = 0;
 			boolean selectSeats = true;
 			while(selectSeats) {
@@ -411,17 +531,27 @@ public class Ticketmaster{
 				if(selection.equals("q")) {
 					break;
 				}
+				if(selection.startsWith("best ")) {
+					seats = Integer.parseInt(selection.substring(5).trim());
+					ssids.clear();
+					break;
+				}
 				ssids.add(Long.parseLong(selection));
 				seats++;
 			}
 
-			esql.executeUpdate(String.format("INSERT INTO Bookings (bid, status, bdatetime, seats, sid, email) VALUES (nextval('Booking_Seq'), '%s', '%s', %d, %d, '%s');", status, bdatetime, seats, sid, email));
-
-			for(long ssid : ssids) {
-				esql.executeUpdate(String.format("UPDATE ShowSeats SET bid = %d WHERE ssid = %d", esql.getCurrSeqVal("Booking_Seq"), ssid));
+			ReservationResult result;
+			if(ssids.isEmpty()) {
+				result = esql.getService().bookBest(status, bdatetime, sid, email, seats);
+			} else {
+				result = esql.getService().book(status, bdatetime, sid, email, ssids.stream().mapToLong(Long::longValue).toArray());
+			}
+			if(!result.isReserved()) {
+				System.out.println("Sorry! " + result.message + "\n");
+				return;
 			}
 
-			System.out.println("Successfully added new booking!\n");
+			System.out.println("Successfully added new booking " + result.bid + " for seats " + Arrays.toString(result.reserved) + "!\n");
 		} catch (Exception e) {
 			System.out.println(e.getMessage() + "\n");
 		}
@@ -439,7 +569,7 @@ public class Ticketmaster{
 
 			String city;
 			long cid;
-			long tid;
+			String[] tids;
 
 			String sdate;
 			String sttime;
@@ -460,20 +590,20 @@ public class Ticketmaster{
 			System.out.print("Enter genre of new movie: ");
 			genre = in.readLine();
 
-			esql.executeUpdate(String.format("INSERT INTO Movies (mvid, title, rdate, country, description, duration, lang, genre) VALUES (nextval('Movie_Seq'), '%s', '%s', '%s', '%s', %d, '%s', '%s');", title, rdate, country, description, duration, lang, genre));
+			long mvid = esql.getService().addMovie(title, rdate, country, description, duration, lang, genre);
 
 			System.out.print("Enter in city of cinema where showing will be: ");
 			city = in.readLine();
 			System.out.print("Here are a list of cinemas in this city\n");
-			esql.executeQueryAndPrintResult(String.format("SELECT C2.cid, C2.cname, C2.tnum FROM Cities C1, Cinemas C2 WHERE C1.city_id = C2.city_id AND C1.city_name = '%s';", city));
+			esql.getReference().cinemasInCity(city).print();
 
 			System.out.print("Enter in cid of cinema where showing will be: ");
 			cid = Long.parseLong(in.readLine());
 			System.out.print("Here are a list of theaters in the selected cinema\n");
-			esql.executeQueryAndPrintResult(String.format("SELECT tid, tname, tseats FROM Theaters WHERE cid = %d;", cid));
+			esql.getReference().theatersOfCinema(cid).print();
 
-			System.out.print("Enter in tid of theater where showing will be: ");
-			tid = Long.parseLong(in.readLine());
+			System.out.print("Enter in tid(s) of theater(s) where showing will be, separated by commas: ");
+			tids = in.readLine().split(",");
 			System.out.print("Enter in date of showing in format MM/DD/YYYY: ");
 			sdate = in.readLine();
 			System.out.print("Enter in start time of showing in format HH:MM: ");
@@ -481,14 +611,11 @@ public class Ticketmaster{
 			System.out.print("Enter in end time of showing in format HH:MM: ");
 			edtime = in.readLine();
 
-			esql.executeUpdate(String.format("INSERT INTO Shows (sid, mvid, sdate, sttime, edtime) VALUES (nextval('Show_Seq'), %d, '%s', '%s', '%s');", esql.getCurrSeqVal("Movie_Seq"), sdate, sttime, edtime));
-			esql.executeUpdate(String.format("INSERT INTO Plays (sid, tid) VALUES (%d, %d);", esql.getCurrSeqVal("Show_Seq"), tid));
-
-			List<List<String>> cinemaSeats = esql.executeQueryAndReturnResult(String.format("SELECT * FROM CinemaSeats WHERE tid = %d;", tid));
-
-			for(List<String> cs: cinemaSeats) {
-				esql.executeUpdate(String.format("INSERT INTO ShowSeats (ssid, sid, csid, price) VALUES (nextVal('ShowSeat_Seq'), %d, %d, %d);", esql.getCurrSeqVal("Show_Seq"), Long.parseLong(cs.get(0)), new Random().nextInt(7) + 6));
+			List<Showing> showings = new ArrayList<Showing>();
+			for(String tid : tids) {
+				showings.add(new Showing(Long.parseLong(tid.trim()), sdate, sttime, edtime));
 			}
+			esql.addShowings(mvid, showings, PricingRule.randomBetween(6, 12));
 
 			System.out.println("Successfully added new movie showing!\n");
 		} catch (Exception e) {
@@ -498,9 +625,8 @@ public class Ticketmaster{
 	
 	public static void CancelPendingBookings(Ticketmaster esql){//4
 		try {
-			String sql_stmt = "UPDATE Bookings SET status = 'Cancelled' WHERE status = 'Pending';";
-			esql.executeUpdate(sql_stmt);
-			System.out.println("All pending bookings have been marked as cancelled\n");
+			int cancelled = esql.getService().cancelPendingBookings();
+			System.out.println("All " + cancelled + " pending bookings have been marked as cancelled and their seats released\n");
 		} catch (Exception e) {
 			System.out.println(e.getMessage() + "\n");
 		}	
@@ -511,7 +637,6 @@ public class Ticketmaster{
 			String bookingID;
 			String seatID;
 			String new_seatID;
-			String sql_stmt;
 
 			System.out.print("Enter the booking ID of the seat you want to change ");
 			bookingID = in.readLine();
@@ -521,25 +646,9 @@ public class Ticketmaster{
 			System.out.print("What is your new seat ID?");
 			new_seatID = in.readLine();
 
-			List<String> oldSeat = esql.executeQueryAndReturnResult(String.format("SELECT * FROM ShowSeats WHERE ssid = '%s';", seatID)).get(0);
-			List<String> newSeat = esql.executeQueryAndReturnResult(String.format("SELECT * FROM ShowSeats WHERE ssid = '%s';", new_seatID)).get(0);
-
-			String oldSeat_price = oldSeat.get(4);
-			String newSeat_price = newSeat.get(4);
-			String newSeat_bid = newSeat.get(3);
-
-			if (newSeat_bid == null) {
-				if (newSeat_price == oldSeat_price) {
-					sql_stmt = String.format("UPDATE ShowSeats SET bid = NULL WHERE ssid = '%s';", seatID);
-					esql.executeUpdate(sql_stmt);
-					sql_stmt = String.format("UPDATE ShowSeats SET bid = '%s' WHERE ssid = '%s';", bookingID, new_seatID);
-					esql.executeUpdate(sql_stmt);
-				} else {
-					System.out.println("Sorry! The seat you want to switch is different in price. \n");
-					return;
-				}
-			} else {
-				System.out.println("Sorry! We couldn't find that \n");
+			ReservationResult result = esql.getService().changeSeat(Long.parseLong(bookingID), Long.parseLong(seatID), Long.parseLong(new_seatID));
+			if (!result.isReserved()) {
+				System.out.println("Sorry! " + result.message + "\n");
 				return;
 			}
 
@@ -551,31 +660,12 @@ public class Ticketmaster{
 	
 	public static void RemovePayment(Ticketmaster esql){//6
 		try {
-			String paymentID;
-			String sql_stmt;
-			String bid;
-			List<List<String>> seatIDs;
+			final long paymentID;
 
 			System.out.print("Enter the payment ID you want to remove: ");
-			paymentID = in.readLine();
-			
-			// find matching bid to the bid in payment
-			sql_stmt = "SELECT bid FROM Payments WHERE pid = " + paymentID + ";";
-			bid = esql.executeQueryAndReturnResult(sql_stmt).get(0).get(0);
-
-			sql_stmt = "SELECT S.ssid FROM ShowSeats S, Bookings B WHERE B.bid = " + bid + "AND S.bid = B.bid;";
-			seatIDs = esql.executeQueryAndReturnResult(sql_stmt);
-			for(List<String> ssid : seatIDs) {
-				esql.executeUpdate(String.format("UPDATE ShowSeats SET bid = NULL WHERE ssid = '%s';", ssid.get(0)));
-			}
+			paymentID = Long.parseLong(in.readLine());
 			
-			// change booking status from that bid to cancelled
-			sql_stmt = "UPDATE Bookings SET status = 'Cancelled' WHERE bid = " + bid + ";";
-			esql.executeUpdate(sql_stmt);
-			
-			// remove the payment instance
-			sql_stmt = "DELETE FROM Payments WHERE pid = " + paymentID + ";";
-			esql.executeUpdate(sql_stmt);
+			esql.getService().removePayment(paymentID);
 			System.out.println("Successfully removed the payment!\n");
 		} catch (Exception e) {
 			System.out.println(e.getMessage() + "\n");
@@ -584,15 +674,8 @@ public class Ticketmaster{
 	
 	public static void ClearCancelledBookings(Ticketmaster esql){//7
 		try {
-			String delete = "SELECT S.ssid FROM ShowSeats S, Bookings B WHERE B.status = 'Cancelled' AND S.bid = B.bid;";
-			List<List<String>> seatIDs = esql.executeQueryAndReturnResult(delete);
-			for(List<String> ssid : seatIDs) {
-				esql.executeUpdate(String.format("UPDATE ShowSeats SET bid = NULL WHERE ssid = '%s';", ssid.get(0)));
-			}
-			
-			String sql_stmt = "DELETE FROM Bookings WHERE status = 'Cancelled';";
-			esql.executeUpdate(sql_stmt);
-			System.out.println("All cancelled bookings have been removed\n");
+			MaintenanceJob job = esql.getService().clearCancelledBookings();
+			runMaintenance(esql, job, "All cancelled bookings have been removed\n");
 		} catch (Exception e) {
 			System.out.println(e.getMessage() + "\n");
 		}		
@@ -609,25 +692,59 @@ public class Ticketmaster{
 			System.out.print("What is the date that you want to cancel?\n");
 			showDate = in.readLine();
 			
-			// TODO:
-			// "remove" bookings using remove payment above
-			List<List<String>> bids = esql.executeQueryAndReturnResult(String.format("SELECT B.bid FROM Bookings B, Shows S, Plays P, Theaters T, Cinemas C WHERE C.cname = '%s' AND C.cid = T.cid AND T.tid = P.tid AND P.sid = S.sid AND S.sdate = CAST('%s' AS DATE) AND B.sid = S.sid;", cinemaName, showDate));
-			for(List<String> bid : bids) {
-				esql.executeUpdate(String.format("UPDATE Bookings SET status = 'Cancelled' WHERE bid = '%s';", bid.get(0)));
-				esql.executeUpdate(String.format("DELETE FROM Payments WHERE bid = '%s';", bid.get(0)));
-			}
+			MaintenanceJob job = esql.getService().removeShowsOnDate(cinemaName, showDate);
+			runMaintenance(esql, job, "Successfully removed all shows on that date!\n");
+		} catch (Exception e) {
+			System.out.println(e.getMessage() + "\n");
+		}	
+	}
 
-			List<List<String>> sids = esql.executeQueryAndReturnResult(String.format("SELECT S.sid FROM Shows S, Plays P, Theaters T, Cinemas C WHERE C.cname = '%s' AND C.cid = T.cid AND T.tid = P.tid AND P.sid = S.sid AND S.sdate = CAST('%s' AS DATE);", cinemaName, showDate));
-			for(List<String> sid : sids) {
-				esql.executeUpdate(String.format("DELETE FROM Shows WHERE sid = '%s';", sid.get(0)));
-			}
+	/**
+	 * Method to run a maintenance job in the foreground with progress, or
+	 * hand it to the background runner, as the user chooses.
+	 */
+	private static void runMaintenance(Ticketmaster esql, MaintenanceJob job, String doneMessage) throws Exception {
+		System.out.print("Run in the background? (y/n): ");
+		if(in.readLine().trim().equalsIgnoreCase("y")) {
+			esql.getMaintenance().submit(job);
+			System.out.println("Started " + job.getName() + ", see option 15 for its progress\n");
+			return;
+		}
+		job.setProgress(System.out).run();
+		if(job.getState() == MaintenanceJob.State.FAILED) {
+			throw new SQLException(job.getError() + " (rerun to resume)");
+		}
+		System.out.println(doneMessage);
+	}
 
-			System.out.println("Successfully removed all shows on that date!\n");
+	public static void ShowMaintenanceProgress(Ticketmaster esql){//15
+		try {
+			System.out.print("Maintenance jobs of this session\n");
+			for(MaintenanceJob job : esql.getMaintenance().getJobs()) {
+				System.out.println(job);
+			}
+			System.out.print("Recorded maintenance runs\n");
+			esql.executeQueryAndPrintResult(Queries.MAINTENANCE_RUNS);
 		} catch (Exception e) {
 			System.out.println(e.getMessage() + "\n");
-		}	
+		}
 	}
 	
+	public static void ShowStatistics(Ticketmaster esql){//16
+		try {
+			Metrics metrics = esql.getService().getMetrics();
+			System.out.print("Latency of operations and statements in this session\n");
+			System.out.println(metrics.report());
+			System.out.println(esql.getService().getReads());
+			System.out.print("Reset the statistics? (y/n): ");
+			if(in.readLine().trim().equalsIgnoreCase("y")) {
+				metrics.reset();
+			}
+		} catch (Exception e) {
+			System.out.println(e.getMessage() + "\n");
+		}
+	}
+
 	public static void ListTheatersPlayingShow(Ticketmaster esql){//9
 		try {
 			String sdate;
@@ -637,13 +754,13 @@ public class Ticketmaster{
 			sdate = in.readLine();
 
 			System.out.print("Here are all the shows playing on this date\n");
-			esql.executeQueryAndPrintResult(String.format("SELECT * FROM Shows WHERE sdate = '%s';", sdate));
+			esql.getService().showsOnDate(sdate).print();
 			
 			System.out.print("Enter in sid of show: ");
 			sid = Long.parseLong(in.readLine());
 
 			System.out.print("Here are all the theaters playing this show\n");
-			esql.executeQueryAndPrintResult(String.format("SELECT C1.city_name, C2.cname, T.tname, T.tseats FROM Cities C1, Cinemas C2, Theaters T, Plays P WHERE P.sid = %d AND P.tid = T.tid AND T.cid = C2.cid AND C2.city_id = C1.city_id;", sid));
+			esql.getService().theatersPlayingShow(sid).print();
 		} catch (Exception e) {
 			System.out.println(e.getMessage() + "\n");
 		}
@@ -660,16 +777,44 @@ public class Ticketmaster{
 			sttime = in.readLine();
 
 			System.out.print("Here are all the shows that start on this date and time\n");
-			esql.executeQueryAndPrintResult(String.format("SELECT * FROM Shows WHERE sdate = '%s' AND sttime = '%s';", sdate, sttime));
+			esql.getService().showsStartingAt(sdate, sttime).print();
 		} catch (Exception e) {
 			System.out.println(e.getMessage() + "\n");
 		}
 	}
 
-	public static void ListMovieTitlesContainingLoveReleasedAfter2010(Ticketmaster esql){//11
+	public static void SearchMovies(Ticketmaster esql){//11
 		try {
-			System.out.print("Here are all movies containing the word 'love' released after 2010\n");
-			esql.executeQueryAndPrintResult("SELECT * FROM Movies WHERE title ILIKE '%love%' AND rdate > CAST('12/31/2010' AS DATE);");
+			String keywords;
+			String from;
+			String to;
+			String genre;
+			String lang;
+			final int pageSize = 20;
+
+			System.out.print("Enter keywords to search for: ");
+			keywords = in.readLine();
+			System.out.print("Enter earliest release date in format MM/DD/YYYY (blank for any): ");
+			from = in.readLine();
+			System.out.print("Enter latest release date in format MM/DD/YYYY (blank for any): ");
+			to = in.readLine();
+			System.out.print("Enter genre (blank for any): ");
+			genre = in.readLine();
+			System.out.print("Enter language code, such as en (blank for any): ");
+			lang = in.readLine();
+
+			for(int offset = 0; ; offset += pageSize) {
+				ColumnarResult page = esql.getService().searchMovies(keywords, from, to, genre, lang, offset, pageSize);
+				if(page.size() == 0) {
+					System.out.print(offset == 0 ? "No movies match this search\n" : "No more movies\n");
+					break;
+				}
+				System.out.print("Here are movies " + (offset + 1) + " to " + (offset + page.size()) + " matching this search, most relevant first\n");
+				page.print();
+				if(page.size() < pageSize) break;
+				System.out.print("Show the next page? (y/n): ");
+				if(!in.readLine().trim().equalsIgnoreCase("y")) break;
+			}
 		} catch (Exception e) {
 			System.out.println(e.getMessage() + "\n");
 		}
@@ -677,8 +822,25 @@ public class Ticketmaster{
 
 	public static void ListUsersWithPendingBooking(Ticketmaster esql){//12
 		try {
-			System.out.print("Here are all the users who have a booking with a status of pending\n");
-			esql.executeQueryAndPrintResult("SELECT U.fname, U.lname, U.email FROM Users U, Bookings B WHERE B.status = 'Pending' AND B.email = U.email;");
+			String path;
+
+			System.out.print("Enter a file to export to, ending in .csv or .jsonl (blank to print): ");
+			path = in.readLine().trim();
+
+			if(path.isEmpty()) {
+				System.out.print("Here are all the users who have a booking with a status of pending\n");
+				try (ResultWriter out = ResultWriter.console()) {
+					esql.getService().usersWithPendingBooking(out);
+				}
+			} else {
+				ResultWriter out = ResultWriter.toFile(path);
+				try {
+					esql.getService().usersWithPendingBooking(out);
+				} finally {
+					out.close();
+				}
+				System.out.print("Exported " + out.getRows() + " users to " + path + "\n");
+			}
 		} catch (Exception e) {
 			System.out.println(e.getMessage() + "\n");
 		}
@@ -687,14 +849,14 @@ public class Ticketmaster{
 	public static void ListMovieAndShowInfoAtCinemaInDateRange(Ticketmaster esql){//13
 		try {
 			String title;
-			long mvid;
 			String cinema;
 			String startDate;
 			String endDate;
 
 			System.out.print("Enter movie title: ");
 			title = in.readLine();
-			mvid = Long.parseLong(esql.executeQueryAndReturnResult(String.format("SELECT mvid FROM Movies WHERE title = '%s';", title)).get(0).get(0));
+			// fail before asking for the rest when the title is unknown
+			esql.getReference().movieId(title);
 
 			System.out.print("Enter cinema name: ");
 			cinema = in.readLine();
@@ -705,7 +867,7 @@ public class Ticketmaster{
 			endDate = in.readLine();
 
 			System.out.print("Here are all the shows playing this movie at this cinema in this date range\n");
-			esql.executeQueryAndPrintResult(String.format("SELECT C.cname, M.title, M.duration, S.sdate, S.sttime FROM Movies M, Shows S, Plays P, Theaters T, Cinemas C WHERE M.mvid = %d AND M.mvid = S.mvid AND S.sdate >= CAST('%s' AS DATE) AND S.sdate <= CAST('%s' AS DATE) AND S.sid = P.sid AND P.tid = T.tid AND T.cid = C.cid AND C.cname = '%s';", mvid, startDate, endDate, cinema));
+			esql.getService().showsOfMovieAtCinema(title, cinema, startDate, endDate).print();
 		} catch (Exception e) {
 			System.out.println(e.getMessage() + "\n");
 		}
@@ -714,12 +876,33 @@ public class Ticketmaster{
 	public static void ListBookingInfoForUser(Ticketmaster esql){//14
 		try {
 			String email;
+			String from;
+			String to;
+			String status;
+			final int pageSize = 20;
 
 			System.out.print("Enter in user email: ");
 			email = in.readLine();
+			System.out.print("Enter earliest booking date in format MM/DD/YYYY (blank for any): ");
+			from = in.readLine();
+			System.out.print("Enter latest booking date in format MM/DD/YYYY (blank for any): ");
+			to = in.readLine();
+			System.out.print("Enter booking status, such as Paid or Pending (blank for any): ");
+			status = in.readLine();
 
-			System.out.print("Here are all the bookings for this user\n");
-			esql.executeQueryAndPrintResult(String.format("SELECT M.title, S1.sdate, S1.sttime, T.tname, C.sno FROM Movies M, Shows S1, Theaters T, ShowSeats S2, CinemaSeats C, Plays P, Bookings B WHERE B.email = '%s' AND B.sid = S1.sid AND S1.mvid = M.mvid AND S1.sid = P.sid AND P.tid = T.tid AND B.bid = S2.bid AND S2.csid = C.csid", email));
+			String after = null;
+			do {
+				BookingHistoryPage page = esql.getService().bookingHistory(email, from, to, status, after, pageSize);
+				if(page.bookings == 0) {
+					System.out.print(after == null ? "This user has no matching bookings\n" : "No more bookings\n");
+					break;
+				}
+				System.out.print("Here are " + page.bookings + " bookings of this user, newest first, one line per seat\n");
+				page.rows.print();
+				after = page.nextCursor();
+				if(after == null) break;
+				System.out.print("Show older bookings? (y/n): ");
+			} while(in.readLine().trim().equalsIgnoreCase("y"));
 		} catch (Exception e) {
 			System.out.println(e.getMessage() + "\n");
 		}
@@ -0,0 +1,535 @@
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class is the Ticketmaster operations without the console: every menu
+ * operation as a method that takes its inputs as arguments and returns its
+ * outcome instead of prompting and printing. The console menu and the batch
+ * runner both call it, so an operation behaves the same however it is
+ * driven. All methods are safe to call from several threads.
+ *
+ * Every operation is timed under its menu name in the pool's Metrics,
+ * together with the round trips and rows of the statements it ran.
+ */
+public class TicketmasterService {
+	//largest page of a movie search
+	public static final int MAX_SEARCH_LIMIT = 1000;
+	//largest page of a booking history, in bookings
+	public static final int MAX_HISTORY_PAGE = 500;
+	//rows per round trip when streaming a booking history page
+	private static final int HISTORY_FETCH_SIZE = 256;
+	//rows per round trip when streaming a listing to a handler
+	private static final int EXPORT_FETCH_SIZE = 5000;
+
+	private final ConnectionPool _pool;
+	private final SeatReservationEngine _reservations;
+	private final SeatAvailabilityIndex _availability;
+	private final SeatHoldScheduler _holds;
+	private final ReadRouter _reads;
+	private final ReferenceData _reference;
+	private final IdAllocator _movieIds;
+	private final IdAllocator _showIds;
+	private final IdAllocator _showSeatIds;
+	private final int _maintenanceChunk;
+	private final long _maintenanceLockTimeoutMs;
+	private final Metrics _metrics;
+
+	/**
+	 * @param pool the connections operations run on
+	 * @param reservations claims seats for bookings and seat changes
+	 * @param availability the in-memory seat availability to keep current, or null for none
+	 * @param holds expires the seat holds of Pending bookings
+	 * @param reads runs the listings on a read replica when there is one
+	 * @param reference cached lookups of near-static tables
+	 * @param movieIds hands out the ids of new movies
+	 * @param showIds hands out the ids of new shows
+	 * @param showSeatIds hands out the ids of new show seats
+	 * @param maintenanceChunk ids per transaction of the cleanup jobs
+	 * @param maintenanceLockTimeoutMs how long a cleanup chunk waits for row locks
+	 */
+	public TicketmasterService(ConnectionPool pool, SeatReservationEngine reservations, SeatAvailabilityIndex availability,
+			SeatHoldScheduler holds, ReadRouter reads, ReferenceData reference, IdAllocator movieIds, IdAllocator showIds, IdAllocator showSeatIds,
+			int maintenanceChunk, long maintenanceLockTimeoutMs) {
+		this._pool = pool;
+		this._reservations = reservations;
+		this._availability = availability;
+		this._holds = holds;
+		this._reads = reads;
+		this._reference = reference;
+		this._movieIds = movieIds;
+		this._showIds = showIds;
+		this._showSeatIds = showSeatIds;
+		this._maintenanceChunk = maintenanceChunk;
+		this._maintenanceLockTimeoutMs = maintenanceLockTimeoutMs;
+		this._metrics = pool.getMetrics();
+	}
+
+	/**
+	 * Method to build the service and its components on a pool, configured
+	 * from the ticketmaster.* system properties. The seat hold scheduler is
+	 * not started; processes that run long enough to expire holds start it.
+	 * Listings read from the replica at ticketmaster.readUrl when it is set,
+	 * once the read router is started.
+	 *
+	 * @param availability the seat availability to keep current, or null for none
+	 */
+	public static TicketmasterService create(ConnectionPool pool, SeatAvailabilityIndex availability) {
+		int idBlockSize = Integer.getInteger("ticketmaster.idBlockSize", 100);
+		SeatReservationEngine reservations = new SeatReservationEngine(pool, new IdAllocator(pool, "Booking_Seq", idBlockSize),
+			Integer.getInteger("ticketmaster.reserveAttempts", 5),
+			Long.getLong("ticketmaster.reserveBackoffMs", 5L));
+		reservations.setAvailability(availability);
+		SeatHoldScheduler holds = new SeatHoldScheduler(pool,
+			Long.getLong("ticketmaster.holdTtlMs", 600000L),
+			Long.getLong("ticketmaster.holdTickMs", 1000L),
+			Integer.getInteger("ticketmaster.holdWheelSize", 512),
+			Integer.getInteger("ticketmaster.holdBatchSize", 100),
+			Long.getLong("ticketmaster.holdRescanMs", 60000L));
+		holds.setAvailability(availability);
+		reservations.setHolds(holds);
+		String readUrl = System.getProperty("ticketmaster.readUrl");
+		ReadRouter reads = new ReadRouter(pool,
+			readUrl == null || readUrl.isEmpty() ? null : pool.sibling(readUrl, Integer.getInteger("ticketmaster.readPoolSize", pool.getMaxSize())),
+			Long.getLong("ticketmaster.readMaxLagMs", 1000L),
+			Long.getLong("ticketmaster.readPollMs", 100L));
+		reservations.setReads(reads);
+		holds.setReads(reads);
+		ReferenceData reference = new ReferenceData(pool,
+			Integer.getInteger("ticketmaster.referenceCacheSize", 1024),
+			Long.getLong("ticketmaster.referenceTtlMs", 300000L));
+		return new TicketmasterService(pool, reservations, availability, holds, reads, reference,
+			new IdAllocator(pool, "Movie_Seq", idBlockSize),
+			new IdAllocator(pool, "Show_Seq", idBlockSize),
+			new IdAllocator(pool, "ShowSeat_Seq", idBlockSize),
+			Integer.getInteger("ticketmaster.maintenanceChunk", 1000),
+			Long.getLong("ticketmaster.maintenanceLockTimeoutMs", 2000L));
+	}
+
+	public Metrics getMetrics() {
+		return this._metrics;
+	}
+
+	public SeatReservationEngine getReservations() {
+		return this._reservations;
+	}
+
+	/**
+	 * @return the scheduler that expires the seat holds of Pending bookings
+	 */
+	public SeatHoldScheduler getHolds() {
+		return this._holds;
+	}
+
+	/**
+	 * @return the router that sends listings to the read replica
+	 */
+	public ReadRouter getReads() {
+		return this._reads;
+	}
+
+	public ReferenceData getReference() {
+		return this._reference;
+	}
+
+	/**
+	 * @return the in-memory seat availability, or null when there is none
+	 */
+	public SeatAvailabilityIndex getAvailability() {
+		return this._availability;
+	}
+
+	/**
+	 * Method to add a user account; the password is stored as its SHA-256 hash.
+	 */
+	public void addUser(String email, String lname, String fname, long phone, String password) throws SQLException {
+		String pwd;
+		try {
+			pwd = Ticketmaster.toHexString(Ticketmaster.getSHA(password));
+		} catch (Exception e) {
+			throw new SQLException("Cannot hash password: " + e.getMessage());
+		}
+		this._metrics.time("AddUser", () -> this._pool.withConnection(conn -> conn.executeUpdate(Queries.INSERT_USER, email, lname, fname, phone, pwd)));
+		this._reads.wrote(email);
+	}
+
+	/**
+	 * Method to book the given seats of a show.
+	 *
+	 * @see SeatReservationEngine#reserve(String, String, long, String, long[])
+	 */
+	public ReservationResult book(String status, String bdatetime, long sid, String email, long[] ssids) throws SQLException {
+		return book(status, bdatetime, sid, email, ssids, this._holds.getTtlMs());
+	}
+
+	/**
+	 * Method to book the given seats of a show; a Pending booking holds them for holdMs.
+	 *
+	 * @see SeatReservationEngine#reserve(String, String, long, String, long[], long)
+	 */
+	public ReservationResult book(String status, String bdatetime, long sid, String email, long[] ssids, long holdMs) throws SQLException {
+		return this._metrics.time("AddBooking", () -> this._reservations.reserve(status, bdatetime, sid, email, ssids, holdMs));
+	}
+
+	/**
+	 * Method to book the best count adjacent free seats of a show.
+	 *
+	 * @see SeatReservationEngine#reserveBest(String, String, long, String, int)
+	 */
+	public ReservationResult bookBest(String status, String bdatetime, long sid, String email, int count) throws SQLException {
+		return bookBest(status, bdatetime, sid, email, count, this._holds.getTtlMs());
+	}
+
+	/**
+	 * Method to book the best count adjacent free seats of a show; a Pending booking holds them for holdMs.
+	 *
+	 * @see SeatReservationEngine#reserveBest(String, String, long, String, int, long)
+	 */
+	public ReservationResult bookBest(String status, String bdatetime, long sid, String email, int count, long holdMs) throws SQLException {
+		return this._metrics.time("AddBookingBestSeats", () -> this._reservations.reserveBest(status, bdatetime, sid, email, count, holdMs));
+	}
+
+	/**
+	 * @return sid, sdate, sttime, edtime, tname, tseats of the shows of a movie that have not ended at bdatetime
+	 */
+	public ColumnarResult upcomingShows(long mvid, String bdatetime) throws SQLException {
+		String date = bdatetime.substring(0, 10);
+		String time = bdatetime.substring(11, 19);
+		return this._metrics.time("UpcomingShows", () -> this._pool.withConnection(conn -> conn.executeQueryAndReturnColumns(Queries.UPCOMING_SHOWS_OF_MOVIE, mvid, date, date, time)));
+	}
+
+	/**
+	 * Method to add a movie.
+	 *
+	 * @param rdate the release date in format MM/DD/YYYY
+	 * @return the new mvid
+	 */
+	public long addMovie(String title, String rdate, String country, String description, int duration, String lang, String genre) throws SQLException {
+		long mvid = this._metrics.time("AddMovie", () -> {
+			long id = this._movieIds.next();
+			this._pool.withConnection(conn -> conn.executeUpdate(Queries.INSERT_MOVIE, id, title, rdate, country, description, duration, lang, genre));
+			return id;
+		});
+		this._reference.movieChanged(title);
+		return mvid;
+	}
+
+	/**
+	 * Method to create a batch of showings of a movie, possibly across
+	 * several theaters, in one transaction. Show and show seat ids come from
+	 * the id allocators, the CinemaSeats of involved theaters come from the
+	 * reference cache, and Shows, Plays and ShowSeats rows are written with
+	 * JDBC batches.
+	 *
+	 * @param mvid the movie shown
+	 * @param showings the theaters, dates and times of the showings
+	 * @param pricing decides the price of every generated show seat
+	 * @param batchSize the number of rows sent per JDBC batch
+	 * @return the ids of the new shows, in the order of showings
+	 * @throws java.sql.SQLException when any showing could not be created
+	 */
+	public long[] addShowings(final long mvid, final List<Showing> showings, final PricingRule pricing, final int batchSize) throws SQLException {
+		if (showings.isEmpty()) return new long[0];
+		return this._metrics.time("AddMovieShowingToTheater", () -> insertShowings(mvid, showings, pricing, batchSize));
+	}
+
+	private long[] insertShowings(final long mvid, final List<Showing> showings, final PricingRule pricing, final int batchSize) throws SQLException {
+		// seat layouts come from the cache, before a connection is held for the transaction
+		final Map<Long, ColumnarResult> seatsByTheater = new HashMap<Long, ColumnarResult>();
+		for (Showing sh : showings) {
+			if (!seatsByTheater.containsKey(sh.tid)) seatsByTheater.put(sh.tid, this._reference.cinemaSeats(sh.tid));
+		}
+		// so are the ids, since an allocator may need a connection of its own
+		int seatCount = 0;
+		for (Showing sh : showings) seatCount += seatsByTheater.get(sh.tid).size();
+		final long[] sids = this._showIds.next(showings.size());
+		final long[] ssids = this._showSeatIds.next(seatCount);
+		return this._pool.inTransaction(conn -> {
+			List<Object[]> shows = new ArrayList<Object[]>(sids.length);
+			List<Object[]> plays = new ArrayList<Object[]>(sids.length);
+			for (int i = 0; i < sids.length; ++i) {
+				Showing sh = showings.get(i);
+				shows.add(new Object[]{ sids[i], mvid, sh.sdate, sh.sttime, sh.edtime });
+				plays.add(new Object[]{ sids[i], sh.tid });
+			}
+			conn.executeBatch(Queries.INSERT_SHOW, shows, batchSize);
+			conn.executeBatch(Queries.INSERT_PLAY, plays, batchSize);
+			conn.executeUpdate(Queries.INSERT_SCHEDULE_OF_SHOWS, sids);
+
+			int next = 0;
+			for (int i = 0; i < sids.length; ++i) {
+				long sid = sids[i];
+				ColumnarResult cinemaSeats = seatsByTheater.get(showings.get(i).tid);
+				List<Object[]> showSeats = new ArrayList<Object[]>(cinemaSeats.size());
+				for (int r = 0; r < cinemaSeats.size(); ++r) {
+					long csid = cinemaSeats.getLong(r, 0);
+					float price = pricing.price(sid, csid, cinemaSeats.getInt(r, 1), cinemaSeats.getString(r, 2));
+					showSeats.add(new Object[]{ ssids[next++], sid, csid, price, showings.get(i).sdate });
+				}
+				conn.executeBatch(Queries.INSERT_SHOW_SEAT, showSeats, batchSize);
+			}
+			return sids;
+		});
+	}
+
+	/**
+	 * Method to rebuild the ShowSchedule read model from Shows, Plays,
+	 * Theaters, Cinemas, Cities and Movies in one transaction. Readers see
+	 * the old schedule until it commits.
+	 *
+	 * @return the number of schedule rows written
+	 */
+	public int rebuildSchedule() throws SQLException {
+		return this._metrics.time("RebuildSchedule", () -> this._pool.inTransaction(conn -> {
+			conn.executeUpdate(Queries.DELETE_SCHEDULE);
+			return conn.executeUpdate(Queries.REBUILD_SCHEDULE);
+		}));
+	}
+
+	/**
+	 * Method to create the missing monthly partitions of Shows, Bookings and
+	 * ShowSeats from this month to months ahead. Needs the partitioned
+	 * tables of sql/partition.sql.
+	 *
+	 * @return the number of partitions created
+	 */
+	public int createShowPartitions(int months) throws SQLException {
+		return this._metrics.time("CreateShowPartitions", () -> this._pool.withConnection(conn ->
+			(int) conn.executeQueryForLong(Queries.CREATE_SHOW_PARTITIONS, months)));
+	}
+
+	/**
+	 * Method to detach the partitions of every month that ended before a
+	 * date, after deleting their payments, plays and schedule rows, in one
+	 * transaction. Needs the partitioned tables of sql/partition.sql.
+	 *
+	 * @param before the date in format MM/DD/YYYY
+	 * @param archive whether the detached partitions are kept in the archive schema instead of dropped
+	 * @return the months retired, as YYYY_MM
+	 */
+	public List<String> retireShowPartitions(String before, boolean archive) throws SQLException {
+		ColumnarResult months = this._metrics.time("RetireShowPartitions", () -> this._pool.inTransaction(conn ->
+			conn.executeQueryAndReturnColumns(Queries.RETIRE_SHOW_PARTITIONS, before, archive)));
+		List<String> retired = new ArrayList<String>(months.size());
+		for (int r = 0; r < months.size(); ++r) retired.add(months.getString(r, 0));
+		// seat maps of the retired shows would never be read again
+		if (this._availability != null && !retired.isEmpty()) this._availability.clear();
+		return retired;
+	}
+
+	/**
+	 * Method to cancel every Pending booking at once and release its seats,
+	 * whether or not its hold ran out.
+	 *
+	 * @return the number of pending bookings now cancelled
+	 */
+	public int cancelPendingBookings() throws SQLException {
+		ColumnarResult released = this._metrics.time("CancelPendingBookings", () -> this._pool.withConnection(conn -> conn.executeQueryAndReturnColumns(Queries.CANCEL_PENDING_BOOKINGS)));
+		return SeatHoldScheduler.release(released, this._availability, this._reads);
+	}
+
+	/**
+	 * @see SeatReservationEngine#changeSeat(long, long, long)
+	 */
+	public ReservationResult changeSeat(long bid, long oldSsid, long newSsid) throws SQLException {
+		return this._metrics.time("ChangeSeatsForBooking", () -> this._reservations.changeSeat(bid, oldSsid, newSsid));
+	}
+
+	/**
+	 * Method to remove a payment: its seats are released, its booking is
+	 * cancelled and the payment is deleted, all in one transaction.
+	 *
+	 * @return the number of seats released
+	 * @throws java.sql.SQLException when there is no such payment
+	 */
+	public int removePayment(final long pid) throws SQLException {
+		// release the seats, cancel the booking and remove the payment together
+		final String[] email = new String[1];
+		ColumnarResult released = this._metrics.time("RemovePayment", () -> this._pool.inTransaction(conn -> {
+			long bid = conn.executeQueryForLong(Queries.BOOKING_OF_PAYMENT, pid);
+			ColumnarResult seats = conn.executeQueryAndReturnColumns(Queries.RELEASE_SEATS_OF_BOOKING, bid);
+			ColumnarResult cancelled = conn.executeQueryAndReturnColumns(Queries.CANCEL_BOOKING, bid);
+			email[0] = cancelled.size() == 0 ? null : cancelled.getString(0, 0);
+			conn.executeUpdate(Queries.DELETE_PAYMENT, pid);
+			return seats;
+		}));
+		this._reads.wrote(email[0]);
+		if (this._availability != null) {
+			for (int i = 0; i < released.size(); ++i) {
+				this._availability.released(released.getLong(i, 0), released.getLong(i, 1));
+			}
+		}
+		return released.size();
+	}
+
+	/**
+	 * Method to create the job that deletes cancelled bookings and frees
+	 * their seats. Freed seats reach the availability index through the
+	 * ShowSeats notifications.
+	 */
+	public MaintenanceJob clearCancelledBookings() {
+		return MaintenanceJob.clearCancelledBookings(this._pool, this._maintenanceChunk, this._maintenanceLockTimeoutMs);
+	}
+
+	/**
+	 * Method to create the job that removes the shows of a cinema on a date.
+	 * Seats, plays, payments and shows go a chunk of shows at a time, the
+	 * partitioned tables filtered by the show date; bookings cascade.
+	 *
+	 * @param showDate the date in format MM/DD/YYYY
+	 */
+	public MaintenanceJob removeShowsOnDate(String cinemaName, String showDate) {
+		MaintenanceJob job = MaintenanceJob.removeShowsOnDate(this._pool, cinemaName, showDate, this._maintenanceChunk, this._maintenanceLockTimeoutMs);
+		return job.addListener(sids -> {
+			for (long sid : sids) {
+				if (this._availability != null) this._availability.invalidate(sid);
+				this._reference.showRemoved(sid);
+			}
+		});
+	}
+
+	/**
+	 * @return the seats of a show with their prices and which are free
+	 * @throws java.sql.SQLException when the service has no availability index
+	 */
+	public SeatAvailabilityIndex.ShowSeatMap seatMap(long sid) throws SQLException {
+		if (this._availability == null) throw new SQLException("Seat availability is not enabled");
+		return this._metrics.time("SeatMap", () -> this._availability.get(sid));
+	}
+
+	public ColumnarResult showsOnDate(String sdate) throws SQLException {
+		return this._metrics.time("ShowsOnDate", () -> this._reads.read(null, conn -> conn.executeQueryAndReturnColumns(Queries.SHOWS_ON_DATE, sdate)));
+	}
+
+	/**
+	 * Method to stream the shows on a date to a handler, such as a
+	 * ResultWriter exporting them.
+	 *
+	 * @return the number of rows streamed
+	 */
+	public long showsOnDate(String sdate, RowHandler handler) throws SQLException {
+		return stream("ShowsOnDate", Queries.SHOWS_ON_DATE, handler, sdate);
+	}
+
+	public ColumnarResult theatersPlayingShow(long sid) throws SQLException {
+		return this._metrics.time("ListTheatersPlayingShow", () -> this._reference.theatersPlayingShow(sid));
+	}
+
+	public ColumnarResult showsStartingAt(String sdate, String sttime) throws SQLException {
+		return this._metrics.time("ListShowsStartingOnTimeAndDate", () -> this._reads.read(null, conn -> conn.executeQueryAndReturnColumns(Queries.SHOWS_ON_DATE_AT_TIME, sdate, sttime, sdate, sttime)));
+	}
+
+	/**
+	 * Method to search movies whose title contains the keywords, or whose
+	 * title and description contain all of their words, most relevant first.
+	 *
+	 * @param keywords the text to look for, not empty
+	 * @param releasedFrom earliest release date as MM/DD/YYYY, or null
+	 * @param releasedTo latest release date as MM/DD/YYYY, or null
+	 * @param genre the genre to match exactly, or null for any
+	 * @param lang the two letter language code, or null for any
+	 * @param offset movies of earlier pages to skip
+	 * @param limit movies per page, at most MAX_SEARCH_LIMIT
+	 * @return mvid, title, rdate, genre, lang, duration and relevance of each movie of the page
+	 */
+	public ColumnarResult searchMovies(String keywords, String releasedFrom, String releasedTo, String genre, String lang, int offset, int limit) throws SQLException {
+		final String text = keywords == null ? "" : keywords.trim();
+		if (text.isEmpty()) throw new SQLException("Enter at least one keyword", "22023");
+		if (offset < 0 || limit < 1 || limit > MAX_SEARCH_LIMIT) throw new SQLException("Page must have 1 to " + MAX_SEARCH_LIMIT + " movies from offset 0", "22023");
+		final String pattern = "%" + text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+		final String g = blankToNull(genre), l = blankToNull(lang);
+		return this._metrics.time("SearchMovies", () -> this._reads.read(null, conn -> conn.executeQueryAndReturnColumns(Queries.MOVIE_SEARCH,
+			text, text, pattern, text, blankToNull(releasedFrom), blankToNull(releasedTo), g, g, l, l, limit, offset)));
+	}
+
+	private static String blankToNull(String value) {
+		return value == null || value.trim().isEmpty() ? null : value.trim();
+	}
+
+	/**
+	 * @return sdate, sttime, edtime, title, duration, tname and sid of every show of a cinema in a date range, by date and time
+	 */
+	public ColumnarResult scheduleOfCinema(String cinema, String startDate, String endDate) throws SQLException {
+		return this._metrics.time("CinemaSchedule", () -> this._reads.read(null, conn -> conn.executeQueryAndReturnColumns(Queries.SCHEDULE_OF_CINEMA, cinema, startDate, endDate)));
+	}
+
+	/**
+	 * Method to stream the shows of a cinema in a date range to a handler,
+	 * such as a ResultWriter exporting them.
+	 *
+	 * @return the number of rows streamed
+	 */
+	public long scheduleOfCinema(String cinema, String startDate, String endDate, RowHandler handler) throws SQLException {
+		return stream("CinemaSchedule", Queries.SCHEDULE_OF_CINEMA, handler, cinema, startDate, endDate);
+	}
+
+	public ColumnarResult usersWithPendingBooking() throws SQLException {
+		return this._metrics.time("ListUsersWithPendingBooking", () -> this._reads.read(null, conn -> conn.executeQueryAndReturnColumns(Queries.USERS_WITH_PENDING_BOOKING)));
+	}
+
+	/**
+	 * Method to stream the users with a pending booking to a handler, such
+	 * as a ResultWriter exporting them.
+	 *
+	 * @return the number of rows streamed
+	 */
+	public long usersWithPendingBooking(RowHandler handler) throws SQLException {
+		return stream("ListUsersWithPendingBooking", Queries.USERS_WITH_PENDING_BOOKING, handler);
+	}
+
+	private long stream(String operation, String sql, RowHandler handler, Object... params) throws SQLException {
+		return this._metrics.time(operation, () -> this._reads.stream(null, conn -> conn.streamQuery(sql, EXPORT_FETCH_SIZE, handler, params)));
+	}
+
+	/**
+	 * @throws java.sql.SQLException when no movie has the title
+	 */
+	public ColumnarResult showsOfMovieAtCinema(String title, String cinema, String startDate, String endDate) throws SQLException {
+		return this._metrics.time("ListMovieAndShowInfoAtCinema", () -> {
+			long mvid = this._reference.movieId(title);
+			return this._reads.read(null, conn -> conn.executeQueryAndReturnColumns(Queries.SHOWS_OF_MOVIE_AT_CINEMA_IN_RANGE, mvid, startDate, endDate, cinema));
+		});
+	}
+
+	/**
+	 * Method to read one page of a user's booking history, newest booking
+	 * first, by keyset on (bdatetime, bid). The page streams through a
+	 * cursor, so its cost depends on the page size and not on how many
+	 * bookings the user has made.
+	 *
+	 * @param fromDate earliest booking date as MM/DD/YYYY, or null
+	 * @param toDate latest booking date as MM/DD/YYYY, or null
+	 * @param status the booking status to match, or null for any
+	 * @param after the cursor of the previous page, or null for the newest bookings
+	 * @param pageSize bookings per page, at most MAX_HISTORY_PAGE
+	 */
+	public BookingHistoryPage bookingHistory(String email, String fromDate, String toDate, String status, String after, int pageSize) throws SQLException {
+		if (pageSize < 1 || pageSize > MAX_HISTORY_PAGE) throw new SQLException("Page must have 1 to " + MAX_HISTORY_PAGE + " bookings", "22023");
+		final Object[] cursor = blankToNull(after) == null ? new Object[2] : BookingHistoryPage.parseCursor(after);
+		final Timestamp afterBdatetime = cursor[0] == null ? null : Timestamp.from((Instant) cursor[0]);
+		final String st = blankToNull(status);
+		final ColumnarResult[] rows = new ColumnarResult[1];
+		this._metrics.time("ListBookingInfoForUser", () -> this._reads.stream(email, conn -> conn.streamQuery(Queries.BOOKING_HISTORY, HISTORY_FETCH_SIZE, new RowHandler() {
+			public void columns(ResultSetMetaData rsmd) throws SQLException {
+				rows[0] = new ColumnarResult(rsmd);
+			}
+
+			public void row(ResultSet rs) throws SQLException {
+				rows[0].append(rs);
+			}
+		}, email, blankToNull(fromDate), blankToNull(toDate), st, st, afterBdatetime, cursor[1], pageSize)));
+		int bookings = 0;
+		for (int r = 0; r < rows[0].size(); ++r) {
+			if (r == 0 || rows[0].getLong(r, 0) != rows[0].getLong(r - 1, 0)) ++bookings;
+		}
+		if (bookings < pageSize) return new BookingHistoryPage(rows[0], bookings, null, -1);
+		int last = rows[0].size() - 1;
+		return new BookingHistoryPage(rows[0], bookings, rows[0].getInstant(last, 1), rows[0].getLong(last, 0));
+	}
+}
@@ -0,0 +1,294 @@
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.postgresql.PGConnection;
+
+/**
+ * This class imports user accounts in bulk from a CSV file of
+ *
+ *   email,lname,fname,phone,password
+ *
+ * with an optional header line and passwords in plain text; blank lines
+ * are skipped. Lines are cut into chunks that worker threads validate,
+ * hash with SHA-256 and load: each chunk is streamed with COPY into a session-local staging table and
+ * moved into Users with INSERT ... ON CONFLICT DO NOTHING, one transaction
+ * and three round trips per chunk.
+ *
+ * A bad line never aborts the import. Malformed lines and emails that
+ * already exist or repeat in the file are written to the rejects output
+ * with their line number and reason. Should a chunk still fail in the
+ * database, its rows are inserted one by one so only the offending rows
+ * are rejected; when the database is unreachable the whole chunk is.
+ *
+ * Usage: java UserImport &lt;dbname&gt; &lt;port&gt; &lt;user&gt; [--file path] [--rejects path] [--parallel N] [--chunk N]
+ */
+public class UserImport {
+	/**
+	 * A validated line of the input.
+	 */
+	static final class UserRow {
+		final long line;
+		final String email;
+		final String lname;
+		final String fname;
+		final Long phone;
+		final String pwd;
+
+		UserRow(long line, String email, String lname, String fname, Long phone, String pwd) {
+			this.line = line;
+			this.email = email;
+			this.lname = lname;
+			this.fname = fname;
+			this.phone = phone;
+			this.pwd = pwd;
+		}
+	}
+
+	private final ConnectionPool _pool;
+	private final int _parallel;
+	private final int _chunkSize;
+	private final LongAdder _imported = new LongAdder();
+	private final LongAdder _rejected = new LongAdder();
+	private PrintWriter _rejects;
+
+	public UserImport(ConnectionPool pool, int parallel, int chunkSize) {
+		this._pool = pool;
+		this._parallel = parallel;
+		this._chunkSize = chunkSize;
+	}
+
+	public long getImported() {
+		return this._imported.sum();
+	}
+
+	public long getRejected() {
+		return this._rejected.sum();
+	}
+
+	private void reject(long line, String reason, String text) {
+		this._rejected.increment();
+		synchronized (this._rejects) {
+			this._rejects.println(line + "\t" + reason + "\t" + text);
+		}
+	}
+
+	/**
+	 * Method to validate and hash one line.
+	 *
+	 * @return the row, or null when the line was rejected
+	 */
+	private UserRow parse(long line, String text) throws NoSuchAlgorithmException {
+		if (text.trim().isEmpty()) return null;
+		List<String> f = BatchRunner.splitCsv(text);
+		if (f.size() != 5) {
+			reject(line, "expected 5 fields, found " + f.size(), text);
+			return null;
+		}
+		String email = f.get(0).trim(), lname = f.get(1).trim(), fname = f.get(2).trim(), phone = f.get(3).trim();
+		String reason = null;
+		if (email.isEmpty() || email.length() > 64 || email.indexOf('@') < 1) reason = "invalid email";
+		else if (lname.isEmpty() || lname.length() > 32) reason = "invalid last name";
+		else if (fname.isEmpty() || fname.length() > 32) reason = "invalid first name";
+		else if (!phone.isEmpty() && (phone.length() > 10 || !phone.chars().allMatch(Character::isDigit))) reason = "invalid phone";
+		else if (f.get(4).isEmpty()) reason = "empty password";
+		if (reason != null) {
+			reject(line, reason, text);
+			return null;
+		}
+		return new UserRow(line, email, lname, fname, phone.isEmpty() ? null : Long.valueOf(phone),
+			Ticketmaster.toHexString(Ticketmaster.getSHA(f.get(4))));
+	}
+
+	private static void csv(StringBuilder sb, String value) {
+		sb.append('"');
+		for (int i = 0; i < value.length(); ++i) {
+			char ch = value.charAt(i);
+			if (ch == '"') sb.append('"');
+			sb.append(ch);
+		}
+		sb.append('"');
+	}
+
+	/**
+	 * Method to load one chunk through the staging table.
+	 *
+	 * @return the emails inserted
+	 */
+	private Set<String> load(List<UserRow> rows) throws SQLException {
+		final StringBuilder data = new StringBuilder(rows.size() * 160);
+		for (UserRow r : rows) {
+			csv(data, r.email);
+			data.append(',');
+			csv(data, r.lname);
+			data.append(',');
+			csv(data, r.fname);
+			data.append(',');
+			if (r.phone != null) data.append(r.phone);
+			data.append(',');
+			csv(data, r.pwd);
+			data.append('\n');
+		}
+		return this._pool.getMetrics().time("ImportUsers chunk", () -> this._pool.inTransaction(conn -> {
+			try (Statement stmt = conn.getConnection().createStatement()) {
+				stmt.execute(Queries.CREATE_USER_STAGING);
+			}
+			try {
+				conn.getConnection().unwrap(PGConnection.class).getCopyAPI().copyIn(Queries.COPY_USER_STAGING, new StringReader(data.toString()));
+			} catch (IOException e) {
+				throw new SQLException(e.getMessage());
+			}
+			ColumnarResult inserted = conn.executeQueryAndReturnColumns(Queries.INSERT_USERS_FROM_STAGING);
+			Set<String> emails = new HashSet<String>();
+			for (int i = 0; i < inserted.size(); ++i) emails.add(inserted.getString(i, 0));
+			return emails;
+		}));
+	}
+
+	/**
+	 * Method to import one chunk of lines, rejecting what cannot be inserted.
+	 */
+	private void importChunk(long firstLine, List<String> lines) {
+		List<UserRow> rows = new ArrayList<UserRow>(lines.size());
+		Set<String> emails = new HashSet<String>();
+		try {
+			for (int i = 0; i < lines.size(); ++i) {
+				UserRow r = parse(firstLine + i, lines.get(i));
+				if (r == null) continue;
+				if (emails.add(r.email)) rows.add(r);
+				else reject(r.line, "duplicate email", lines.get(i));
+			}
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		if (rows.isEmpty()) return;
+		try {
+			Set<String> inserted = load(rows);
+			for (UserRow r : rows) {
+				if (inserted.contains(r.email)) this._imported.increment();
+				else reject(r.line, "duplicate email", lines.get((int) (r.line - firstLine)));
+			}
+		} catch (SQLException chunkFailure) {
+			// find the offending rows one at a time, unless no row can succeed
+			boolean unreachable = chunkFailure.getSQLState() != null && chunkFailure.getSQLState().startsWith("08");
+			for (UserRow r : rows) {
+				if (unreachable) {
+					reject(r.line, chunkFailure.getMessage().replace('\n', ' '), lines.get((int) (r.line - firstLine)));
+					continue;
+				}
+				try {
+					int n = this._pool.withConnection(conn -> conn.executeUpdate(Queries.INSERT_USER_IF_NEW, r.email, r.lname, r.fname, r.phone, r.pwd));
+					if (n == 1) this._imported.increment();
+					else reject(r.line, "duplicate email", lines.get((int) (r.line - firstLine)));
+				} catch (SQLException e) {
+					reject(r.line, e.getMessage().replace('\n', ' '), lines.get((int) (r.line - firstLine)));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Method to import every line of the input. At most two chunks per
+	 * thread are in memory at a time.
+	 *
+	 * @param rejects receives line number, reason and line of every rejected line
+	 */
+	public void run(BufferedReader input, PrintWriter rejects) throws IOException, InterruptedException {
+		this._rejects = rejects;
+		ExecutorService workers = Executors.newFixedThreadPool(this._parallel);
+		final Semaphore inFlight = new Semaphore(2 * this._parallel);
+		try {
+			long lineNo = 0;
+			long firstLine = 1;
+			List<String> chunk = new ArrayList<String>(this._chunkSize);
+			String line;
+			while ((line = input.readLine()) != null) {
+				++lineNo;
+				if (lineNo == 1 && line.trim().toLowerCase().startsWith("email,")) {
+					firstLine = 2;
+					continue;
+				}
+				chunk.add(line);
+				if (chunk.size() >= this._chunkSize) {
+					submit(workers, inFlight, firstLine, chunk);
+					chunk = new ArrayList<String>(this._chunkSize);
+					firstLine = lineNo + 1;
+				}
+			}
+			if (!chunk.isEmpty()) submit(workers, inFlight, firstLine, chunk);
+		} finally {
+			workers.shutdown();
+			workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			rejects.flush();
+		}
+	}
+
+	private void submit(ExecutorService workers, final Semaphore inFlight, final long firstLine, final List<String> chunk) throws InterruptedException {
+		inFlight.acquire();
+		workers.execute(() -> {
+			try {
+				importChunk(firstLine, chunk);
+			} finally {
+				inFlight.release();
+			}
+		});
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 3) {
+			System.err.println("Usage: java [-classpath <classpath>] " + UserImport.class.getName() + " <dbname> <port> <user> [--file path] [--rejects path] [--parallel N] [--chunk N]");
+			System.exit(2);
+		}
+		String file = "-";
+		String rejectsFile = null;
+		int parallel = Runtime.getRuntime().availableProcessors();
+		int chunkSize = 5000;
+		List<String> rest = Arrays.asList(args).subList(3, args.length);
+		for (int i = 0; i + 1 < rest.size(); i += 2) {
+			if (rest.get(i).equals("--file")) file = rest.get(i + 1);
+			else if (rest.get(i).equals("--rejects")) rejectsFile = rest.get(i + 1);
+			else if (rest.get(i).equals("--parallel")) parallel = Integer.parseInt(rest.get(i + 1));
+			else if (rest.get(i).equals("--chunk")) chunkSize = Integer.parseInt(rest.get(i + 1));
+		}
+		String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+		ConnectionPool pool = new ConnectionPool(url, args[2], "", parallel,
+			Integer.getInteger("ticketmaster.statementCacheSize", 64),
+			Long.getLong("ticketmaster.borrowTimeoutMs", 30000L));
+		UserImport importer = new UserImport(pool, parallel, chunkSize);
+		long start = System.nanoTime();
+		int status = 0;
+		try (InputStream in = file.equals("-") ? System.in : new FileInputStream(file);
+				PrintWriter rejects = new PrintWriter(new OutputStreamWriter(rejectsFile == null ? System.err : new FileOutputStream(rejectsFile), StandardCharsets.UTF_8))) {
+			importer.run(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16), rejects);
+		} catch (IOException | InterruptedException | RuntimeException e) {
+			System.err.println(e.getMessage());
+			status = 1;
+		} finally {
+			pool.close();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("Imported %d users, rejected %d lines in %.1f s (%.0f users/s)",
+			importer.getImported(), importer.getRejected(), seconds, importer.getImported() / Math.max(seconds, 1e-9)));
+		System.exit(status);
+	}
+}
@@ -10,13 +10,24 @@ echo $root
 root=$(dirname $root)
 echo $root
 dbname=$(logname)_db
+# Optional first argument: a folder of generated CSVs to load instead of data/
+data=${1:-$root/data}
 echo "creating db named ... $dbname"
 createdb -h localhost $dbname
 pg_ctl status
 
 echo "Copying csv files ... "
 sleep 1
-cp $root/data/*.csv /tmp/$(logname)/mydb/data/
+cp $data/*.csv /tmp/$(logname)/mydb/data/
 
 echo "Initializing tables .. "
-psql -h localhost $dbname < $root/sql/create.sql
\ No newline at end of file
+psql -h localhost $dbname < $root/sql/create.sql
+
+echo "Applying migrations .. "
+for migration in $root/sql/migrate/*.sql; do
+	echo "  $(basename $migration)"
+	psql -h localhost $dbname < $migration
+done
+
+echo "Resetting sequences .. "
+psql -h localhost $dbname < $root/sql/reset_sequences.sql
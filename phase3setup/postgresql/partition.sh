@@ -0,0 +1,9 @@
+#!/bin/bash
+root=$(realpath $(dirname "$0"))
+root=$(dirname $root)
+dbname=$(logname)_db
+
+# Converts Shows, Bookings and ShowSeats of a database made by createdb.sh
+# into tables partitioned by month of show date. Stop the application first.
+echo "Partitioning shows of $dbname by month .. "
+psql -h localhost -v ON_ERROR_STOP=1 $dbname < $root/sql/partition.sql
@@ -0,0 +1,22 @@
+#!/bin/bash
+# Starts a streaming read replica of the database of startdb.sh on port
+# $PGPORT + 1 (or $REPLICA_PORT), for -Dticketmaster.readUrl
+primary=/tmp/$(logname)/mydb
+folder=/tmp/$(logname)/myreplica
+PGDATA=$folder/data
+PGSOCKETS=$folder/sockets
+REPLICA_PORT=${REPLICA_PORT:-$((${PGPORT:-5432} + 1))}
+export PGDATA
+export PGSOCKETS
+
+#Initialize folders
+rm -fr $PGDATA
+mkdir -p $PGDATA
+rm -fr $PGSOCKETS
+mkdir -p $PGSOCKETS
+
+#Copy the primary; -R makes the copy a standby that streams from it
+pg_basebackup -h $primary/sockets -p ${PGPORT:-5432} -D $PGDATA -R -X stream
+
+#Start folder
+pg_ctl -o "-p $REPLICA_PORT -c unix_socket_directories=$PGSOCKETS" -D $PGDATA -l $folder/logfile start
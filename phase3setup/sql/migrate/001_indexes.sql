@@ -0,0 +1,48 @@
+-- Migration 001: index pack for the Ticketmaster menu queries
+--
+-- create.sql only defines primary keys and two UNIQUE constraints, so every
+-- lookup below was a sequential scan. Safe to run more than once.
+
+CREATE TABLE IF NOT EXISTS SchemaVersion (
+    version INTEGER NOT NULL,
+    description VARCHAR(128) NOT NULL,
+    applied TIMESTAMPTZ NOT NULL DEFAULT now(),
+    PRIMARY KEY(version)
+);
+
+-- Free seats of a show (AddBooking seat list, seat claiming)
+CREATE INDEX IF NOT EXISTS ShowSeats_free_idx ON ShowSeats (sid, ssid) WHERE bid IS NULL;
+
+-- Seats held by a booking (RemovePayment, ClearCancelledBookings, booking history)
+CREATE INDEX IF NOT EXISTS ShowSeats_bid_idx ON ShowSeats (bid) WHERE bid IS NOT NULL;
+
+-- Bookings by status; only the rare statuses are indexed
+CREATE INDEX IF NOT EXISTS Bookings_pending_idx ON Bookings (email, bid) WHERE status = 'Pending';
+CREATE INDEX IF NOT EXISTS Bookings_cancelled_idx ON Bookings (bid) WHERE status = 'Cancelled';
+
+-- Bookings of a user by booking time (ListBookingInfoForUser)
+CREATE INDEX IF NOT EXISTS Bookings_email_idx ON Bookings (email, bdatetime, bid);
+
+-- Bookings of a show (RemoveShowsOnDate, ON DELETE CASCADE from Shows)
+CREATE INDEX IF NOT EXISTS Bookings_sid_idx ON Bookings (sid);
+
+-- Shows by date and start time, and by movie and date
+CREATE INDEX IF NOT EXISTS Shows_sdate_sttime_idx ON Shows (sdate, sttime);
+CREATE INDEX IF NOT EXISTS Shows_mvid_sdate_idx ON Shows (mvid, sdate);
+
+-- Shows of a theater; the primary key (sid, tid) covers lookups by sid
+CREATE INDEX IF NOT EXISTS Plays_tid_idx ON Plays (tid);
+
+-- Reference lookups by name and parent
+CREATE INDEX IF NOT EXISTS Cinemas_cname_idx ON Cinemas (cname);
+CREATE INDEX IF NOT EXISTS Cinemas_city_id_idx ON Cinemas (city_id);
+CREATE INDEX IF NOT EXISTS Cities_city_name_idx ON Cities (city_name);
+CREATE INDEX IF NOT EXISTS Theaters_cid_idx ON Theaters (cid);
+CREATE INDEX IF NOT EXISTS CinemaSeats_tid_sno_idx ON CinemaSeats (tid, sno);
+CREATE INDEX IF NOT EXISTS Movies_title_idx ON Movies (title);
+
+INSERT INTO SchemaVersion (version, description)
+SELECT 1, 'Index pack for menu queries'
+WHERE NOT EXISTS (SELECT 1 FROM SchemaVersion WHERE version = 1);
+
+ANALYZE;
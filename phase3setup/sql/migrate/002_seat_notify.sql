@@ -0,0 +1,59 @@
+-- Migration 002: publish ShowSeats changes on the seat_changes channel
+--
+-- Ticketmaster instances keep an in-memory seat availability map per show
+-- and LISTEN on seat_changes to stay coherent with each other. One
+-- notification is sent per show touched by a statement, after commit:
+--
+--     <sid>:<booked ssids>:<freed ssids>    e.g. 83:1201,1202:
+--     <sid>:*                               reload the show
+--
+-- Needs PostgreSQL 10 or later for statement-level transition tables.
+
+CREATE OR REPLACE FUNCTION notify_seat_changes() RETURNS trigger AS $$
+DECLARE
+    r RECORD;
+    payload TEXT;
+BEGIN
+    FOR r IN
+        SELECT n.sid,
+               string_agg(CASE WHEN n.bid IS NOT NULL THEN CAST(n.ssid AS TEXT) END, ',') AS booked,
+               string_agg(CASE WHEN n.bid IS NULL THEN CAST(n.ssid AS TEXT) END, ',') AS freed
+        FROM new_rows n, old_rows o
+        WHERE o.ssid = n.ssid AND n.bid IS DISTINCT FROM o.bid
+        GROUP BY n.sid
+    LOOP
+        payload := r.sid || ':' || coalesce(r.booked, '') || ':' || coalesce(r.freed, '');
+        -- notification payloads are limited to 8000 bytes
+        IF length(payload) > 7900 THEN
+            payload := r.sid || ':*';
+        END IF;
+        PERFORM pg_notify('seat_changes', payload);
+    END LOOP;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION notify_seat_removals() RETURNS trigger AS $$
+DECLARE
+    r RECORD;
+BEGIN
+    FOR r IN SELECT DISTINCT sid FROM old_rows LOOP
+        PERFORM pg_notify('seat_changes', r.sid || ':*');
+    END LOOP;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS ShowSeats_notify_update ON ShowSeats;
+CREATE TRIGGER ShowSeats_notify_update AFTER UPDATE ON ShowSeats
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE PROCEDURE notify_seat_changes();
+
+DROP TRIGGER IF EXISTS ShowSeats_notify_delete ON ShowSeats;
+CREATE TRIGGER ShowSeats_notify_delete AFTER DELETE ON ShowSeats
+    REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE PROCEDURE notify_seat_removals();
+
+INSERT INTO SchemaVersion (version, description)
+SELECT 2, 'Seat change notifications'
+WHERE NOT EXISTS (SELECT 1 FROM SchemaVersion WHERE version = 2);
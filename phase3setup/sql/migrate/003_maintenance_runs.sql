@@ -0,0 +1,22 @@
+-- Migration 003: progress of chunked maintenance jobs
+--
+-- Every chunk of a maintenance job commits together with its progress row,
+-- so a job that was interrupted resumes after the last committed key when
+-- it is started again with the same arguments.
+
+CREATE TABLE IF NOT EXISTS MaintenanceRuns (
+    job VARCHAR(32) NOT NULL,  -- Job name, e.g. clear-cancelled
+    args VARCHAR(256) NOT NULL,  -- Job arguments, '' if none
+    status VARCHAR(16) NOT NULL,  -- Running, Done, Failed or Interrupted
+    last_key BIGINT NOT NULL DEFAULT 0,  -- Highest id processed so far
+    processed BIGINT NOT NULL DEFAULT 0,  -- Ids processed so far
+    chunks BIGINT NOT NULL DEFAULT 0,  -- Chunks committed so far
+    started TIMESTAMPTZ NOT NULL DEFAULT now(),
+    updated TIMESTAMPTZ NOT NULL DEFAULT now(),
+    message TEXT,  -- Error of a failed run
+    PRIMARY KEY(job, args)
+);
+
+INSERT INTO SchemaVersion (version, description)
+SELECT 3, 'Maintenance job progress'
+WHERE NOT EXISTS (SELECT 1 FROM SchemaVersion WHERE version = 3);
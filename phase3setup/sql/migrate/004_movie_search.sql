@@ -0,0 +1,19 @@
+-- Migration 004: movie search indexes
+--
+-- SearchMovies matches keywords as a substring of the title, served by a
+-- trigram index, or as words of the title and description, served by a
+-- full text index. Both are maintained by PostgreSQL as movies are added,
+-- so a search reads only the matching movies however large the catalog.
+-- The text search expression must stay identical to the one in
+-- Queries.MOVIE_SEARCH for the index to be used.
+
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+CREATE INDEX IF NOT EXISTS Movies_title_trgm_idx ON Movies USING gin (title gin_trgm_ops);
+
+CREATE INDEX IF NOT EXISTS Movies_text_idx ON Movies
+    USING gin (to_tsvector('simple', title || ' ' || coalesce(description, '')));
+
+INSERT INTO SchemaVersion (version, description)
+SELECT 4, 'Movie search indexes'
+WHERE NOT EXISTS (SELECT 1 FROM SchemaVersion WHERE version = 4);
@@ -0,0 +1,48 @@
+-- Migration 005: show schedule read model
+--
+-- One row per show and theater with the movie, theater, cinema and city it
+-- belongs to, so schedule listings read a single index range instead of
+-- joining Shows, Plays, Theaters, Cinemas, Cities and Movies. The
+-- application writes its rows in the same transaction as the Shows and
+-- Plays rows they copy. Rebuild it with
+--
+--   java Maintenance <dbname> <port> <user> rebuild-schedule
+--
+-- after changing the source tables by hand; BulkLoader rebuilds it after
+-- every load.
+
+CREATE TABLE IF NOT EXISTS ShowSchedule (
+    sid BIGINT NOT NULL,  -- Show ID
+    tid BIGINT NOT NULL,  -- Theater ID
+    mvid BIGINT NOT NULL,  -- Movie ID
+    title VARCHAR(128) NOT NULL,  -- Movie title
+    duration INTEGER,  -- In seconds
+    sdate DATE NOT NULL,  -- Show date
+    sttime TIME NOT NULL,  -- Start time
+    edtime TIME NOT NULL,  -- End time
+    tname VARCHAR(64) NOT NULL,  -- Theater name
+    tseats BIGINT NOT NULL,  -- Number of seats in the theater
+    cid BIGINT NOT NULL,  -- Cinema ID
+    cname VARCHAR(64) NOT NULL,  -- Cinema name
+    city_name VARCHAR(64) NOT NULL,
+    PRIMARY KEY(sid, tid)
+);
+
+-- Schedule of a cinema by date and time
+CREATE INDEX IF NOT EXISTS ShowSchedule_cinema_idx ON ShowSchedule (cname, sdate, sttime);
+
+-- Shows of a movie at a cinema by date (ListMovieAndShowInfoAtCinemaInDateRange)
+CREATE INDEX IF NOT EXISTS ShowSchedule_movie_idx ON ShowSchedule (mvid, cname, sdate, sttime);
+
+-- Shows by date and start time (ListShowsStartingOnTimeAndDate)
+CREATE INDEX IF NOT EXISTS ShowSchedule_sdate_idx ON ShowSchedule (sdate, sttime);
+
+INSERT INTO ShowSchedule (sid, tid, mvid, title, duration, sdate, sttime, edtime, tname, tseats, cid, cname, city_name)
+SELECT S.sid, T.tid, M.mvid, M.title, M.duration, S.sdate, S.sttime, S.edtime, T.tname, T.tseats, C2.cid, C2.cname, C1.city_name
+FROM Shows S, Movies M, Plays P, Theaters T, Cinemas C2, Cities C1
+WHERE S.mvid = M.mvid AND S.sid = P.sid AND P.tid = T.tid AND T.cid = C2.cid AND C2.city_id = C1.city_id
+ON CONFLICT DO NOTHING;
+
+INSERT INTO SchemaVersion (version, description)
+SELECT 5, 'Show schedule read model'
+WHERE NOT EXISTS (SELECT 1 FROM SchemaVersion WHERE version = 5);
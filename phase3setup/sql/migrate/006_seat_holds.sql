@@ -0,0 +1,15 @@
+-- Migration 006: expiry of pending bookings
+--
+-- A Pending booking holds its seats until hold_until. Ticketmaster
+-- instances keep the holds in a timing wheel in memory, cancel each booking
+-- as it times out and release its seats. On startup the wheel is rebuilt
+-- from the Pending bookings, using bdatetime plus the default hold time
+-- for rows without hold_until (bookings made before this migration).
+-- The application always writes hold_until; a booking that holds its
+-- seats for as long as it is Pending gets 'infinity' and never expires.
+
+ALTER TABLE Bookings ADD COLUMN IF NOT EXISTS hold_until TIMESTAMPTZ;  -- Pending until, 'infinity' for no expiry, NULL for rows from before the migration
+
+INSERT INTO SchemaVersion (version, description)
+SELECT 6, 'Seat holds of pending bookings'
+WHERE NOT EXISTS (SELECT 1 FROM SchemaVersion WHERE version = 6);
@@ -0,0 +1,20 @@
+-- Migration 007: show date on Bookings and ShowSeats
+--
+-- Copies Shows.sdate into the bookings and show seats of every show, so
+-- these tables can be partitioned by show date with sql/partition.sql. The
+-- application writes the column with every new row; BulkLoader fills it
+-- from Shows while loading. Migration 008 fills it for rows inserted
+-- without it and makes it NOT NULL.
+--
+-- The backfill rewrites both tables once; run it off-peak on a large
+-- database.
+
+ALTER TABLE Bookings ADD COLUMN IF NOT EXISTS sdate DATE;  -- Show date, copied from Shows
+ALTER TABLE ShowSeats ADD COLUMN IF NOT EXISTS sdate DATE;  -- Show date, copied from Shows
+
+UPDATE Bookings B SET sdate = S.sdate FROM Shows S WHERE B.sid = S.sid AND B.sdate IS NULL;
+UPDATE ShowSeats SS SET sdate = S.sdate FROM Shows S WHERE SS.sid = S.sid AND SS.sdate IS NULL;
+
+INSERT INTO SchemaVersion (version, description)
+SELECT 7, 'Show date on bookings and show seats'
+WHERE NOT EXISTS (SELECT 1 FROM SchemaVersion WHERE version = 7);
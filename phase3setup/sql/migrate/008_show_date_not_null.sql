@@ -0,0 +1,35 @@
+-- Migration 008: show date required on Bookings and ShowSeats
+--
+-- The booking path finds show seats by their show date (migration 007), so
+-- a row without one would be invisible to it. Rows inserted without sdate,
+-- such as CSVs loaded with COPY, get it from Shows by a BEFORE INSERT
+-- trigger; what is still missing is backfilled and the columns become
+-- NOT NULL.
+--
+-- sql/partition.sql drops these triggers with the old tables; its
+-- partitioned tables need sdate to route every row.
+
+CREATE OR REPLACE FUNCTION fill_show_date() RETURNS trigger AS $$
+BEGIN
+    SELECT sdate INTO NEW.sdate FROM Shows WHERE sid = NEW.sid;
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS Bookings_fill_sdate ON Bookings;
+CREATE TRIGGER Bookings_fill_sdate BEFORE INSERT ON Bookings
+    FOR EACH ROW WHEN (NEW.sdate IS NULL) EXECUTE PROCEDURE fill_show_date();
+
+DROP TRIGGER IF EXISTS ShowSeats_fill_sdate ON ShowSeats;
+CREATE TRIGGER ShowSeats_fill_sdate BEFORE INSERT ON ShowSeats
+    FOR EACH ROW WHEN (NEW.sdate IS NULL) EXECUTE PROCEDURE fill_show_date();
+
+UPDATE Bookings B SET sdate = S.sdate FROM Shows S WHERE B.sid = S.sid AND B.sdate IS NULL;
+UPDATE ShowSeats SS SET sdate = S.sdate FROM Shows S WHERE SS.sid = S.sid AND SS.sdate IS NULL;
+
+ALTER TABLE Bookings ALTER COLUMN sdate SET NOT NULL;
+ALTER TABLE ShowSeats ALTER COLUMN sdate SET NOT NULL;
+
+INSERT INTO SchemaVersion (version, description)
+SELECT 8, 'Show date required on bookings and show seats'
+WHERE NOT EXISTS (SELECT 1 FROM SchemaVersion WHERE version = 8);
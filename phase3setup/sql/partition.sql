@@ -0,0 +1,181 @@
+-- Optional: partition Shows, Bookings and ShowSeats by month of show date
+--
+-- Converts the tables of create.sql, with every migration of sql/migrate
+-- applied, into tables partitioned by RANGE (sdate) with one partition per
+-- month, named shows_YYYY_MM, bookings_YYYY_MM and showseats_YYYY_MM.
+-- Queries that filter on Shows.sdate read only the partitions of their
+-- dates, each partition has its own small indexes, and the shows of a past
+-- month are removed by detaching its three partitions instead of deleting
+-- their rows one by one:
+--
+--   java Maintenance <dbname> <port> <user> partitions [--months N]
+--   java Maintenance <dbname> <port> <user> retire <MM/DD/YYYY> [--archive]
+--
+-- The first creates the partitions of the coming months; a show on a date
+-- without a partition cannot be added, so run it monthly. The second
+-- detaches every month that ended before the date and drops it, or moves
+-- it to the archive schema with --archive.
+--
+-- The partition key has to be part of every key and foreign key, so the
+-- keys become (sid, sdate), (bid, sdate) and (ssid, sdate), and the foreign
+-- keys from Plays and Payments to Shows and Bookings are dropped; the
+-- maintenance jobs delete those rows themselves. Needs PostgreSQL 12 or
+-- later. Runs in one transaction that locks the three tables; run it with
+-- postgresql/partition.sh while no application is connected. BulkLoader
+-- only loads unpartitioned tables, so load first and partition after.
+
+BEGIN;
+
+-- Creates the missing partitions of the months from first_day to last_day
+CREATE OR REPLACE FUNCTION create_show_partitions(first_day DATE, last_day DATE) RETURNS INTEGER AS $$
+DECLARE
+    m DATE := CAST(date_trunc('month', first_day) AS DATE);
+    t TEXT;
+    created INTEGER := 0;
+BEGIN
+    WHILE m <= last_day LOOP
+        -- referenced tables first, so the foreign keys of a new partition find theirs
+        FOREACH t IN ARRAY ARRAY['shows', 'bookings', 'showseats'] LOOP
+            IF to_regclass(t || '_' || to_char(m, 'YYYY_MM')) IS NULL THEN
+                EXECUTE format('CREATE TABLE %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)',
+                    t || '_' || to_char(m, 'YYYY_MM'), t,
+                    to_char(m, 'YYYY-MM-DD'), to_char(m + INTERVAL '1 month', 'YYYY-MM-DD'));
+                created := created + 1;
+            END IF;
+        END LOOP;
+        m := CAST(m + INTERVAL '1 month' AS DATE);
+    END LOOP;
+    RETURN created;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Detaches the partitions of every month that ended before cutoff, with
+-- their Payments, Plays and ShowSchedule rows; keeps them in the archive
+-- schema or drops them. Returns the months retired, as YYYY_MM.
+CREATE OR REPLACE FUNCTION retire_show_partitions(cutoff DATE, keep BOOLEAN) RETURNS SETOF TEXT AS $$
+DECLARE
+    p RECORD;
+    c RECORD;
+    t TEXT;
+BEGIN
+    IF keep THEN
+        CREATE SCHEMA IF NOT EXISTS archive;
+    END IF;
+    FOR p IN
+        SELECT substr(r.relname, 7) AS suffix, to_date(substr(r.relname, 7), 'YYYY_MM') AS first_day
+        FROM pg_inherits i JOIN pg_class r ON r.oid = i.inhrelid
+        WHERE i.inhparent = to_regclass('shows') AND r.relname ~ '^shows_[0-9]{4}_[0-9]{2}$'
+        AND to_date(substr(r.relname, 7), 'YYYY_MM') + INTERVAL '1 month' <= cutoff
+        ORDER BY 2
+    LOOP
+        -- Payments and Plays are not partitioned, so their rows of the month go first
+        IF keep THEN
+            EXECUTE format('CREATE TABLE archive.%I AS SELECT * FROM Payments WHERE bid IN (SELECT bid FROM %I)', 'payments_' || p.suffix, 'bookings_' || p.suffix);
+            EXECUTE format('CREATE TABLE archive.%I AS SELECT * FROM Plays WHERE sid IN (SELECT sid FROM %I)', 'plays_' || p.suffix, 'shows_' || p.suffix);
+        END IF;
+        EXECUTE format('DELETE FROM Payments WHERE bid IN (SELECT bid FROM %I)', 'bookings_' || p.suffix);
+        EXECUTE format('DELETE FROM Plays WHERE sid IN (SELECT sid FROM %I)', 'shows_' || p.suffix);
+        DELETE FROM ShowSchedule WHERE sdate >= p.first_day AND sdate < p.first_day + INTERVAL '1 month';
+        -- referencing tables first; a detached partition keeps its foreign keys, which would block the next detach
+        FOREACH t IN ARRAY ARRAY['showseats', 'bookings', 'shows'] LOOP
+            EXECUTE format('ALTER TABLE %I DETACH PARTITION %I', t, t || '_' || p.suffix);
+            FOR c IN SELECT conname FROM pg_constraint WHERE conrelid = to_regclass(t || '_' || p.suffix) AND contype = 'f' LOOP
+                EXECUTE format('ALTER TABLE %I DROP CONSTRAINT %I', t || '_' || p.suffix, c.conname);
+            END LOOP;
+            IF keep THEN
+                EXECUTE format('ALTER TABLE %I SET SCHEMA archive', t || '_' || p.suffix);
+            ELSE
+                EXECUTE format('DROP TABLE %I', t || '_' || p.suffix);
+            END IF;
+        END LOOP;
+        RETURN NEXT p.suffix;
+    END LOOP;
+END;
+$$ LANGUAGE plpgsql;
+
+-- The old tables stay until their rows are copied; their keys are renamed so the new ones can take the names
+ALTER TABLE Shows RENAME TO Shows_unpartitioned;
+ALTER TABLE Shows_unpartitioned RENAME CONSTRAINT shows_pkey TO shows_unpartitioned_pkey;
+ALTER TABLE Bookings RENAME TO Bookings_unpartitioned;
+ALTER TABLE Bookings_unpartitioned RENAME CONSTRAINT bookings_pkey TO bookings_unpartitioned_pkey;
+ALTER TABLE ShowSeats RENAME TO ShowSeats_unpartitioned;
+ALTER TABLE ShowSeats_unpartitioned RENAME CONSTRAINT showseats_pkey TO showseats_unpartitioned_pkey;
+
+CREATE TABLE Shows (
+    sid BIGINT NOT NULL,  -- Show ID
+    mvid BIGINT NOT NULL,  -- Movie ID
+    sdate DATE NOT NULL,  -- Show date
+    sttime TIME NOT NULL,  -- Start time
+    edtime TIME NOT NULL,  -- End time
+    PRIMARY KEY(sid, sdate),
+    FOREIGN KEY(mvid) REFERENCES Movies(mvid)
+) PARTITION BY RANGE (sdate);
+
+CREATE TABLE Bookings (
+    bid BIGINT NOT NULL,  -- Booking ID
+    status VARCHAR(16) NOT NULL,
+    bdatetime TIMESTAMPTZ NOT NULL,  -- Booking date and time
+    seats INTEGER NOT NULL,  -- Number of seats booked
+    sid BIGINT NOT NULL,  -- Show ID
+    email VARCHAR(64) NOT NULL,  -- User account
+    hold_until TIMESTAMPTZ,  -- Pending until, 'infinity' for no expiry, NULL for rows from before migration 006
+    sdate DATE NOT NULL,  -- Show date
+    PRIMARY KEY(bid, sdate),
+    FOREIGN KEY(sid, sdate) REFERENCES Shows(sid, sdate) ON DELETE CASCADE,
+    FOREIGN KEY(email) REFERENCES Users(email)
+) PARTITION BY RANGE (sdate);
+
+CREATE TABLE ShowSeats (
+    ssid BIGINT NOT NULL,  -- Show seat ID
+    sid BIGINT NOT NULL,  -- Show ID
+    csid BIGINT NOT NULL, -- Cinema seat ID
+    bid BIGINT, -- Booking ID
+    price REAL NOT NULL,
+    sdate DATE NOT NULL,  -- Show date
+    PRIMARY KEY(ssid, sdate),
+    FOREIGN KEY(sid, sdate) REFERENCES Shows(sid, sdate),
+    FOREIGN KEY(csid) REFERENCES CinemaSeats(csid),
+    FOREIGN KEY(bid, sdate) REFERENCES Bookings(bid, sdate),
+    UNIQUE(sid, csid, sdate)  -- The same seat can only be booked once for the same show
+) PARTITION BY RANGE (sdate);
+
+-- Every month with shows, and the next three
+SELECT create_show_partitions(
+    COALESCE((SELECT MIN(sdate) FROM Shows_unpartitioned), CURRENT_DATE),
+    GREATEST(COALESCE((SELECT MAX(sdate) FROM Shows_unpartitioned), CURRENT_DATE), CURRENT_DATE) + 92);
+
+INSERT INTO Shows (sid, mvid, sdate, sttime, edtime)
+SELECT sid, mvid, sdate, sttime, edtime FROM Shows_unpartitioned;
+INSERT INTO Bookings (bid, status, bdatetime, seats, sid, email, hold_until, sdate)
+SELECT B.bid, B.status, B.bdatetime, B.seats, B.sid, B.email, B.hold_until, S.sdate
+FROM Bookings_unpartitioned B, Shows_unpartitioned S WHERE B.sid = S.sid;
+INSERT INTO ShowSeats (ssid, sid, csid, bid, price, sdate)
+SELECT SS.ssid, SS.sid, SS.csid, SS.bid, SS.price, S.sdate
+FROM ShowSeats_unpartitioned SS, Shows_unpartitioned S WHERE SS.sid = S.sid;
+
+-- Also drops the foreign keys of Plays and Payments and the seat change triggers
+DROP TABLE ShowSeats_unpartitioned, Bookings_unpartitioned, Shows_unpartitioned CASCADE;
+
+-- The indexes of migration 001, created on every partition
+CREATE INDEX ShowSeats_free_idx ON ShowSeats (sid, ssid) WHERE bid IS NULL;
+CREATE INDEX ShowSeats_bid_idx ON ShowSeats (bid) WHERE bid IS NOT NULL;
+CREATE INDEX Bookings_pending_idx ON Bookings (email, bid) WHERE status = 'Pending';
+CREATE INDEX Bookings_cancelled_idx ON Bookings (bid) WHERE status = 'Cancelled';
+CREATE INDEX Bookings_email_idx ON Bookings (email, bdatetime, bid);
+CREATE INDEX Bookings_sid_idx ON Bookings (sid);
+CREATE INDEX Shows_sdate_sttime_idx ON Shows (sdate, sttime);
+CREATE INDEX Shows_mvid_sdate_idx ON Shows (mvid, sdate);
+
+-- The triggers of migration 002; transition tables see the rows of every partition
+CREATE TRIGGER ShowSeats_notify_update AFTER UPDATE ON ShowSeats
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE PROCEDURE notify_seat_changes();
+CREATE TRIGGER ShowSeats_notify_delete AFTER DELETE ON ShowSeats
+    REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE PROCEDURE notify_seat_removals();
+
+COMMIT;
+
+ANALYZE Shows;
+ANALYZE Bookings;
+ANALYZE ShowSeats;
@@ -0,0 +1,7 @@
+-- Moves every id sequence past the largest id loaded, so datasets other
+-- than data/ (such as the output of DataGenerator) can be booked into.
+
+SELECT setval('Booking_Seq', GREATEST((SELECT MAX(bid) FROM Bookings), 500));
+SELECT setval('Movie_Seq', GREATEST((SELECT MAX(mvid) FROM Movies), 53));
+SELECT setval('Show_Seq', GREATEST((SELECT MAX(sid) FROM Shows), 200));
+SELECT setval('ShowSeat_Seq', GREATEST((SELECT MAX(ssid) FROM ShowSeats), 1200));